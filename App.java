@@ -5,37 +5,87 @@ import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 import controller.MainController;
+import service.AccountSyncManager;
+import service.ConnectionPool;
 import service.EmailService;
 import service.FolderManager;
+import service.FolderMetadataService;
 import service.HostConfigManager;
+import service.MailTaskExecutor;
+import service.MetricsRegistry;
+import service.OutboxService;
+import service.SearchIndex;
+import service.SmtpTransportPool;
+import service.StartupTimer;
+
+import java.util.concurrent.CompletableFuture;
 
 //Main application entry point
 public class App extends Application {
 
+    // Inboxes of all saved accounts are re-synced this often in the background
+    private static final long ACCOUNT_SYNC_INTERVAL_MS = 5 * 60_000;
+    // Connections opened while the window is still being built
+    private static final int PREWARM_CONNECTIONS = 2;
+
+    private OutboxService outboxService;
+    private AccountSyncManager accountSyncManager;
+
     @Override
     public void start(Stage primaryStage) throws Exception {
+        StartupTimer startup = StartupTimer.getInstance();
+
+        // Saved accounts are read off the FX thread while the window is built; the server
+        // connections for the current one start right away
+        CompletableFuture<HostConfigManager> configLoad = CompletableFuture.supplyAsync(() -> {
+            HostConfigManager manager = new HostConfigManager();
+            try {
+                manager.loadFromFile("host_config.dat");
+            } catch (Exception ex) {
+                // Ignore if file not found / corrupted, user can configure manually
+                ex.printStackTrace();
+            }
+            if (manager.getCurrentHost() != null) {
+                ConnectionPool.getInstance().prewarm(manager.getCurrentHost(), PREWARM_CONNECTIONS);
+            }
+            startup.mark(StartupTimer.CONFIG_LOADED);
+            return manager;
+        });
+
         // Load main window FXML
         FXMLLoader loader = new FXMLLoader(getClass().getResource("/resources/MainWindow.fxml"));
         Parent root = loader.load();
+        startup.mark(StartupTimer.FXML_LOADED);
 
         // Create services
         EmailService emailService = new EmailService();
         FolderManager folderManager = new FolderManager();
-        HostConfigManager hostConfigManager = new HostConfigManager();
-
-        try {
-            hostConfigManager.loadFromFile("host_config.dat");
-            if (hostConfigManager.getCurrentHost() != null) {
-                emailService.setHostConfiguration(hostConfigManager.getCurrentHost());
-            }
-        } catch (Exception ex) {
-            // Ignore if file not found / corrupted, user can configure manually
-            ex.printStackTrace();
+        HostConfigManager hostConfigManager = configLoad.join();
+        if (hostConfigManager.getCurrentHost() != null) {
+            emailService.setHostConfiguration(hostConfigManager.getCurrentHost());
         }
 
+        // Deliver whatever is still spooled from the last run
+        outboxService = new OutboxService(emailService);
+        outboxService.start();
+
+        // Pool and cache stats next to the operation latencies (Diagnostics window and JMX)
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.registerStats("ConnectionPool", ConnectionPool.getInstance()::getStats);
+        metrics.registerStats("SmtpTransportPool", SmtpTransportPool.getInstance()::getStats);
+        metrics.registerStats("MailTaskExecutor", MailTaskExecutor.getInstance()::getStats);
+        metrics.registerStats("OutboxService", outboxService::getStats);
+        metrics.registerStats("BodyCache", emailService::getBodyCache);
+        metrics.registerStats("FolderMetadataService", FolderMetadataService::getInstance);
+        metrics.registerStats("Startup", StartupTimer::getInstance);
+
+        accountSyncManager = new AccountSyncManager();
+
         // Inject services into controller
         MainController controller = loader.getController();
         controller.setEmailService(emailService);
+        controller.setOutboxService(outboxService);
+        controller.setAccountSyncManager(accountSyncManager);
         controller.setFolderManager(folderManager);
         controller.setHostConfigManager(hostConfigManager);
 
@@ -46,9 +96,31 @@ public class App extends Application {
         primaryStage.setTitle("Email Client");
         primaryStage.setScene(scene);
         primaryStage.show();
+
+        // Last session's folder tree and open folder from the cache, then reconciled with the server
+        controller.warmStart();
+
+        // Every saved account syncs side by side, each on its own connections
+        accountSyncManager.start(hostConfigManager::getAllHosts, AccountSyncManager.INBOX, ACCOUNT_SYNC_INTERVAL_MS);
+    }
+
+    @Override
+    public void stop() {
+        // Log out of pooled IMAP/SMTP connections and persist pending index data on exit
+        if (outboxService != null) {
+            outboxService.shutdown();
+        }
+        if (accountSyncManager != null) {
+            accountSyncManager.shutdown();
+        }
+        MailTaskExecutor.getInstance().shutdown();
+        ConnectionPool.getInstance().shutdown();
+        SmtpTransportPool.getInstance().shutdown();
+        SearchIndex.getInstance().flush();
     }
 
     public static void main(String[] args) {
+        MailTaskExecutor.configureCarrierThreads();
         launch(args);
     }
 }
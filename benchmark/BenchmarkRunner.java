@@ -0,0 +1,34 @@
+package benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Main class of benchmarks.jar. Takes the usual JMH options but writes the
+ * results as JSON to jmh-result.json unless -rf / -rff say otherwise, so
+ * every run leaves a file that can be compared with the previous one.
+ *
+ *   java -jar benchmark/target/benchmarks.jar                   all benchmarks
+ *   java -jar benchmark/target/benchmarks.jar ImapBenchmark -p mailboxSize=10000
+ *   java -jar benchmark/target/benchmarks.jar -rff baseline.json
+ *
+ * EnvelopeFetchBenchmark (round trips against the local server) is in the
+ * same jar: java -cp benchmark/target/benchmarks.jar benchmark.EnvelopeFetchBenchmark
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            options.result("jmh-result.json");
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,88 @@
+package benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import model.EmailMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import service.EmailCacheService;
+
+/**
+ * Writing and reading a whole cached folder of envelopes, in a scratch
+ * directory so the real email_cache is never touched.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheBenchmark {
+
+    private static final String FOLDER = "INBOX";
+
+    @Param({"1000", "50000"})
+    public int folderSize;
+
+    private File directory;
+    private EmailCacheService cacheService;
+    private List<EmailMessage> emails;
+
+    @Setup(Level.Trial)
+    public void createCache() throws Exception {
+        directory = Files.createTempDirectory("cache-bench").toFile();
+        cacheService = new EmailCacheService(directory);
+        emails = new ArrayList<>(folderSize);
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        for (int i = 0; i < folderSize; i++) {
+            EmailMessage email = new EmailMessage();
+            email.setUid(i + 1);
+            email.setMessageNumber(i + 1);
+            email.setFolder(FOLDER);
+            email.setFrom("Sender " + (i % 50) + " <sender" + (i % 50) + "@example.com>");
+            email.addTo("bench@localhost");
+            email.setSubject("Synthetic message " + i + ": " + SyntheticText.of(40, i));
+            email.setSentDate(start.plusMinutes(i));
+            email.setMessageId("<" + i + ".bench@localhost>");
+            email.setRead(i % 3 != 0);
+            email.setSize(4096 + i % 1000);
+            emails.add(email);
+        }
+        cacheService.saveEmails(FOLDER, emails);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteCache() throws Exception {
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void saveEmails() {
+        cacheService.saveEmails(FOLDER, emails);
+    }
+
+    @Benchmark
+    public List<EmailMessage> loadEmails() {
+        return cacheService.loadEmails(FOLDER);
+    }
+}
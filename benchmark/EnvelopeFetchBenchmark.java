@@ -0,0 +1,166 @@
+package benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.regex.Pattern;
+import javax.mail.*;
+import model.HostConfiguration;
+import service.EnvelopeLoader;
+
+/**
+ * Compares IMAP round trips and latency of per-message envelope access
+ * (the old receiveEmails loop) against one bulk FetchProfile FETCH.
+ *
+ * Usage: EnvelopeFetchBenchmark [sizes, e.g. 20,1000,5000]
+ * Runs against a LocalMailServer seeded with as many messages as the
+ * largest size. Every strategy runs twice on a fresh connection: once timed
+ * with the protocol trace off, once untimed with the trace on to count the
+ * commands.
+ */
+public class EnvelopeFetchBenchmark {
+
+    static {
+        ScratchDataDirectory.install();  // before EnvelopeLoader writes the Message-ID index
+    }
+
+    private static final String FOLDER = "INBOX";
+    private static final int BODY_BYTES = 1024;
+    // The per-message loop is measured on at most this many messages and extrapolated above it
+    private static final int PER_MESSAGE_SAMPLE_LIMIT = 200;
+
+    public static void main(String[] args) throws Exception {
+        String sizesArg = args.length > 0 ? args[0] : "20,1000,5000";
+        int[] sizes = Arrays.stream(sizesArg.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+
+        try (LocalMailServer server = new LocalMailServer()) {
+            server.seed(Arrays.stream(sizes).max().orElse(0), BODY_BYTES);
+            HostConfiguration config = server.getConfig();
+
+            System.out.printf("%-8s %-12s %12s %12s %10s%n", "size", "strategy", "roundTrips", "millis", "note");
+            for (int size : sizes) {
+                long nanos = runPerMessage(config, size, null);
+                CommandCounter counter = new CommandCounter();
+                int sample = Math.min(size, PER_MESSAGE_SAMPLE_LIMIT);
+                runPerMessage(config, size, counter);
+                double scale = sample == 0 ? 0 : (double) size / sample;
+                print(size, "per-message", Math.round(counter.count * scale), nanos * scale,
+                        scale > 1 ? "extrapolated" : "");
+
+                nanos = runBulk(config, size, null);
+                counter = new CommandCounter();
+                runBulk(config, size, counter);
+                print(size, "bulk-fetch", counter.count, nanos, "");
+            }
+        }
+    }
+
+    // Elapsed nanos of the per-message loop over the sampled messages; counter may be null
+    private static long runPerMessage(HostConfiguration config, int size, CommandCounter counter) throws Exception {
+        Store store = connect(config, counter);
+        try {
+            Folder folder = store.getFolder(FOLDER);
+            folder.open(Folder.READ_ONLY);
+            Message[] messages = lastMessages(folder, size);
+            int sample = Math.min(messages.length, PER_MESSAGE_SAMPLE_LIMIT);
+
+            if (counter != null) {
+                counter.reset();
+            }
+            long start = System.nanoTime();
+            for (int i = messages.length - sample; i < messages.length; i++) {
+                Message msg = messages[i];
+                msg.isSet(Flags.Flag.DELETED);
+                msg.getFrom();
+                msg.getSubject();
+                msg.getSentDate();
+                msg.isSet(Flags.Flag.SEEN);
+                msg.getHeader("Message-ID");
+            }
+            long nanos = System.nanoTime() - start;
+            folder.close(false);
+            return nanos;
+        } finally {
+            store.close();
+        }
+    }
+
+    // Elapsed nanos of one EnvelopeLoader bulk FETCH; counter may be null
+    private static long runBulk(HostConfiguration config, int size, CommandCounter counter) throws Exception {
+        Store store = connect(config, counter);
+        try {
+            Folder folder = store.getFolder(FOLDER);
+            folder.open(Folder.READ_ONLY);
+            Message[] messages = lastMessages(folder, size);
+
+            if (counter != null) {
+                counter.reset();
+            }
+            long start = System.nanoTime();
+            new EnvelopeLoader().load(config.getAccountId(), folder, messages);
+            long nanos = System.nanoTime() - start;
+            folder.close(false);
+            return nanos;
+        } finally {
+            store.close();
+        }
+    }
+
+    private static Message[] lastMessages(Folder folder, int size) throws MessagingException {
+        int messageCount = folder.getMessageCount();
+        if (messageCount == 0) {
+            return new Message[0];
+        }
+        int first = Math.max(1, messageCount - size + 1);
+        return folder.getMessages(first, messageCount);
+    }
+
+    private static Store connect(HostConfiguration config, CommandCounter counter) throws MessagingException {
+        String protocol = config.getReceiveProtocol();
+        Properties props = new Properties();
+        props.put("mail.store.protocol", protocol);
+        props.put("mail." + protocol + ".host", config.getReceiveHost());
+        props.put("mail." + protocol + ".port", config.getReceivePort());
+        props.put("mail." + protocol + ".ssl.enable", "true");
+
+        // Protocol trace is only used to count completed commands, never while timing
+        Session session = Session.getInstance(props);
+        if (counter != null) {
+            session.setDebugOut(new PrintStream(counter, true));
+            session.setDebug(true);
+        }
+
+        Store store = session.getStore(protocol);
+        store.connect(config.getReceiveHost(), config.getUsername(), config.getPassword());
+        return store;
+    }
+
+    private static void print(int size, String strategy, long roundTrips, double nanos, String note) {
+        System.out.printf("%-8d %-12s %12d %12.1f %10s%n", size, strategy, roundTrips, nanos / 1_000_000.0, note);
+    }
+
+    // Counts tagged server completions ("A12 OK ...", tag prefix varies per connection) in the debug trace
+    private static class CommandCounter extends OutputStream {
+        private static final Pattern TAGGED_COMPLETION = Pattern.compile("^[A-Z]+\\d+ (OK|NO|BAD)\\b.*");
+
+        private final StringBuilder line = new StringBuilder();
+        private long count;
+
+        void reset() {
+            count = 0;
+        }
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                if (TAGGED_COMPLETION.matcher(line).matches()) {
+                    count++;
+                }
+                line.setLength(0);
+            } else if (line.length() < 64) {
+                line.append((char) b);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package benchmark;
+
+import com.sun.mail.imap.IMAPFolder;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.mail.Folder;
+import model.EmailMessage;
+import model.HostConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import service.BodyCache;
+import service.ConnectionPool;
+import service.EmailService;
+
+/**
+ * EmailService's IMAP operations against the local server, over the pooled
+ * connections the client really uses: listing the newest envelopes (on the
+ * warm pooled connection, and from a fresh login), reading a body that is
+ * not cached yet, and deleting a listed message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImapBenchmark {
+
+    static {
+        ScratchDataDirectory.install();  // before EmailService creates its stores
+    }
+
+    private static final String FOLDER = "INBOX";
+
+    @Param({"1000"})
+    public int mailboxSize;
+
+    @Param({"4096"})
+    public int bodyBytes;
+
+    private LocalMailServer server;
+    private HostConfiguration config;
+    private EmailService emailService;
+    private List<EmailMessage> newest;
+
+    @Setup(Level.Trial)
+    public void startServer() throws Exception {
+        server = new LocalMailServer();
+        server.seed(mailboxSize, bodyBytes);
+        config = server.getConfig();
+        emailService = new EmailService();
+        newest = emailService.receiveEmails(FOLDER, config);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        ConnectionPool.getInstance().shutdown();
+        server.close();
+    }
+
+    // A Refresh: the pooled folder is still open and JavaMail already holds the envelopes it fetched
+    @Benchmark
+    public List<EmailMessage> receiveEmails() throws Exception {
+        return emailService.receiveEmails(FOLDER, config);
+    }
+
+    // Connect, login, SELECT and the envelope FETCH: the first load of a folder
+    @Benchmark
+    public List<EmailMessage> receiveEmailsCold(NoPooledConnection cold) throws Exception {
+        return emailService.receiveEmails(FOLDER, config);
+    }
+
+    @Benchmark
+    public String fetchEmailBody(UncachedBody body) throws Exception {
+        return emailService.fetchEmailBody(body.messageId, FOLDER, config);
+    }
+
+    @Benchmark
+    public void deleteEmail(MessageToDelete target) throws Exception {
+        emailService.deleteEmail(target.message, config);
+    }
+
+    @State(Scope.Thread)
+    public static class NoPooledConnection {
+        @Setup(Level.Invocation)
+        public void closeConnections() {
+            ConnectionPool.getInstance().shutdown();
+        }
+    }
+
+    /**
+     * Cycles through the listed messages, each evicted from the body cache first.
+     */
+    @State(Scope.Thread)
+    public static class UncachedBody {
+        private int next;
+        private String messageId;
+
+        @Setup(Level.Invocation)
+        public void pick(ImapBenchmark benchmark) {
+            List<EmailMessage> listed = benchmark.newest;
+            messageId = listed.get(next++ % listed.size()).getMessageId();
+            BodyCache.getInstance().remove(benchmark.config.getAccountId(), FOLDER, messageId);
+        }
+    }
+
+    /**
+     * A freshly delivered message, listed like the table would have it (UID known), so the
+     * mailbox keeps its size however many are deleted.
+     */
+    @State(Scope.Thread)
+    public static class MessageToDelete {
+        private EmailMessage message;
+
+        @Setup(Level.Invocation)
+        public void deliver(ImapBenchmark benchmark) throws Exception {
+            String messageId = benchmark.server.deliver(benchmark.bodyBytes, false);
+            // The pooled folder hears about the new message with the next command; FolderSync does the same
+            ConnectionPool.getInstance().withLease(benchmark.config, lease -> {
+                IMAPFolder folder = (IMAPFolder) lease.openFolder(FOLDER, Folder.READ_WRITE);
+                return folder.doCommand(protocol -> {
+                    protocol.simpleCommand("NOOP", null);
+                    return null;
+                });
+            });
+            message = null;
+            for (EmailMessage email : benchmark.emailService.receiveEmails(FOLDER, benchmark.config)) {
+                if (messageId.equals(email.getMessageId())) {
+                    message = email;
+                }
+            }
+            if (message == null) {
+                throw new IllegalStateException("Delivered message " + messageId + " is not listed");
+            }
+        }
+    }
+}
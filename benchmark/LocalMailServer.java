@@ -0,0 +1,106 @@
+package benchmark;
+
+import com.icegreen.greenmail.user.GreenMailUser;
+import com.icegreen.greenmail.util.DummySSLSocketFactory;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import java.security.Security;
+import java.util.Date;
+import java.util.Properties;
+import javax.activation.DataHandler;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
+import model.HostConfiguration;
+
+/**
+ * In-process GreenMail server standing in for the mail provider: IMAPS and
+ * SMTPS on free local ports, one mailbox user and one sink for sent mail.
+ * The client always enables SSL, so the JVM is switched to GreenMail's
+ * trust-everything socket factory.
+ */
+public class LocalMailServer implements AutoCloseable {
+
+    public static final String USER = "bench@localhost";
+    public static final String SINK = "sink@localhost";
+    private static final String PASSWORD = "secret";
+
+    static {
+        Security.setProperty("ssl.SocketFactory.provider", DummySSLSocketFactory.class.getName());
+    }
+
+    private final GreenMail greenMail;
+    private final GreenMailUser user;
+    private final Session session = Session.getInstance(new Properties());
+    private int delivered;
+
+    public LocalMailServer() {
+        greenMail = new GreenMail(new ServerSetup[]{ServerSetupTest.IMAPS.dynamicPort(),
+                ServerSetupTest.SMTPS.dynamicPort()});
+        greenMail.start();
+        user = greenMail.setUser(USER, USER, PASSWORD);
+        greenMail.setUser(SINK, SINK, PASSWORD);
+    }
+
+    // Client settings for the mailbox user
+    public HostConfiguration getConfig() {
+        HostConfiguration config = new HostConfiguration();
+        config.setReceiveProtocol("imap");
+        config.setReceiveHost("localhost");
+        config.setReceivePort(greenMail.getImaps().getPort());
+        config.setSendHost("localhost");
+        config.setSendPort(greenMail.getSmtps().getPort());
+        config.setUsername(USER);
+        config.setPassword(PASSWORD);
+        return config;
+    }
+
+    // Fill the INBOX with synthetic mail: plain text bodies of bodyBytes, every fifth one with an attachment
+    public void seed(int messages, int bodyBytes) throws MessagingException {
+        for (int i = 0; i < messages; i++) {
+            deliver(bodyBytes, i % 5 == 4);
+        }
+    }
+
+    // Drop all mail of every user (e.g. what piled up in the sink)
+    public void purge() throws Exception {
+        greenMail.purgeEmailFromAllMailboxes();
+    }
+
+    // Deliver one more message straight into the INBOX; returns its Message-ID
+    public String deliver(int bodyBytes, boolean withAttachment) throws MessagingException {
+        int number = delivered++;
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress("sender" + (number % 50) + "@example.com"));
+        message.addRecipient(Message.RecipientType.TO, new InternetAddress(USER));
+        message.setSubject("Synthetic message " + number);
+        message.setSentDate(new Date(System.currentTimeMillis() - (1_000_000L - number) * 60_000));
+        String text = SyntheticText.of(bodyBytes, number);
+        if (withAttachment) {
+            MimeBodyPart textPart = new MimeBodyPart();
+            textPart.setText(text, "UTF-8");
+            MimeBodyPart attachment = new MimeBodyPart();
+            attachment.setDataHandler(new DataHandler(new ByteArrayDataSource(new byte[64 * 1024],
+                    "application/octet-stream")));
+            attachment.setFileName("data-" + number + ".bin");
+            message.setContent(new MimeMultipart(textPart, attachment));
+        } else {
+            message.setText(text, "UTF-8");
+        }
+        message.saveChanges();
+        String messageId = message.getMessageID();
+        user.deliver(message);
+        return messageId;
+    }
+
+    @Override
+    public void close() {
+        greenMail.stop();
+    }
+}
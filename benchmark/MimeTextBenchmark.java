@@ -0,0 +1,95 @@
+package benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import javax.activation.DataHandler;
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import service.EmailService;
+
+/**
+ * Parsing a raw message and extracting its text, as done for POP3 and
+ * other non-IMAP stores: plain text, multipart/alternative, and a mixed
+ * message whose text sits next to a large attachment.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MimeTextBenchmark {
+
+    static {
+        ScratchDataDirectory.install();  // before EmailService creates its stores
+    }
+
+    @Param({"plain", "alternative", "mixed"})
+    public String shape;
+
+    @Param({"16384"})
+    public int bodyBytes;
+
+    private final Session session = Session.getInstance(new Properties());
+    private EmailService emailService;
+    private byte[] raw;
+
+    @Setup(Level.Trial)
+    public void buildMessage() throws Exception {
+        emailService = new EmailService();
+        String text = SyntheticText.of(bodyBytes, 1);
+        MimeMessage message = new MimeMessage(session);
+        message.setSubject("MIME benchmark");
+        switch (shape) {
+            case "plain":
+                message.setText(text, "UTF-8");
+                break;
+            case "alternative": {
+                MimeBodyPart plain = new MimeBodyPart();
+                plain.setText(text, "UTF-8");
+                MimeBodyPart html = new MimeBodyPart();
+                html.setContent("<html><body><p>" + text + "</p></body></html>", "text/html; charset=UTF-8");
+                message.setContent(new MimeMultipart("alternative", plain, html));
+                break;
+            }
+            case "mixed": {
+                MimeBodyPart plain = new MimeBodyPart();
+                plain.setText(text, "UTF-8");
+                MimeBodyPart attachment = new MimeBodyPart();
+                attachment.setDataHandler(new DataHandler(new ByteArrayDataSource(new byte[1024 * 1024],
+                        "application/pdf")));
+                attachment.setFileName("report.pdf");
+                message.setContent(new MimeMultipart(plain, attachment));
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+        message.saveChanges();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out);
+        raw = out.toByteArray();
+    }
+
+    @Benchmark
+    public String extractText() throws Exception {
+        return emailService.getTextFromMessage(new MimeMessage(session, new ByteArrayInputStream(raw)));
+    }
+}
@@ -0,0 +1,44 @@
+package benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import service.DataDirectory;
+
+/**
+ * Points the client's global stores (BodyCache, SearchIndex, MessageIdIndex,
+ * the envelope cache) at a temp directory of this JVM, deleted on exit. Each
+ * JMH fork is its own JVM, so forks never share or leave behind index files.
+ * Called from the static initialiser of benchmarks that use EmailService,
+ * before any store is created.
+ */
+final class ScratchDataDirectory {
+
+    private ScratchDataDirectory() {
+    }
+
+    static synchronized void install() {
+        if (System.getProperty(DataDirectory.PROPERTY) != null) {
+            return;
+        }
+        Path directory;
+        try {
+            directory = Files.createTempDirectory("mail-bench");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.setProperty(DataDirectory.PROPERTY, directory.toString());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> delete(directory), "bench-data-cleanup"));
+    }
+
+    private static void delete(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("Failed to delete " + directory + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+import model.EmailMessage;
+import model.HostConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import service.EmailService;
+import service.SmtpTransportPool;
+
+/**
+ * EmailService.sendEmail through the pooled SMTP connections to the local
+ * server's sink user.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SmtpBenchmark {
+
+    static {
+        ScratchDataDirectory.install();  // before EmailService creates its stores
+    }
+
+    @Param({"4096"})
+    public int bodyBytes;
+
+    private LocalMailServer server;
+    private HostConfiguration config;
+    private EmailService emailService;
+    private EmailMessage message;
+
+    @Setup(Level.Trial)
+    public void startServer() {
+        server = new LocalMailServer();
+        config = server.getConfig();
+        emailService = new EmailService();
+        message = new EmailMessage();
+        message.setFrom(LocalMailServer.USER);
+        message.addTo(LocalMailServer.SINK);
+        message.setSubject("Benchmark");
+        message.setBody(SyntheticText.of(bodyBytes, 0));
+    }
+
+    // The sink would otherwise hold every message sent during the run
+    @TearDown(Level.Iteration)
+    public void emptySink() throws Exception {
+        server.purge();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        SmtpTransportPool.getInstance().shutdown();
+        server.close();
+    }
+
+    @Benchmark
+    public void sendEmail() throws Exception {
+        emailService.sendEmail(message, config);
+    }
+}
@@ -0,0 +1,34 @@
+package benchmark;
+
+/**
+ * Deterministic filler text, so every run benchmarks the same bytes.
+ */
+public final class SyntheticText {
+
+    private static final String[] WORDS = {"meeting", "report", "schedule", "invoice", "project", "review",
+            "update", "deadline", "budget", "agenda", "quarter", "summary", "draft", "release", "customer"};
+
+    private SyntheticText() {
+    }
+
+    // About length characters of words, wrapped at 72 columns
+    public static String of(int length, int seed) {
+        StringBuilder text = new StringBuilder(length + 16);
+        int column = 0;
+        int i = seed;
+        while (text.length() < length) {
+            String word = WORDS[Math.floorMod(i * 31 + 7, WORDS.length)];
+            i++;
+            if (column + word.length() > 72) {
+                text.append("\r\n");
+                column = 0;
+            } else if (column > 0) {
+                text.append(' ');
+                column++;
+            }
+            text.append(word);
+            column += word.length();
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,107 @@
+package cli;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * One JSON object on a single line, built field by field. Values may be
+ * strings, numbers, booleans, null, maps and collections (nested as JSON
+ * objects and arrays); anything else is written as its toString().
+ */
+public class JsonLine {
+
+    private final StringBuilder text = new StringBuilder("{");
+    private boolean empty = true;
+
+    public JsonLine() {
+    }
+
+    // A progress event: {"event":"...","time":"2024-...Z", ...}
+    public static JsonLine event(String name) {
+        return new JsonLine().put("event", name).put("time", Instant.now().toString());
+    }
+
+    public JsonLine put(String name, Object value) {
+        if (!empty) {
+            text.append(',');
+        }
+        empty = false;
+        appendString(text, name);
+        text.append(':');
+        appendValue(text, value);
+        return this;
+    }
+
+    private static void appendValue(StringBuilder out, Object value) {
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            // JSON has no NaN or Infinity
+            out.append(Double.isFinite(number) ? String.valueOf(Math.round(number * 1000) / 1000.0) : "null");
+        } else if (value instanceof Number || value instanceof Boolean) {
+            out.append(value);
+        } else if (value instanceof JsonLine) {
+            out.append(value);
+        } else if (value instanceof Map) {
+            out.append('{');
+            String separator = "";
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                out.append(separator);
+                appendString(out, String.valueOf(entry.getKey()));
+                out.append(':');
+                appendValue(out, entry.getValue());
+                separator = ",";
+            }
+            out.append('}');
+        } else if (value instanceof Collection) {
+            out.append('[');
+            String separator = "";
+            for (Object element : (Collection<?>) value) {
+                out.append(separator);
+                appendValue(out, element);
+                separator = ",";
+            }
+            out.append(']');
+        } else {
+            appendString(out, value.toString());
+        }
+    }
+
+    private static void appendString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    @Override
+    public String toString() {
+        return text + "}";
+    }
+}
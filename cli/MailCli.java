@@ -0,0 +1,606 @@
+package cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import model.EmailMessage;
+import model.FolderInfo;
+import model.FolderSyncState;
+import model.HostConfiguration;
+import service.AccountSyncManager;
+import service.AllFolderSync;
+import service.BodyCache;
+import service.ConnectionPool;
+import service.EmailCacheService;
+import service.EmailService;
+import service.FolderManager;
+import service.FolderMetadataService;
+import service.HostConfigManager;
+import service.LatencyHistogram;
+import service.MailTaskExecutor;
+import service.MetricsRegistry;
+import service.OutboxService;
+import service.SearchIndex;
+import service.SmtpTransportPool;
+import service.StartupTimer;
+import service.TaskPriority;
+
+/**
+ * Headless entry point for servers without a display: mirrors mailboxes,
+ * delivers spooled mail and exports or reports on the cache, using the same
+ * services, account settings (host_config.dat) and cache as the window
+ * (which is why the two should not sync or send at the same time). Never
+ * touches JavaFX. Progress goes to stdout as one JSON object per line;
+ * diagnostics go to stderr.
+ *
+ *   java -cp app/target/email-client-1.0-SNAPSHOT.jar cli.MailCli &lt;command&gt; [options]
+ */
+public class MailCli {
+
+    private static final String USAGE = String.join("\n",
+            "Usage: MailCli <command> [options]",
+            "",
+            "Commands:",
+            "  sync     sync every folder of every IMAP account (or only --folder)",
+            "  send     deliver the outbox spool with the first selected account, after",
+            "           spooling the .eml files in --drop",
+            "  export   write the cached messages of each folder to <out>/<account>/<folder>.jsonl",
+            "  stats    cached folders, outbox backlog and metrics",
+            "",
+            "Options:",
+            "  --config FILE     account settings (default host_config.dat)",
+            "  --account ID      only this account (account id or user name); repeatable",
+            "  --folder NAME     only this folder; repeatable",
+            "  --spool DIR       outbox spool (default outbox)",
+            "  --drop DIR        spool every *.eml file found here, then delete it",
+            "                    (write them as *.tmp and rename, so half-written files are skipped)",
+            "  --out DIR         export directory (default export)",
+            "  --every SECONDS   run the command again this long after each run ends, until stopped;",
+            "                    metrics are then also published over JMX");
+
+    private static final String DEFAULT_CONFIG = "host_config.dat";
+    private static final String DEFAULT_SPOOL = "outbox";
+    private static final String DEFAULT_EXPORT = "export";
+    private static final String FAILED_DIR = "failed";
+    // How often send checks whether the outbox has drained
+    private static final long OUTBOX_POLL_MS = 50;
+    private static final long SYNC_POLL_MS = 50;
+
+    private final String command;
+    private final Map<String, List<String>> options;
+    private final HostConfigManager hostConfigManager = new HostConfigManager();
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private EmailService emailService;
+    private FolderManager folderManager;
+    private AccountSyncManager accountSyncManager;
+    private OutboxService outboxService;
+
+    private MailCli(String command, Map<String, List<String>> options) {
+        this.command = command;
+        this.options = options;
+    }
+
+    public static void main(String[] args) {
+        MailTaskExecutor.configureCarrierThreads();
+
+        Map<String, List<String>> options = new LinkedHashMap<>();
+        if (args.length == 0 || !parseOptions(Arrays.copyOfRange(args, 1, args.length), options)
+                || !Arrays.asList("sync", "send", "export", "stats").contains(args[0])) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        MailCli cli = new MailCli(args[0], options);
+        Runtime.getRuntime().addShutdownHook(new Thread(cli::stop, "mail-cli-shutdown"));
+        int exitCode;
+        try {
+            exitCode = cli.run();
+        } catch (Exception ex) {
+            emit(JsonLine.event("error").put("message", String.valueOf(ex.getMessage())));
+            exitCode = 1;
+        }
+        cli.stop();
+        System.exit(exitCode);
+    }
+
+    // --name value pairs; every option takes exactly one value
+    private static boolean parseOptions(String[] args, Map<String, List<String>> options) {
+        Set<String> known = Set.of("--config", "--account", "--folder", "--spool", "--drop", "--out", "--every");
+        for (int i = 0; i < args.length; i += 2) {
+            if (!known.contains(args[i]) || i + 1 >= args.length) {
+                return false;
+            }
+            options.computeIfAbsent(args[i], name -> new ArrayList<>()).add(args[i + 1]);
+        }
+        return true;
+    }
+
+    private String option(String name, String defaultValue) {
+        List<String> values = options.get(name);
+        return values != null ? values.get(values.size() - 1) : defaultValue;
+    }
+
+    private List<String> optionValues(String name) {
+        return options.getOrDefault(name, List.of());
+    }
+
+    private int run() throws Exception {
+        long everyMs = Long.parseLong(option("--every", "0")) * 1000;
+        // Only a long-running daemon is worth watching over JMX
+        MetricsRegistry.getInstance().setJmxEnabled(everyMs > 0);
+        hostConfigManager.loadFromFile(option("--config", DEFAULT_CONFIG));
+        StartupTimer.getInstance().mark(StartupTimer.CONFIG_LOADED);
+        List<HostConfiguration> accounts = selectAccounts();
+        emit(JsonLine.event("started")
+                .put("command", command)
+                .put("accounts", accountIds(accounts))
+                .put("startupMs", StartupTimer.getInstance().getMillis(StartupTimer.CONFIG_LOADED)));
+        if (accounts.isEmpty()) {
+            throw new IllegalStateException("No matching account in " + option("--config", DEFAULT_CONFIG));
+        }
+
+        // None of these talks to a server until a command needs it, so stats and export stay offline
+        emailService = new EmailService();
+        folderManager = new FolderManager();
+        accountSyncManager = new AccountSyncManager();
+
+        int cycle = 0;
+        while (true) {
+            cycle++;
+            long start = System.nanoTime();
+            int failures = runOnce(accounts);
+            if (everyMs <= 0) {
+                emit(JsonLine.event("finished").put("failures", failures)
+                        .put("millis", (System.nanoTime() - start) / 1_000_000));
+                return failures > 0 ? 1 : 0;
+            }
+            emit(JsonLine.event("cycle").put("number", cycle).put("failures", failures)
+                    .put("millis", (System.nanoTime() - start) / 1_000_000)
+                    .put("metrics", metricsSnapshot()));
+            Thread.sleep(everyMs);
+        }
+    }
+
+    // One run of the command; returns the number of folders, messages or accounts that failed
+    private int runOnce(List<HostConfiguration> accounts) throws Exception {
+        switch (command) {
+            case "sync":
+                return sync(accounts);
+            case "send":
+                return send(accounts.get(0));
+            case "export":
+                return export(accounts);
+            default:
+                emit(stats(accounts));
+                return 0;
+        }
+    }
+
+    private List<HostConfiguration> selectAccounts() {
+        List<String> wanted = optionValues("--account");
+        List<HostConfiguration> selected = new ArrayList<>();
+        for (HostConfiguration host : hostConfigManager.getAllHosts()) {
+            if (wanted.isEmpty() || wanted.contains(host.getAccountId()) || wanted.contains(host.getUsername())) {
+                selected.add(host);
+            }
+        }
+        return selected;
+    }
+
+    // ---- sync ----
+
+    private int sync(List<HostConfiguration> accounts) throws Exception {
+        List<HostConfiguration> imapAccounts = new ArrayList<>();
+        for (HostConfiguration config : accounts) {
+            if ("imap".equalsIgnoreCase(config.getReceiveProtocol())) {
+                imapAccounts.add(config);
+            } else {
+                emit(JsonLine.event("sync.skipped").put("account", config.getAccountId())
+                        .put("reason", "POP3 has no folders to keep in sync"));
+            }
+        }
+        List<String> folders = optionValues("--folder");
+        return folders.isEmpty() ? syncAllFolders(imapAccounts) : syncFolders(imapAccounts, folders);
+    }
+
+    // Every folder of every account; the accounts run side by side, each within its own connection cap
+    private int syncAllFolders(List<HostConfiguration> accounts) {
+        Map<HostConfiguration, AllFolderSync.Run> runs = new LinkedHashMap<>();
+        for (HostConfiguration config : accounts) {
+            AllFolderSync allFolderSync = new AllFolderSync(accountSyncManager.getAccount(config), folderManager);
+            runs.put(config, allFolderSync.start(new AllFolderSync.Listener() {
+                @Override
+                public void folderSynced(AllFolderSync.FolderResult result, int foldersDone, int foldersTotal) {
+                    emit(folderEvent(config, result.getFolder(), result.getMillis(), result.getError())
+                            .put("added", result.getAdded())
+                            .put("updated", result.getUpdated())
+                            .put("removed", result.getRemoved())
+                            .put("done", foldersDone)
+                            .put("total", foldersTotal));
+                }
+
+                @Override
+                public void finished(AllFolderSync.Report report, Exception error) {
+                }
+            }));
+        }
+
+        int failures = 0;
+        for (Map.Entry<HostConfiguration, AllFolderSync.Run> run : runs.entrySet()) {
+            String account = run.getKey().getAccountId();
+            try {
+                AllFolderSync.Report report = run.getValue().await();
+                failures += report.getFailedFolders();
+                emit(JsonLine.event("sync.account")
+                        .put("account", account)
+                        .put("folders", report.getFolders().size())
+                        .put("resumedFolders", report.getResumedFolders())
+                        .put("failedFolders", report.getFailedFolders())
+                        .put("changedMessages", report.getMessages())
+                        .put("millis", report.getElapsedMillis())
+                        .put("messagesPerSecond", report.getMessagesPerSecond()));
+            } catch (Exception ex) {
+                failures++;
+                emit(JsonLine.event("sync.account").put("account", account)
+                        .put("error", String.valueOf(ex.getMessage())));
+            }
+        }
+        return failures;
+    }
+
+    // Only the given folders, each of every account at once
+    private int syncFolders(List<HostConfiguration> accounts, List<String> folders) throws InterruptedException {
+        AtomicInteger failures = new AtomicInteger();
+        accountSyncManager.setListener((config, folderName, result, error) -> {
+            JsonLine event = folderEvent(config, folderName, accountSyncManager.getAccount(config).getLastSyncMillis(),
+                    error != null ? String.valueOf(error.getMessage()) : null);
+            if (error != null) {
+                failures.incrementAndGet();
+            } else {
+                event.put("added", result.getAdded())
+                        .put("updated", result.getUpdated())
+                        .put("removed", result.getRemoved())
+                        .put("messages", result.getMessageCount())
+                        .put("fullResync", result.isFullResync());
+            }
+            emit(event);
+        });
+        List<MailTaskExecutor.TaskHandle> handles = new ArrayList<>();
+        for (String folder : folders) {
+            handles.addAll(accountSyncManager.syncAll(accounts, folder, TaskPriority.BACKGROUND_SYNC));
+        }
+        for (MailTaskExecutor.TaskHandle handle : handles) {
+            while (!handle.isDone()) {
+                Thread.sleep(SYNC_POLL_MS);
+            }
+        }
+        return failures.get();
+    }
+
+    private static JsonLine folderEvent(HostConfiguration config, String folder, long millis, String error) {
+        JsonLine event = JsonLine.event("sync.folder")
+                .put("account", config.getAccountId())
+                .put("folder", folder)
+                .put("millis", millis);
+        if (error != null) {
+            event.put("error", error);
+        }
+        return event;
+    }
+
+    // ---- send ----
+
+    // Spool what was dropped, then deliver until nothing is due; entries waiting for a retry stay spooled
+    private int send(HostConfiguration config) throws Exception {
+        if (outboxService == null) {
+            emailService.setHostConfiguration(config);
+            outboxService = new OutboxService(new File(option("--spool", DEFAULT_SPOOL)), emailService,
+                    OutboxService.DEFAULT_WORKERS);
+            outboxService.setListener(new OutboxService.Listener() {
+                @Override
+                public void messageSent(String subject, List<String> recipients) {
+                    emit(JsonLine.event("send.sent").put("subject", subject).put("recipients", recipients));
+                }
+
+                @Override
+                public void messageFailed(String subject, List<String> recipients, Exception error) {
+                    emit(JsonLine.event("send.failed").put("subject", subject).put("recipients", recipients)
+                            .put("error", String.valueOf(error.getMessage())));
+                }
+            });
+            outboxService.start();
+        }
+
+        int failures = 0;
+        String drop = option("--drop", null);
+        if (drop != null) {
+            failures += spoolDropped(new File(drop), config);
+        }
+
+        OutboxService.Stats before = outboxService.getStats();
+        while (!outboxService.isIdle()) {
+            Thread.sleep(OUTBOX_POLL_MS);
+        }
+        OutboxService.Stats after = outboxService.getStats();
+        long givenUp = after.getPermanentlyFailed() - before.getPermanentlyFailed();
+        emit(JsonLine.event("send.done")
+                .put("account", config.getAccountId())
+                .put("sent", after.getSent() - before.getSent())
+                .put("failedAttempts", after.getFailedAttempts() - before.getFailedAttempts())
+                .put("givenUp", givenUp)
+                .put("waiting", after.getQueueDepth()));
+        return failures + (int) givenUp;
+    }
+
+    private int spoolDropped(File directory, HostConfiguration config) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".eml"));
+        if (files == null) {
+            return 0;
+        }
+        Arrays.sort(files);
+        // Generated Message-IDs take their domain from mail.from
+        Properties properties = new Properties();
+        if (config.getUsername() != null && config.getUsername().contains("@")) {
+            properties.put("mail.from", config.getUsername());
+        }
+        Session session = Session.getInstance(properties);
+        int failures = 0;
+        for (File file : files) {
+            try {
+                DroppedMessage mime;
+                try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                    mime = new DroppedMessage(session, in);
+                }
+                mime.completeHeaders();
+                // Deleted only once the spooled copy is on disk; a crash in between sends it twice at worst
+                outboxService.enqueue(mime, config);
+                Files.delete(file.toPath());
+                emit(JsonLine.event("send.queued").put("file", file.getPath()).put("subject", mime.getSubject()));
+            } catch (Exception ex) {
+                failures++;
+                emit(JsonLine.event("send.rejected").put("file", file.getPath())
+                        .put("error", String.valueOf(ex.getMessage())));
+            }
+        }
+        return failures;
+    }
+
+    // ---- export ----
+
+    // Cached envelopes (and bodies already read) of each synced folder as JSON lines; no server access
+    private int export(List<HostConfiguration> accounts) {
+        File out = new File(option("--out", DEFAULT_EXPORT));
+        BodyCache bodyCache = emailService.getBodyCache();
+        int failures = 0;
+        for (HostConfiguration config : accounts) {
+            EmailCacheService cache = accountSyncManager.getAccount(config).getCacheService();
+            File accountDir = new File(out, EmailCacheService.getAccountDirectory(config).getName());
+            for (String folder : cachedFolders(config, cache)) {
+                File file = new File(accountDir, fileName(folder) + ".jsonl");
+                try {
+                    long start = System.nanoTime();
+                    int[] counts = writeFolder(file, config.getAccountId(), folder, cache.loadEmails(folder),
+                            bodyCache);
+                    emit(JsonLine.event("export.folder")
+                            .put("account", config.getAccountId())
+                            .put("folder", folder)
+                            .put("messages", counts[0])
+                            .put("bodies", counts[1])
+                            .put("file", file.getPath())
+                            .put("millis", (System.nanoTime() - start) / 1_000_000));
+                } catch (IOException ex) {
+                    failures++;
+                    emit(JsonLine.event("export.folder").put("account", config.getAccountId())
+                            .put("folder", folder).put("error", String.valueOf(ex.getMessage())));
+                }
+            }
+        }
+        return failures;
+    }
+
+    // Returns {messages, bodies} written
+    private static int[] writeFolder(File file, String accountId, String folder, List<EmailMessage> emails,
+                                     BodyCache bodyCache) throws IOException {
+        file.getParentFile().mkdirs();
+        File tmp = new File(file.getPath() + ".tmp");
+        int bodies = 0;
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp),
+                StandardCharsets.UTF_8))) {
+            for (EmailMessage email : emails) {
+                String body = email.getMessageId() != null ? bodyCache.get(accountId, folder, email.getMessageId()) : null;
+                if (body != null) {
+                    bodies++;
+                }
+                writer.write(new JsonLine()
+                        .put("uid", email.getUid())
+                        .put("messageId", email.getMessageId())
+                        .put("date", isoDate(email.getSentDate()))
+                        .put("from", email.getFrom())
+                        .put("to", email.getTo())
+                        .put("subject", email.getSubject())
+                        .put("read", email.isRead())
+                        .put("size", email.getSize())
+                        .put("body", body)
+                        .toString());
+                writer.newLine();
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new int[]{emails.size(), bodies};
+    }
+
+    // --folder if given, else every folder of the last listing that was synced at least once
+    private List<String> cachedFolders(HostConfiguration config, EmailCacheService cache) {
+        Set<String> candidates = new LinkedHashSet<>(optionValues("--folder"));
+        if (candidates.isEmpty()) {
+            candidates.add(AccountSyncManager.INBOX);
+            candidates.addAll(FolderManager.folderNames(FolderMetadataService.getInstance().getSnapshot(config)));
+        }
+        List<String> folders = new ArrayList<>();
+        for (String folder : candidates) {
+            if (cache.loadSyncState(folder) != null) {
+                folders.add(folder);
+            }
+        }
+        return folders;
+    }
+
+    private static String fileName(String folder) {
+        return folder.replaceAll("[^a-zA-Z0-9.-]", "_");
+    }
+
+    // ---- stats ----
+
+    private JsonLine stats(List<HostConfiguration> accounts) {
+        List<JsonLine> accountStats = new ArrayList<>();
+        for (HostConfiguration config : accounts) {
+            EmailCacheService cache = accountSyncManager.getAccount(config).getCacheService();
+            Map<String, FolderInfo> listed = new LinkedHashMap<>();
+            for (FolderInfo folder : FolderMetadataService.getInstance().getSnapshot(config)) {
+                listed.put(folder.getName(), folder);
+            }
+            List<JsonLine> folders = new ArrayList<>();
+            long messages = 0;
+            for (String name : cachedFolders(config, cache)) {
+                FolderSyncState state = cache.loadSyncState(name);
+                FolderInfo info = listed.get(name);
+                messages += state.getMessageCount();
+                folders.add(new JsonLine()
+                        .put("folder", name)
+                        .put("messagesAtLastSync", state.getMessageCount())
+                        .put("lastSync", state.getLastSyncTime() > 0
+                                ? Instant.ofEpochMilli(state.getLastSyncTime()).toString() : null)
+                        .put("serverMessages", info != null ? info.getMessages() : null)
+                        .put("unseen", info != null ? info.getUnseen() : null));
+            }
+            accountStats.add(new JsonLine()
+                    .put("account", config.getAccountId())
+                    .put("messagesAtLastSync", messages)
+                    .put("folders", folders));
+        }
+
+        // Read from the spool itself, so this also covers mail queued by the window
+        File spool = new File(option("--spool", DEFAULT_SPOOL));
+        JsonLine outbox = new JsonLine()
+                .put("spool", spool.getPath())
+                .put("queued", countEntries(spool))
+                .put("failed", countEntries(new File(spool, FAILED_DIR)));
+        if (outboxService != null) {
+            outbox.put("process", outboxService.getStats().toString());
+        }
+
+        return JsonLine.event("stats")
+                .put("accounts", accountStats)
+                .put("outbox", outbox)
+                .put("startup", StartupTimer.getInstance().getPhases())
+                .put("metrics", metricsSnapshot());
+    }
+
+    private static int countEntries(File directory) {
+        File[] metas = directory.listFiles((dir, name) -> name.endsWith(".meta"));
+        return metas != null ? metas.length : 0;
+    }
+
+    // Latencies and counters recorded by this process so far
+    private static JsonLine metricsSnapshot() {
+        Map<String, JsonLine> latencies = new LinkedHashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : MetricsRegistry.getInstance().getHistograms().entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            latencies.put(entry.getKey(), new JsonLine()
+                    .put("count", histogram.getCount())
+                    .put("p50Ms", histogram.getP50Millis())
+                    .put("p99Ms", histogram.getP99Millis())
+                    .put("maxMs", histogram.getMaxMillis()));
+        }
+        return new JsonLine()
+                .put("latency", latencies)
+                .put("counters", MetricsRegistry.getInstance().getCounters());
+    }
+
+    // ---- output and shutdown ----
+
+    // Called from task threads as well; one whole line per event
+    private static void emit(JsonLine event) {
+        synchronized (System.out) {
+            System.out.println(event);
+            System.out.flush();
+        }
+    }
+
+    // Cached dates are local times; exported as an ISO-8601 instant, e.g. 2024-11-22T18:04:26Z
+    private static String isoDate(LocalDateTime date) {
+        return date != null ? date.atZone(ZoneId.systemDefault()).toInstant().toString() : null;
+    }
+
+    private static List<String> accountIds(List<HostConfiguration> accounts) {
+        List<String> ids = new ArrayList<>();
+        for (HostConfiguration config : accounts) {
+            ids.add(config.getAccountId());
+        }
+        return ids;
+    }
+
+    // Same teardown as closing the window; runs once, from main or from the shutdown hook on SIGTERM
+    private void stop() {
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
+        if (outboxService != null) {
+            outboxService.shutdown();
+        }
+        if (accountSyncManager != null) {
+            accountSyncManager.shutdown();
+        }
+        MailTaskExecutor.getInstance().shutdown();
+        ConnectionPool.getInstance().shutdown();
+        SmtpTransportPool.getInstance().shutdown();
+        SearchIndex.getInstance().flush();
+    }
+
+    /**
+     * An .eml file as written by another program. It is spooled and sent as
+     * is, so it never goes through saveChanges(); the headers a sent message
+     * needs are added here if the file lacks them (an existing Message-ID is
+     * kept, unlike saveChanges()).
+     */
+    private static class DroppedMessage extends MimeMessage {
+
+        DroppedMessage(Session session, InputStream in) throws MessagingException {
+            super(session, in);
+        }
+
+        void completeHeaders() throws MessagingException {
+            if (getHeader("Message-ID") == null) {
+                updateMessageID();
+            }
+            if (getHeader("Date") == null) {
+                setSentDate(new Date());
+            }
+        }
+    }
+}
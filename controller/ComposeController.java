@@ -11,6 +11,9 @@ import javafx.stage.Stage;
 import model.EmailMessage;
 import model.HostConfiguration;
 import service.EmailService;
+import service.MailTaskExecutor;
+import service.OutboxService;
+import service.TaskPriority;
 
 import java.io.File;
 import java.time.LocalDateTime;
@@ -35,6 +38,7 @@ public class ComposeController {
     private ListView<File> attachmentList;
 
     private EmailService emailService;
+    private OutboxService outboxService;
     private Stage stage;
 
     @FXML
@@ -110,25 +114,22 @@ public class ComposeController {
         // Attachments
         message.setAttachments(new ArrayList<>(attachmentList.getItems()));
 
-        // Send in background
-        new Thread(() -> {
+        // Spool to the outbox (attachments are read here) and close; delivery and retries happen in the background
+        MailTaskExecutor.getInstance().submit(null, TaskPriority.INTERACTIVE, "queue send", () -> {
             try {
-                emailService.sendEmail(message, config);
-                Platform.runLater(() -> {
-                    Alert ok = new Alert(Alert.AlertType.INFORMATION);
-                    ok.setTitle("Email sent");
-                    ok.setHeaderText("Success");
-                    ok.setContentText("Email has been sent.");
-                    ok.showAndWait();
-                    stage.close();
-                });
+                if (outboxService != null) {
+                    outboxService.enqueue(message, config);
+                } else {
+                    emailService.sendEmail(message, config);
+                }
+                Platform.runLater(stage::close);
             } catch (Exception ex) {
                 ex.printStackTrace();
                 Platform.runLater(() ->
                         showError("Error sending email", ex.getMessage())
                 );
             }
-        }).start();
+        });
     }
 
     @FXML
@@ -148,6 +149,10 @@ public class ComposeController {
         this.emailService = emailService;
     }
 
+    public void setOutboxService(OutboxService outboxService) {
+        this.outboxService = outboxService;
+    }
+
     public void setStage(Stage stage) {
         this.stage = stage;
     }
@@ -0,0 +1,132 @@
+package controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.collections.FXCollections;
+import javafx.geometry.Insets;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TextArea;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+import javafx.util.Duration;
+import service.LatencyHistogram;
+import service.MetricsRegistry;
+
+/**
+ * Live view of the MetricsRegistry: latency percentiles and error counts per
+ * operation and phase, plus the stats of the pools and caches. Refreshes once
+ * a second while open. The same numbers are exported over JMX.
+ */
+public class DiagnosticsWindow {
+
+    private final MetricsRegistry metrics;
+    private final Stage stage = new Stage();
+    private final TableView<Row> table = new TableView<>();
+    private final TextArea statsArea = new TextArea();
+    private final Timeline refresher = new Timeline(new KeyFrame(Duration.seconds(1), e -> refresh()));
+
+    public DiagnosticsWindow() {
+        this(MetricsRegistry.getInstance());
+    }
+
+    public DiagnosticsWindow(MetricsRegistry metrics) {
+        this.metrics = metrics;
+
+        table.getColumns().add(column("Operation", row -> row.name, 260));
+        table.getColumns().add(column("Count", row -> String.valueOf(row.count), 70));
+        table.getColumns().add(column("Errors", row -> String.valueOf(row.errors), 60));
+        table.getColumns().add(column("p50 ms", row -> format(row.p50), 80));
+        table.getColumns().add(column("p99 ms", row -> format(row.p99), 80));
+        table.getColumns().add(column("Max ms", row -> format(row.max), 80));
+        VBox.setVgrow(table, Priority.ALWAYS);
+
+        statsArea.setEditable(false);
+        statsArea.setPrefRowCount(8);
+
+        Button resetButton = new Button("Reset");
+        resetButton.setOnAction(e -> {
+            metrics.reset();
+            refresh();
+        });
+        VBox content = new VBox(10, table, new Label("Components"), statsArea, new HBox(10, resetButton));
+        content.setPadding(new Insets(15));
+
+        stage.setTitle("Diagnostics");
+        stage.setScene(new Scene(content, 720, 600));
+        refresher.setCycleCount(Timeline.INDEFINITE);
+        stage.setOnHidden(e -> refresher.stop());
+    }
+
+    public void show() {
+        refresh();
+        refresher.play();
+        stage.show();
+        stage.toFront();
+    }
+
+    private void refresh() {
+        Map<String, Long> counters = metrics.getCounters();
+        List<Row> rows = new ArrayList<>();
+        for (LatencyHistogram histogram : metrics.getHistograms().values()) {
+            Row row = new Row();
+            row.name = histogram.getName();
+            row.count = histogram.getCount();
+            row.errors = counters.getOrDefault(row.name + ".errors", 0L);
+            row.p50 = histogram.getP50Millis();
+            row.p99 = histogram.getP99Millis();
+            row.max = histogram.getMaxMillis();
+            rows.add(row);
+        }
+        // Counters that are not the error count of a timed operation get a row of their own
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            String name = counter.getKey();
+            if (name.endsWith(".errors") && metrics.getHistograms().containsKey(
+                    name.substring(0, name.length() - ".errors".length()))) {
+                continue;
+            }
+            Row row = new Row();
+            row.name = name;
+            row.count = counter.getValue();
+            rows.add(row);
+        }
+        table.setItems(FXCollections.observableArrayList(rows));
+
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, String> entry : metrics.getStats().entrySet()) {
+            text.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+        }
+        statsArea.setText(text.toString());
+    }
+
+    private static TableColumn<Row, String> column(String title, Function<Row, String> value, double width) {
+        TableColumn<Row, String> column = new TableColumn<>(title);
+        column.setCellValueFactory(cell -> new SimpleStringProperty(value.apply(cell.getValue())));
+        column.setPrefWidth(width);
+        return column;
+    }
+
+    private static String format(double millis) {
+        return millis < 0 ? "" : String.format("%.2f", millis);
+    }
+
+    // One line of the table; plain counters have no latencies
+    private static class Row {
+        private String name;
+        private long count;
+        private long errors;
+        private double p50 = -1;
+        private double p99 = -1;
+        private double max = -1;
+    }
+}
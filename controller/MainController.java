@@ -5,43 +5,85 @@ import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
+import javafx.geometry.Insets;
 import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.SelectionMode;
 import javafx.scene.control.SplitPane;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextArea;
+import javafx.scene.control.TextField;
 import javafx.scene.control.ToggleButton;
+import javafx.scene.control.TreeCell;
 import javafx.scene.control.TreeItem;
 import javafx.scene.control.TreeView;
+import javafx.scene.layout.VBox;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
+import model.AttachmentInfo;
 import model.EmailMessage;
+import model.FolderInfo;
 import model.HostConfiguration;
+import service.AccountSyncManager;
+import service.AllFolderSync;
+import service.AttachmentHandler;
+import service.BodyPrefetcher;
 import service.EmailService;
 import service.FolderManager;
+import service.FolderMetadataService;
 import service.HostConfigManager;
-import service.EmailCacheService;
+import service.EnvelopeWindowCache;
+import service.FolderSync;
+import service.MailTaskExecutor;
+import service.MetricsRegistry;
+import service.OutboxService;
+import service.SearchIndex;
+import service.StartupTimer;
+import service.TaskPriority;
 
+import java.io.File;
 import java.io.IOException;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 /**
  * Controller for main window (email list and reading pane)
  */
 public class MainController {
 
+    // Tree entry for the inboxes of all accounts merged by date
+    private static final String UNIFIED_INBOX = "All Inboxes";
+    private static final int UNIFIED_PAGE_SIZE = 1000;
+    // Cached envelopes shown while a folder is being opened
+    private static final int CACHED_FIRST_PAGE = 200;
+
     @FXML
     private TableView<EmailMessage> emailTable;
 
     @FXML
     private TextArea emailBodyArea;
 
+    @FXML
+    private Button loadMoreButton;
+
     @FXML
     private Label fromLabel;
 
@@ -51,24 +93,59 @@ public class MainController {
     @FXML
     private Label dateLabel;
 
+    @FXML
+    private Label attachmentsLabel;
+
     @FXML
     private TreeView<String> folderTree;  // For displaying folders
 
     @FXML
     private ToggleButton cachingToggle;
 
+    @FXML
+    private TextField searchField;
+
     private EmailService emailService;
+    private OutboxService outboxService;
     private FolderManager folderManager;
     private HostConfigManager hostConfigManager;
-    private final EmailCacheService emailCacheService = new EmailCacheService();
+    // Cache, sync engine and folder watcher of every account
+    private AccountSyncManager accountSyncManager;
+    private TreeItem<String> unifiedInboxItem;  // null with a single account
+    private volatile List<HostConfiguration> unifiedAccounts;  // accounts of the unified inbox while it is shown
+    private String currentFolder;
+    // Unread/total counts behind the folder tree, kept fresh by LIST-STATUS / STATUS (FX thread only)
+    private final FolderMetadataService folderMetadata = FolderMetadataService.getInstance();
+    private final Map<String, FolderInfo> folderCounts = new HashMap<>();
+    private List<String> shownFolders = Collections.emptyList();
+    private volatile String shownFoldersAccount;  // account id of the tree shown
+    private boolean rebuildingTree;
+    private final MailTaskExecutor mailTasks = MailTaskExecutor.getInstance();
+    // In-flight work the user can make obsolete; cancelling aborts the server call
+    private MailTaskExecutor.TaskHandle bodyTask;
+    private MailTaskExecutor.TaskHandle folderLoadTask;
+    private MailTaskExecutor.TaskHandle searchTask;
+    private long searchGeneration;  // FX thread only; a newer query makes older results stale
+    // Reads ahead in the direction the user is moving through the list
+    private BodyPrefetcher bodyPrefetcher;
+    private int lastSelectedIndex = -1;
+    // Shows large bodies a page at a time while they download
+    private StreamingBodyView bodyView;
+    private DiagnosticsWindow diagnosticsWindow;
 
     private final ObservableList<EmailMessage> emailData = FXCollections.observableArrayList();
+    private final FilteredList<EmailMessage> filteredData = new FilteredList<>(emailData);
+    // Whole folder: emailData on top, older messages paged in by sequence number below it
+    private final VirtualEmailList virtualData = new VirtualEmailList(emailData);
     private final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
     private volatile boolean isLoadingEmails = false;
     private volatile long lastRequestToken = 0;
 
     @FXML
     public void initialize() {
+        bodyView = new StreamingBodyView(emailBodyArea, loadMoreButton);
+        MetricsRegistry.getInstance().registerStats("StreamingBodyView", bodyView::toString);
+
         // Setup email table columns
         TableColumn<EmailMessage, String> fromCol = new TableColumn<>("From");
         fromCol.setCellValueFactory(cell ->
@@ -91,18 +168,23 @@ public class MainController {
 
         // Basic column sizing
         emailTable.getColumns().clear();
-        emailTable.getColumns().addAll(fromCol, subjectCol, dateCol);
+        emailTable.getColumns().addAll(List.of(fromCol, subjectCol, dateCol));
         fromCol.prefWidthProperty().bind(emailTable.widthProperty().multiply(0.3));
         subjectCol.prefWidthProperty().bind(emailTable.widthProperty().multiply(0.5));
         dateCol.prefWidthProperty().bind(emailTable.widthProperty().multiply(0.2));
 
-        // Bind data list
-        emailTable.setItems(emailData);
+        // Bind data list (the whole folder, or the cached part filtered by the local search index)
+        emailTable.setItems(virtualData);
+        searchField.textProperty().addListener((obs, oldText, newText) -> applySearch(newText));
+
+        // Several messages can be selected for a batch delete
+        emailTable.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
 
         // Selection listener to show details in reading pane
         emailTable.getSelectionModel().selectedItemProperty().addListener((obs, oldSel, newSel) -> {
             if (newSel != null) {
                 showEmailDetails(newSel);
+                prefetchNeighbours(newSel);
             } else {
                 clearEmailDetails();
             }
@@ -112,27 +194,84 @@ public class MainController {
         TreeItem<String> rootItem = new TreeItem<>("Folders");
         rootItem.setExpanded(true);
         folderTree.setRoot(rootItem);
+        // Folder names with their unread count, bold while there is unread mail
+        folderTree.setCellFactory(tree -> new TreeCell<>() {
+            @Override
+            protected void updateItem(String name, boolean empty) {
+                super.updateItem(name, empty);
+                FolderInfo info = empty || name == null || getTreeItem() == unifiedInboxItem
+                        ? null : folderCounts.get(name);
+                setText(empty ? null : info != null && info.getUnseen() > 0 ? name + " (" + info.getUnseen() + ")" : name);
+                setStyle(info != null && info.getUnseen() > 0 ? "-fx-font-weight: bold;" : "");
+            }
+        });
+        folderMetadata.addListener(this::onFoldersChanged);
 
         // Folder selection listener: load messages when user selects folder
         folderTree.getSelectionModel().selectedItemProperty().addListener((obs, oldItem, newItem) -> {
+            if (rebuildingTree) {
+                return;  // the open folder is only being re-selected in a new tree
+            }
             if (newItem != null && newItem.getParent() != null) {
                 String folderName = newItem.getValue();
-                loadEmailsForFolder(folderName);
+                if (newItem == unifiedInboxItem) {
+                    showUnifiedInbox();
+                } else {
+                    loadEmailsForFolder(folderName);
+                }
             }
         });
 
         clearEmailDetails();
     }
 
+    // Filter the table through the local index; never touches the network. The query runs as a task:
+    // the first one loads the index from disk, and any may wait for a background flush or merge.
+    private void applySearch(String query) {
+        if (searchTask != null) {
+            searchTask.cancel();
+            searchTask = null;
+        }
+        long generation = ++searchGeneration;
+        if (query == null || query.isBlank() || emailService == null) {
+            filteredData.setPredicate(null);
+            emailTable.setItems(virtualData);
+            return;
+        }
+        SearchIndex searchIndex = emailService.getSearchIndex();
+        HostConfiguration config = currentHostConfig();
+        String accountId = config != null ? config.getAccountId() : null;
+        searchTask = mailTasks.submit(null, TaskPriority.INTERACTIVE, "search", () -> {
+            SearchIndex.SearchHits hits = searchIndex.search(query);
+            Platform.runLater(() -> {
+                if (generation != searchGeneration) {
+                    MetricsRegistry.getInstance().counter("ui.staleResultsDiscarded").increment();
+                    return;
+                }
+                // Unified inbox rows name their account; the others belong to the open one
+                filteredData.setPredicate(email -> hits.contains(
+                        email.getAccount() != null ? email.getAccount() : accountId, email));
+                emailTable.setItems(filteredData);
+            });
+        });
+    }
+
     private void clearEmailDetails() {
         fromLabel.setText("");
         subjectLabel.setText("");
         dateLabel.setText("");
-        emailBodyArea.clear();
+        attachmentsLabel.setText("");
+        bodyView.clear();
     }
 
     private void showEmailDetails(EmailMessage email) {
-        if (email == null) {
+        long selectedAt = System.nanoTime();
+        // A body still downloading for the previous selection is no longer wanted
+        if (bodyTask != null) {
+            bodyTask.cancel();
+            bodyTask = null;
+        }
+        if (email == null || VirtualEmailList.isPlaceholder(email)) {
             clearEmailDetails();
             return;
         }
@@ -144,49 +283,170 @@ public class MainController {
         } else {
             dateLabel.setText("");
         }
-        
+        showAttachments(email);
+
+        // Memory tier of the body cache is checked inline so cached mail shows without a flicker
+        HostConfiguration emailConfig = hostConfigFor(email);
+        if (email.getBody() == null && email.getMessageId() != null && emailService != null && emailConfig != null) {
+            email.setBody(emailService.getBodyCache().getFromMemory(emailConfig.getAccountId(), email.getFolder(),
+                    email.getMessageId()));
+        }
+
         // Lazy Load Body
         if (email.getBody() == null) {
-            emailBodyArea.setText("Loading content...");
-            
             // Capture necessary data for thread
             String messageId = email.getMessageId();
             String folderName = email.getFolder();
-            HostConfiguration config = requireHostConfig();
+            HostConfiguration config = emailConfig;
             
             // Don't spawn thread if essential data is missing
             if (messageId == null || folderName == null || config == null) {
-                 emailBodyArea.setText("Error: Missing message info.");
+                 bodyView.showMessage("Error: Missing message info.");
                  return;
             }
 
-            new Thread(() -> {
+            StreamingBodyView.Stream stream = bodyView.beginStream(selectedAt);
+            EmailService.BodyCheckpoint checkpoint = bodyView.getCheckpoint();
+            bodyTask = mailTasks.submit(config, TaskPriority.INTERACTIVE, "fetch body", () -> {
                 try {
-                    String body = emailService.fetchEmailBody(messageId, folderName, config);
+                    // Text shows up chunk by chunk; a body over one page stops there until "Load more"
+                    boolean more = emailService.streamEmailBody(messageId, folderName, config,
+                            checkpoint, StreamingBodyView.PAGE_CHARS, stream::append);
+                    stream.finish(more);
+                    loadAttachmentList(messageId, folderName, config);
                     
                     // Update UI and Cache in Memory
                     Platform.runLater(() -> {
                         // verify user hasn't clicked another email while we were loading
                         EmailMessage currentSelection = emailTable.getSelectionModel().getSelectedItem();
-                        if (currentSelection != null && currentSelection.getMessageId().equals(messageId)) {
-                             email.setBody(body);
-                             emailBodyArea.setText(body);
+                        if (currentSelection != null && messageId.equals(currentSelection.getMessageId())) {
+                             if (!more) {
+                                 email.setBody(emailService.getBodyCache().getFromMemory(config.getAccountId(), folderName,
+                                         messageId));
+                             }
+                             showAttachments(email);
                         }
                     });
                 } catch (Exception ex) {
+                    if (MailTaskExecutor.isCancelled()) {
+                        return;  // user moved on to another message
+                    }
                     ex.printStackTrace();
-                    Platform.runLater(() -> {
-                        emailBodyArea.setText("Error loading body: " + ex.getMessage());
-                    });
+                    stream.fail(ex.getMessage());
                 }
-            }).start();
+            });
         } else {
             // Already loaded
-            emailBodyArea.setText(email.getBody());
+            bodyView.showText(email.getBody(), selectedAt);
+
+            HostConfiguration config = hostConfigFor(email);
+            String messageId = email.getMessageId();
+            if (config != null && messageId != null
+                    && emailService.getKnownAttachments(email.getFolder(), messageId) == null) {
+                bodyTask = mailTasks.submit(config, TaskPriority.INTERACTIVE, "list attachments", () -> {
+                    loadAttachmentList(messageId, email.getFolder(), config);
+                    Platform.runLater(() -> {
+                        if (emailTable.getSelectionModel().getSelectedItem() == email) {
+                            showAttachments(email);
+                        }
+                    });
+                });
+            }
         }
     }
 
-    private HostConfiguration requireHostConfig() {
+    // Next page of a body that was cut at the page limit
+    @FXML
+    private void handleLoadMore() {
+        if (bodyView.hasLocalMore()) {
+            bodyView.showNextLocalPage();
+            return;
+        }
+        EmailMessage email = emailTable.getSelectionModel().getSelectedItem();
+        if (email == null || VirtualEmailList.isPlaceholder(email) || email.getMessageId() == null) {
+            return;
+        }
+        HostConfiguration config = hostConfigFor(email);
+        if (config == null) {
+            return;
+        }
+        String messageId = email.getMessageId();
+        String folderName = email.getFolder();
+        EmailService.BodyCheckpoint checkpoint = bodyView.getCheckpoint();
+        if (checkpoint == null) {
+            return;
+        }
+        StreamingBodyView.Stream stream = bodyView.continueStream();
+        bodyTask = mailTasks.submit(config, TaskPriority.INTERACTIVE, "fetch more body", () -> {
+            try {
+                // Resumes at the section offset and decoder state where the last page stopped
+                boolean more = emailService.streamEmailBody(messageId, folderName, config,
+                        checkpoint, StreamingBodyView.PAGE_CHARS, stream::append);
+                stream.finish(more);
+            } catch (Exception ex) {
+                if (MailTaskExecutor.isCancelled()) {
+                    return;
+                }
+                ex.printStackTrace();
+                stream.fail(ex.getMessage());
+            }
+        });
+    }
+
+    // A body from the cache comes without attachment metadata; one BODYSTRUCTURE fetch supplies it
+    private void loadAttachmentList(String messageId, String folderName, HostConfiguration config) {
+        if (emailService.getKnownAttachments(folderName, messageId) != null) {
+            return;
+        }
+        try {
+            emailService.listAttachments(messageId, folderName, config);
+        } catch (Exception ex) {
+            // Only the attachment row stays empty (e.g. POP3, or offline with a cached body)
+        }
+    }
+
+    private void showAttachments(EmailMessage email) {
+        List<AttachmentInfo> attachments = emailService != null && email.getMessageId() != null
+                ? emailService.getKnownAttachments(email.getFolder(), email.getMessageId())
+                : null;
+        if (attachments == null) {
+            attachmentsLabel.setText("");
+            return;
+        }
+        List<String> names = new ArrayList<>();
+        for (AttachmentInfo attachment : attachments) {
+            names.add(attachment.getFileName() + " (" + formatBytes(attachment.getDecodedSize()) + ")");
+        }
+        attachmentsLabel.setText(names.isEmpty() ? "None" : String.join(", ", names));
+    }
+
+    // Queue the bodies of the next few rows (down the list unless the user is moving up)
+    private void prefetchNeighbours(EmailMessage selected) {
+        int index = emailTable.getSelectionModel().getSelectedIndex();
+        int step = index < lastSelectedIndex ? -1 : 1;
+        lastSelectedIndex = index;
+        if (bodyPrefetcher == null || index < 0 || VirtualEmailList.isPlaceholder(selected)) {
+            return;
+        }
+        HostConfiguration config = hostConfigFor(selected);
+
+        List<EmailMessage> upcoming = new ArrayList<>();
+        List<EmailMessage> items = emailTable.getItems();
+        for (int i = index + step; i >= 0 && i < items.size() && upcoming.size() < BodyPrefetcher.LOOKAHEAD; i += step) {
+            EmailMessage email = items.get(i);
+            if (VirtualEmailList.isPlaceholder(email)) {
+                break;  // not even the envelope is here yet
+            }
+            // In the unified inbox only neighbours from the same account share the connection
+            if (email.getBody() == null && Objects.equals(email.getAccount(), selected.getAccount())) {
+                upcoming.add(email);
+            }
+        }
+        bodyPrefetcher.selectionChanged(selected, upcoming, config);
+    }
+
+    // Configured account, or null (without complaining) if there is none yet
+    private HostConfiguration currentHostConfig() {
         HostConfiguration config = null;
         if (hostConfigManager != null) {
             config = hostConfigManager.getCurrentHost();
@@ -194,6 +454,22 @@ public class MainController {
         if (config == null && emailService != null) {
             config = emailService.getHostConfiguration();
         }
+        return config;
+    }
+
+    // Account a message belongs to (its own one in the unified inbox), else the configured one
+    private HostConfiguration hostConfigFor(EmailMessage email) {
+        if (email.getAccount() != null && accountSyncManager != null) {
+            HostConfiguration config = accountSyncManager.getConfig(email.getAccount());
+            if (config != null) {
+                return config;
+            }
+        }
+        return currentHostConfig();
+    }
+
+    private HostConfiguration requireHostConfig() {
+        HostConfiguration config = currentHostConfig();
 
         if (config == null) {
             showError("No host configuration",
@@ -202,22 +478,43 @@ public class MainController {
         return config;
     }
 
+    // Called once the window is up: the last session's folder tree and open folder come straight from the
+    // cache, then both are reconciled with the server
+    public void warmStart() {
+        if (currentHostConfig() == null) {
+            return;  // first launch: nothing cached and nowhere to connect until Settings
+        }
+        loadFolders(true);
+    }
+
     private void loadFolders() {
+        loadFolders(false);
+    }
+
+    private void loadFolders(boolean reopenLastFolder) {
         HostConfiguration config = requireHostConfig();
         if (config == null) {
             return;
         }
 
-        new Thread(() -> {
+        mailTasks.submit(config, TaskPriority.FOLDER_OPEN, "load folders", () -> {
             try {
-                List<String> folders = folderManager.getFolders(config);
+                String lastFolder = reopenLastFolder ? lastOpenFolder(config) : null;
+                // Last known tree and counts first, then one LIST-STATUS round trip for the current ones
+                List<FolderInfo> snapshot = folderMetadata.getSnapshot(config);
+                if (!snapshot.isEmpty()) {
+                    Platform.runLater(() -> {
+                        showFolders(config, snapshot);
+                        openFolder(lastFolder);
+                    });
+                }
+                List<FolderInfo> folders = folderMetadata.refresh(config);
+                StartupTimer.getInstance().mark(StartupTimer.FIRST_NETWORK_RESULT);
                 Platform.runLater(() -> {
-                    TreeItem<String> root = new TreeItem<>("Folders");
-                    root.setExpanded(true);
-                    for (String name : folders) {
-                        root.getChildren().add(new TreeItem<>(name));
+                    showFolders(config, folders);
+                    if (snapshot.isEmpty()) {
+                        openFolder(lastFolder);
                     }
-                    folderTree.setRoot(root);
                 });
             } catch (Exception ex) {
                 ex.printStackTrace();
@@ -225,7 +522,104 @@ public class MainController {
                         showError("Error loading folders", ex.getMessage())
                 );
             }
-        }).start();
+        });
+    }
+
+    private String lastOpenFolder(HostConfiguration config) {
+        String folderName = accountSyncManager.getAccount(config).getCacheService().loadLastOpenFolder();
+        return folderName != null ? folderName : AccountSyncManager.INBOX;
+    }
+
+    // Select a folder as if clicked, unless the user already picked one
+    private void openFolder(String folderName) {
+        if (folderName == null || currentFolder != null) {
+            return;
+        }
+        for (TreeItem<String> item : folderTree.getRoot().getChildren()) {
+            if (item != unifiedInboxItem && item.getValue().equals(folderName)) {
+                folderTree.getSelectionModel().select(item);
+                return;
+            }
+        }
+    }
+
+    // Startup's first paint is the first layout pass that has real content in it
+    private void markFirstPaint() {
+        Scene scene = folderTree.getScene();
+        if (scene == null || StartupTimer.getInstance().getMillis(StartupTimer.FIRST_PAINT) >= 0) {
+            return;
+        }
+        scene.addPostLayoutPulseListener(new Runnable() {
+            @Override
+            public void run() {
+                StartupTimer.getInstance().mark(StartupTimer.FIRST_PAINT);
+                scene.removePostLayoutPulseListener(this);
+            }
+        });
+    }
+
+    private void showFolders(HostConfiguration config, List<FolderInfo> folders) {
+        folderCounts.clear();
+        for (FolderInfo info : folders) {
+            folderCounts.put(info.getName(), info);
+        }
+        List<String> names = FolderManager.folderNames(folders);
+        boolean withUnified = hostConfigManager.getAllHosts().size() > 1;
+        if (names.equals(shownFolders) && config.getAccountId().equals(shownFoldersAccount)
+                && withUnified == (unifiedInboxItem != null)) {
+            folderTree.refresh();  // same tree, new counts
+            return;
+        }
+        shownFolders = names;
+        shownFoldersAccount = config.getAccountId();
+
+        TreeItem<String> root = new TreeItem<>("Folders");
+        root.setExpanded(true);
+        unifiedInboxItem = withUnified ? new TreeItem<>(UNIFIED_INBOX) : null;
+        if (unifiedInboxItem != null) {
+            root.getChildren().add(unifiedInboxItem);
+        }
+        TreeItem<String> open = UNIFIED_INBOX.equals(currentFolder) ? unifiedInboxItem : null;
+        for (String name : names) {
+            TreeItem<String> item = new TreeItem<>(name);
+            root.getChildren().add(item);
+            if (name.equals(currentFolder)) {
+                open = item;
+            }
+        }
+        rebuildingTree = true;
+        try {
+            folderTree.setRoot(root);
+            if (open != null) {
+                folderTree.getSelectionModel().select(open);
+            }
+        } finally {
+            rebuildingTree = false;
+        }
+    }
+
+    // Pushed by FolderMetadataService (task thread) with only the folders whose counts moved
+    private void onFoldersChanged(HostConfiguration account, List<FolderInfo> changed, List<FolderInfo> all) {
+        Platform.runLater(() -> {
+            if (!account.getAccountId().equals(shownFoldersAccount)) {
+                return;
+            }
+            for (FolderInfo info : changed) {
+                folderCounts.put(info.getName(), info);
+            }
+            folderTree.refresh();
+        });
+    }
+
+    // Re-count one folder after its contents changed: a single STATUS, off the interactive path
+    private void refreshFolderCounts(HostConfiguration config, String folderName) {
+        mailTasks.submit(config, TaskPriority.BACKGROUND_SYNC, "status " + folderName, () -> {
+            try {
+                folderMetadata.refreshFolder(config, folderName);
+            } catch (Exception ex) {
+                System.err.println("Could not refresh counts of " + folderName + ": " + ex.getMessage());
+            }
+        });
     }
 
     private void loadEmailsForFolder(String folderName) {
@@ -236,53 +630,93 @@ public class MainController {
         if (config == null) {
             return;
         }
+        AccountSyncManager.Account account = accountSyncManager.getAccount(config);
+        unifiedAccounts = null;
+
+        // Switching folders aborts the previous load on the server, not just its UI update
+        if (folderLoadTask != null) {
+            folderLoadTask.cancel();
+        }
 
         isLoadingEmails = true;
         // Generate a new token for this specific request
         long currentToken = System.currentTimeMillis();
         lastRequestToken = currentToken;
         boolean useCache = cachingToggle.isSelected();
+        // The first folder of a launch is painted from the local cache whatever the toggle says
+        boolean paintFromCache = useCache || StartupTimer.getInstance().getMillis(StartupTimer.FIRST_PAINT) < 0;
 
         // IMMEDIATE UI FEEDBACK: Clear old data instantly
         Platform.runLater(() -> {
+            currentFolder = folderName;
+            stopWatching();
+            virtualData.setTail(null);
             emailData.clear();
             clearEmailDetails();
             subjectLabel.setText("Loading " + folderName + "...");
         });
 
-        new Thread(() -> {
+        folderLoadTask = mailTasks.submit(config, TaskPriority.FOLDER_OPEN, "open " + folderName, () -> {
             try {
-                if (useCache) {
-                    List<EmailMessage> cachedMessages = emailCacheService.loadEmails(folderName);
+                account.getCacheService().saveLastOpenFolder(folderName);
+                if (paintFromCache) {
+                    // Only the newest page is decoded; the network result replaces it anyway
+                    List<EmailMessage> cachedMessages = new ArrayList<>();
+                    Iterator<EmailMessage> cached = account.getCacheService().iterateNewestFirst(folderName);
+                    while (cached.hasNext() && cachedMessages.size() < CACHED_FIRST_PAGE) {
+                        cachedMessages.add(cached.next());
+                    }
                     if (!cachedMessages.isEmpty()) {
                         Platform.runLater(() -> {
                             if (lastRequestToken == currentToken) {
                                 emailData.setAll(cachedMessages);
                                 subjectLabel.setText(""); // Clear loading text
+                                markFirstPaint();
                             }
                         });
                     }
                 }
 
-                // Fetch from Server (Network) - Now fast because we skip bodies!
-                List<EmailMessage> freshMessages = emailService.receiveEmails(folderName, config);
-
+                // Fetch from Server (Network) - with caching on, only the delta since the last sync.
+                // Anything older than that is paged in by the table as it scrolls.
+                List<EmailMessage> freshMessages;
+                int olderCount;
                 if (useCache) {
-                    emailCacheService.saveEmails(folderName, freshMessages);
+                    FolderSync.SyncResult result = account.syncFolder(folderName);
+                    freshMessages = newestFirst(result.getMessages());
+                    olderCount = result.getFirstSequenceNumber() - 1;
+                } else {
+                    freshMessages = Collections.emptyList();
+                    olderCount = emailService.getMessageCount(folderName, config);
                 }
 
                 // Update UI - ONLY if this is still the latest request
                 Platform.runLater(() -> {
                     if (lastRequestToken == currentToken) {
                         emailData.setAll(freshMessages);
+                        virtualData.setTail(olderCount > 0
+                                ? new EnvelopeWindowCache(emailService, config, folderName, olderCount,
+                                        virtualData::windowLoaded)
+                                : null);
+                        // From here on new mail and remote changes are pushed instead of needing Refresh
+                        account.getFolderWatcher().watch(folderName, config, lowestUid(freshMessages),
+                                this::onFolderChanged);
+                        applySearch(searchField.getText());  // newly indexed mail may now match
                         clearEmailDetails();
                         subjectLabel.setText("");
+                        if (useCache) {
+                            refreshFolderCounts(config, folderName);
+                        }
+                        markFirstPaint();
                     } else {
-                        System.out.println("Discarding stale email data (newer request exists)");
+                        MetricsRegistry.getInstance().counter("ui.staleResultsDiscarded").increment();
                     }
                 });
 
             } catch (Exception ex) {
+                if (MailTaskExecutor.isCancelled()) {
+                    return;
+                }
                 ex.printStackTrace();
                 Platform.runLater(() -> {
                     if (lastRequestToken == currentToken) {
@@ -295,7 +729,166 @@ public class MainController {
                     isLoadingEmails = false;
                 }
             }
-        }).start();
+        });
+    }
+
+    // Pushed by the folder watcher (background thread)
+    private void onFolderChanged(String folderName, List<EmailMessage> added, List<EmailMessage> changed,
+                                 Set<Long> removedUids, int messageCount) {
+        Platform.runLater(() -> {
+            if (!folderName.equals(currentFolder)) {
+                return;
+            }
+            emailData.removeIf(email -> removedUids.contains(email.getUid()));
+            long highestUid = 0;
+            for (EmailMessage email : emailData) {
+                highestUid = Math.max(highestUid, email.getUid());
+            }
+            for (EmailMessage email : changed) {
+                int index = indexOfUid(email.getUid());
+                if (index >= 0) {
+                    emailData.set(index, email);
+                } else {
+                    virtualData.updateTailMessage(email);  // an older message paged in by sequence number
+                }
+            }
+            for (EmailMessage email : added) {
+                int index = indexOfUid(email.getUid());
+                if (index >= 0) {
+                    emailData.set(index, email);
+                } else if (email.getUid() > highestUid) {
+                    emailData.add(0, email);  // new mail arrives in ascending UID order
+                    highestUid = email.getUid();
+                } else {
+                    virtualData.updateTailMessage(email);
+                }
+            }
+            // Whatever is not in the head is the tail; older expunges shrink it
+            virtualData.resizeTail(messageCount - emailData.size());
+            applySearch(searchField.getText());
+            HostConfiguration config = currentHostConfig();
+            if (config != null) {
+                refreshFolderCounts(config, folderName);
+            }
+        });
+    }
+
+    // Oldest UID of a newest-first list, 0 when empty
+    private static long lowestUid(List<EmailMessage> messages) {
+        return messages.isEmpty() ? 0 : messages.get(messages.size() - 1).getUid();
+    }
+
+    private int indexOfUid(long uid) {
+        for (int i = 0; i < emailData.size(); i++) {
+            if (emailData.get(i).getUid() == uid) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Inboxes of all accounts merged by date: cached envelopes at once, then updated as each account syncs
+    private void showUnifiedInbox() {
+        if (folderLoadTask != null) {
+            folderLoadTask.cancel();
+        }
+        long currentToken = System.currentTimeMillis();
+        lastRequestToken = currentToken;
+        List<HostConfiguration> accounts = new ArrayList<>(hostConfigManager.getAllHosts());
+        unifiedAccounts = accounts;
+        currentFolder = UNIFIED_INBOX;
+        stopWatching();
+        virtualData.setTail(null);
+        emailData.clear();
+        clearEmailDetails();
+
+        folderLoadTask = mailTasks.submit(null, TaskPriority.FOLDER_OPEN, "open unified inbox", () -> {
+            List<EmailMessage> page = unifiedPage(accounts);
+            Platform.runLater(() -> {
+                if (lastRequestToken == currentToken) {
+                    showUnifiedPage(page);
+                }
+            });
+            // Each account syncs on its own connections; onAccountSynced merges every result in
+            accountSyncManager.syncAll(accounts, AccountSyncManager.INBOX, TaskPriority.FOLDER_OPEN);
+        });
+    }
+
+    // Pushed by the account sync manager (task thread) after any account synced a folder
+    private void onAccountSynced(HostConfiguration account, String folderName, FolderSync.SyncResult result,
+                                 Exception error) {
+        if (result != null && account.getAccountId().equals(shownFoldersAccount)) {
+            // The periodic inbox sync also brings the counts of the other folders up to date, in one round trip
+            try {
+                folderMetadata.refresh(account);
+            } catch (Exception ex) {
+                System.err.println("Could not refresh folder counts: " + ex.getMessage());
+            }
+        }
+        List<HostConfiguration> accounts = unifiedAccounts;
+        if (accounts == null || result == null || !AccountSyncManager.INBOX.equals(folderName)) {
+            return;
+        }
+        List<EmailMessage> page = unifiedPage(accounts);
+        Platform.runLater(() -> {
+            if (unifiedAccounts == accounts) {
+                showUnifiedPage(page);
+            }
+        });
+    }
+
+    // Only the newest page is pulled from the merge
+    private List<EmailMessage> unifiedPage(List<HostConfiguration> accounts) {
+        List<EmailMessage> page = new ArrayList<>();
+        Iterator<EmailMessage> merged = accountSyncManager.mergedNewestFirst(accounts, AccountSyncManager.INBOX);
+        while (merged.hasNext() && page.size() < UNIFIED_PAGE_SIZE) {
+            page.add(merged.next());
+        }
+        return page;
+    }
+
+    private void showUnifiedPage(List<EmailMessage> page) {
+        if (sameRows(page)) {
+            return;  // a sync without changes must not disturb the selection
+        }
+        EmailMessage selected = emailTable.getSelectionModel().getSelectedItem();
+        emailData.setAll(page);
+        applySearch(searchField.getText());
+        if (selected != null) {
+            for (EmailMessage email : page) {
+                if (email.getUid() == selected.getUid() && Objects.equals(email.getAccount(), selected.getAccount())) {
+                    emailTable.getSelectionModel().select(email);
+                    break;
+                }
+            }
+        }
+    }
+
+    // Same messages in the same order with the same read state
+    private boolean sameRows(List<EmailMessage> page) {
+        if (page.size() != emailData.size()) {
+            return false;
+        }
+        for (int i = 0; i < page.size(); i++) {
+            EmailMessage a = page.get(i);
+            EmailMessage b = emailData.get(i);
+            if (a.getUid() != b.getUid() || a.isRead() != b.isRead() || !Objects.equals(a.getAccount(), b.getAccount())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void stopWatching() {
+        for (AccountSyncManager.Account account : accountSyncManager.getAccounts()) {
+            account.getFolderWatcher().unwatchAll();
+        }
+    }
+
+    private static List<EmailMessage> newestFirst(List<EmailMessage> messages) {
+        List<EmailMessage> reversed = new ArrayList<>(messages);
+        Collections.reverse(reversed);
+        return reversed;
     }
 
     @FXML
@@ -307,6 +900,10 @@ public class MainController {
         
         // Refresh currently selected folder; default to INBOX
         TreeItem<String> selected = folderTree.getSelectionModel().getSelectedItem();
+        if (selected != null && selected == unifiedInboxItem) {
+            showUnifiedInbox();
+            return;
+        }
         String folderName = "INBOX";
         if (selected != null && selected.getParent() != null) {
             folderName = selected.getValue();
@@ -327,6 +924,7 @@ public class MainController {
 
             ComposeController composeController = loader.getController();
             composeController.setEmailService(emailService);
+            composeController.setOutboxService(outboxService);
 
             Stage stage = new Stage();
             composeController.setStage(stage);
@@ -359,6 +957,7 @@ public class MainController {
 
             ComposeController composeController = loader.getController();
             composeController.setEmailService(emailService);
+            composeController.setOutboxService(outboxService);
             composeController.setReplyTo(selected);
 
             Stage stage = new Stage();
@@ -374,36 +973,308 @@ public class MainController {
     }
 
     @FXML
-    private void handleDelete() {
+    private void handleSaveAttachments() {
         EmailMessage selected = emailTable.getSelectionModel().getSelectedItem();
-        if (selected == null) {
-            showError("No email selected", "Please select an email to delete.");
+        if (selected == null || VirtualEmailList.isPlaceholder(selected)) {
+            showError("No email selected", "Please select an email to save attachments from.");
             return;
         }
 
-        HostConfiguration config = hostConfigManager.getCurrentHost();
-        if (config == null) {
-            showError("No account configured", "Please configure an email account first.");
+        if (emailService == null) {
+            showError("Email service not initialized", "Internal error: emailService is null.");
             return;
         }
 
-        // Optimistic Update: Remove from UI immediately
-        int selectedIndex = emailTable.getSelectionModel().getSelectedIndex();
-        emailData.remove(selected);
+        HostConfiguration config = selected.getAccount() != null ? hostConfigFor(selected) : requireHostConfig();
+        if (config == null) {
+            return;
+        }
+        String messageId = selected.getMessageId();
+        String folderName = selected.getFolder();
 
-        // Run network operation in background
-        new Thread(() -> {
+        // Only the BODYSTRUCTURE is fetched here; content follows once the user picked a directory
+        mailTasks.submit(config, TaskPriority.INTERACTIVE, "list attachments", () -> {
             try {
-                emailService.deleteEmail(selected, config);
+                List<AttachmentInfo> attachments = emailService.listAttachments(messageId, folderName, config);
+                Platform.runLater(() -> downloadAttachments(attachments, config));
             } catch (Exception ex) {
                 ex.printStackTrace();
-                // If failed, restore the email to UI
+                Platform.runLater(() -> showError("Error reading attachments", ex.getMessage()));
+            }
+        });
+    }
+
+    private void downloadAttachments(List<AttachmentInfo> attachments, HostConfiguration config) {
+        if (attachments.isEmpty()) {
+            Alert info = new Alert(Alert.AlertType.INFORMATION);
+            info.setTitle("Save Attachments");
+            info.setHeaderText("No attachments");
+            info.setContentText("This email has no attachments.");
+            info.showAndWait();
+            return;
+        }
+
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Save " + attachments.size() + " attachment(s) to");
+        File directory = chooser.showDialog(emailTable.getScene().getWindow());
+        if (directory == null) {
+            return;
+        }
+
+        List<String> names = new ArrayList<>();
+        for (AttachmentInfo attachment : attachments) {
+            names.add(attachment.getFileName());
+        }
+        ProgressBar progressBar = new ProgressBar(0);
+        progressBar.setPrefWidth(360);
+        Label statusLabel = new Label("Starting...");
+        Button cancelButton = new Button("Cancel");
+        VBox content = new VBox(10, new Label(String.join(", ", names)), progressBar, statusLabel, cancelButton);
+        content.setPadding(new Insets(15));
+
+        Stage stage = new Stage();
+        stage.setTitle("Saving attachments");
+        stage.setScene(new Scene(content));
+
+        boolean[] cancelled = new boolean[1];
+        AttachmentHandler.Download download = emailService.downloadAttachments(attachments, directory, config,
+                new AttachmentHandler.DownloadListener() {
+                    @Override
+                    public void progress(long bytesDone, long bytesTotal, double bytesPerSecond) {
+                        Platform.runLater(() -> {
+                            progressBar.setProgress(bytesTotal > 0 ? (double) bytesDone / bytesTotal : -1);
+                            statusLabel.setText(formatBytes(bytesDone) + " of " + formatBytes(bytesTotal)
+                                    + " (" + formatBytes((long) bytesPerSecond) + "/s)");
+                        });
+                    }
+
+                    @Override
+                    public void finished(List<File> files, Exception error) {
+                        Platform.runLater(() -> {
+                            stage.close();
+                            if (error != null && !cancelled[0]) {
+                                showError("Error saving attachments", error.getMessage());
+                            }
+                        });
+                    }
+                });
+
+        // Cancelling keeps the partial files, so saving the same attachments again resumes them
+        cancelButton.setOnAction(e -> {
+            cancelled[0] = true;
+            download.cancel();
+            stage.close();
+        });
+        stage.setOnCloseRequest(e -> {
+            cancelled[0] = true;
+            download.cancel();
+        });
+        if (!download.isDone()) {
+            stage.show();
+        }
+    }
+
+    // Sync every folder of the current account into the cache, with a progress window
+    @FXML
+    private void handleSyncAll() {
+        HostConfiguration config = requireHostConfig();
+        if (config == null) {
+            return;
+        }
+        if (!"imap".equalsIgnoreCase(config.getReceiveProtocol())) {
+            showError("Sync all folders", "Only IMAP accounts have folders to sync.");
+            return;
+        }
+
+        ProgressBar progressBar = new ProgressBar(-1);
+        progressBar.setPrefWidth(360);
+        Label statusLabel = new Label("Listing folders...");
+        Button cancelButton = new Button("Cancel");
+        VBox content = new VBox(10, new Label("Syncing all folders of " + config.getUsername()), progressBar,
+                statusLabel, cancelButton);
+        content.setPadding(new Insets(15));
+
+        Stage stage = new Stage();
+        stage.setTitle("Sync all folders");
+        stage.setScene(new Scene(content));
+
+        AllFolderSync allFolderSync = new AllFolderSync(accountSyncManager.getAccount(config), folderManager);
+        AllFolderSync.Run run = allFolderSync.start(new AllFolderSync.Listener() {
+            @Override
+            public void folderSynced(AllFolderSync.FolderResult result, int foldersDone, int foldersTotal) {
+                Platform.runLater(() -> {
+                    progressBar.setProgress((double) foldersDone / foldersTotal);
+                    statusLabel.setText(foldersDone + " of " + foldersTotal + " folders (" + result + ")");
+                });
+            }
+
+            @Override
+            public void finished(AllFolderSync.Report report, Exception error) {
                 Platform.runLater(() -> {
-                    emailData.add(selectedIndex, selected);
-                    showError("Error deleting email", "Failed to delete from server. Restoring email.\n" + ex.getMessage());
+                    if (!stage.isShowing()) {
+                        return;  // cancelled by the user
+                    }
+                    stage.close();
+                    if (error != null) {
+                        showError("Error syncing folders", error.getMessage());
+                    } else {
+                        showSyncReport(report);
+                    }
                 });
             }
-        }).start();
+        });
+
+        // Cancelling keeps the checkpoint, so the next Sync All continues with the folders that are left
+        cancelButton.setOnAction(e -> {
+            stage.close();
+            run.cancel();
+        });
+        stage.setOnCloseRequest(e -> run.cancel());
+        stage.show();
+    }
+
+    @FXML
+    private void handleDiagnostics() {
+        if (diagnosticsWindow == null) {
+            diagnosticsWindow = new DiagnosticsWindow();
+        }
+        diagnosticsWindow.show();
+    }
+
+    private void showSyncReport(AllFolderSync.Report report) {
+        List<AllFolderSync.FolderResult> slowest = new ArrayList<>(report.getFolders());
+        slowest.sort((a, b) -> Long.compare(b.getMillis(), a.getMillis()));
+        StringBuilder text = new StringBuilder();
+        text.append(report.getMessages()).append(" messages in ")
+                .append(String.format("%.1f s (%.1f messages/s)", report.getElapsedMillis() / 1000.0,
+                        report.getMessagesPerSecond()));
+        if (report.getResumedFolders() > 0) {
+            text.append("\n").append(report.getResumedFolders()).append(" folders were already done by the interrupted run");
+        }
+        text.append("\n\nSlowest folders:");
+        for (AllFolderSync.FolderResult folder : slowest.subList(0, Math.min(5, slowest.size()))) {
+            text.append("\n").append(folder);
+        }
+
+        Alert info = new Alert(report.getFailedFolders() > 0 ? Alert.AlertType.WARNING : Alert.AlertType.INFORMATION);
+        info.setTitle("Sync all folders");
+        info.setHeaderText(report.getFolders().size() + report.getResumedFolders() + " folders synced"
+                + (report.getFailedFolders() > 0 ? ", " + report.getFailedFolders() + " failed" : ""));
+        info.setContentText(text.toString());
+        info.showAndWait();
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+
+    @FXML
+    private void handleDelete() {
+        List<Integer> selectedRows = new ArrayList<>(emailTable.getSelectionModel().getSelectedIndices());
+        selectedRows.removeIf(row -> row < 0 || VirtualEmailList.isPlaceholder(emailTable.getItems().get(row)));
+        if (selectedRows.isEmpty()) {
+            showError("No email selected", "Please select an email to delete.");
+            return;
+        }
+
+        if (hostConfigManager.getCurrentHost() == null) {
+            showError("No account configured", "Please configure an email account first.");
+            return;
+        }
+
+        // Optimistic Update: Remove from UI immediately (bottom row first so indexes stay valid)
+        selectedRows.sort(Collections.reverseOrder());
+        boolean virtual = emailTable.getItems() == virtualData;
+        List<EmailMessage> toDelete = new ArrayList<>();
+        Map<EmailMessage, Integer> headIndexes = new IdentityHashMap<>();
+        Map<EmailMessage, Integer> tailSeqs = new IdentityHashMap<>();
+        for (int row : selectedRows) {
+            EmailMessage email = emailTable.getItems().get(row);
+            toDelete.add(email);
+            if (virtual && virtualData.isTailRow(row)) {
+                // Older messages only exist as table rows backed by the window cache
+                tailSeqs.put(email, virtualData.hideTailRow(row));
+            } else {
+                headIndexes.put(email, emailData.indexOf(email));
+                emailData.remove(email);
+            }
+        }
+        emailTable.getSelectionModel().clearSelection();
+
+        // The unified inbox can mix accounts: each is deleted through its own connection
+        Map<HostConfiguration, List<EmailMessage>> byAccount = new LinkedHashMap<>();
+        for (EmailMessage email : toDelete) {
+            byAccount.computeIfAbsent(hostConfigFor(email), key -> new ArrayList<>()).add(email);
+        }
+        HostConfiguration taskAccount = byAccount.size() == 1 ? byAccount.keySet().iterator().next() : null;
+
+        // Run network operation in background: one STORE + EXPUNGE per folder
+        mailTasks.submit(taskAccount, TaskPriority.INTERACTIVE, "delete " + toDelete.size() + " messages", () -> {
+            List<EmailMessage> failed = new ArrayList<>();
+            String error = null;
+            for (Map.Entry<HostConfiguration, List<EmailMessage>> entry : byAccount.entrySet()) {
+                try {
+                    failed.addAll(emailService.deleteEmails(entry.getValue(), entry.getKey()));
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                    failed.addAll(entry.getValue());
+                    error = ex.getMessage();
+                }
+            }
+            List<EmailMessage> notDeleted = failed;
+            String failure = error;
+            Platform.runLater(() -> rollBackFailedDeletes(toDelete, notDeleted, headIndexes, tailSeqs, failure));
+        });
+    }
+
+    // Put back whatever the server did not delete; the rest of the optimistic removal stands
+    private void rollBackFailedDeletes(List<EmailMessage> requested, List<EmailMessage> failed,
+                                       Map<EmailMessage, Integer> headIndexes, Map<EmailMessage, Integer> tailSeqs,
+                                       String error) {
+        Set<EmailMessage> failedSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        failedSet.addAll(failed);
+
+        // Restore before applying expunges, while the recorded sequence numbers are still valid
+        List<Integer> expungedSeqs = new ArrayList<>();
+        for (Map.Entry<EmailMessage, Integer> entry : tailSeqs.entrySet()) {
+            if (failedSet.contains(entry.getKey())) {
+                virtualData.restoreTailRow(entry.getValue());
+            } else {
+                expungedSeqs.add(entry.getValue());
+            }
+        }
+        virtualData.tailRowsExpunged(expungedSeqs);
+
+        List<EmailMessage> restore = new ArrayList<>();
+        for (EmailMessage email : failed) {
+            if (headIndexes.containsKey(email)) {
+                restore.add(email);
+            }
+        }
+        restore.sort((a, b) -> Integer.compare(headIndexes.get(a), headIndexes.get(b)));
+        for (EmailMessage email : restore) {
+            // Shift up past every successfully deleted message that sat above it
+            int original = headIndexes.get(email);
+            int index = original;
+            for (Map.Entry<EmailMessage, Integer> entry : headIndexes.entrySet()) {
+                if (entry.getValue() < original && !failedSet.contains(entry.getKey())) {
+                    index--;
+                }
+            }
+            emailData.add(Math.min(Math.max(index, 0), emailData.size()), email);
+        }
+
+        if (!failed.isEmpty()) {
+            showError("Error deleting email", failed.size() + " of " + requested.size()
+                    + " messages could not be deleted from the server and were restored."
+                    + (error != null ? "\n" + error : ""));
+        }
     }
 
     @FXML
@@ -458,6 +1329,29 @@ public class MainController {
 
     public void setEmailService(EmailService emailService) {
         this.emailService = emailService;
+        this.bodyPrefetcher = new BodyPrefetcher(emailService);
+        MetricsRegistry.getInstance().registerStats("BodyPrefetcher", bodyPrefetcher::toString);
+    }
+
+    public void setOutboxService(OutboxService outboxService) {
+        this.outboxService = outboxService;
+        // Sending is fire-and-forget from the compose window, so a message that cannot be delivered is reported here
+        outboxService.setListener(new OutboxService.Listener() {
+            @Override
+            public void messageSent(String subject, List<String> recipients) {
+            }
+
+            @Override
+            public void messageFailed(String subject, List<String> recipients, Exception error) {
+                Platform.runLater(() -> showError("Could not send \"" + subject + "\" to "
+                        + String.join(", ", recipients), error.getMessage()));
+            }
+        });
+    }
+
+    public void setAccountSyncManager(AccountSyncManager accountSyncManager) {
+        this.accountSyncManager = accountSyncManager;
+        accountSyncManager.setListener(this::onAccountSynced);
     }
 
     public void setFolderManager(FolderManager folderManager) {
@@ -0,0 +1,221 @@
+package controller;
+
+import javafx.application.Platform;
+import javafx.scene.control.Button;
+import javafx.scene.control.TextArea;
+import service.EmailService;
+import service.MetricsRegistry;
+
+/**
+ * The body text area of the reading pane, filled either at once from a local
+ * body or incrementally while a body is being downloaded. Streamed text is
+ * collected off the FX thread and appended in one batch per pulse. At most
+ * PAGE_CHARS are shown at a time; the rest is behind a "Load more" button.
+ * Records the time from selecting a message to its first text on screen.
+ */
+public class StreamingBodyView {
+
+    public static final int PAGE_CHARS = 200_000;
+
+    private final TextArea area;
+    private final Button loadMoreButton;
+
+    // FX thread only
+    private Stream current;
+    private String localText;   // whole body when it came from memory, for local paging
+    private long shownChars;
+    private EmailService.BodyCheckpoint checkpoint;  // where the streamed body stopped, for "Load more"
+
+    // Time to first content
+    private long firstContentCount;
+    private long firstContentTotalNanos;
+    private long firstContentMaxNanos;
+    private long firstContentLastNanos;
+    private long streamedCount;
+
+    public StreamingBodyView(TextArea area, Button loadMoreButton) {
+        this.area = area;
+        this.loadMoreButton = loadMoreButton;
+        loadMoreButton.managedProperty().bind(loadMoreButton.visibleProperty());
+        loadMoreButton.setVisible(false);
+    }
+
+    // Status or error text in place of a body
+    public void showMessage(String message) {
+        reset();
+        area.setText(message);
+    }
+
+    public void clear() {
+        showMessage("");
+    }
+
+    // A body already in memory; only its first page goes into the text area
+    public void showText(String body, long startNanos) {
+        reset();
+        localText = body;
+        shownChars = Math.min(body.length(), PAGE_CHARS);
+        area.setText(body.substring(0, (int) shownChars));
+        loadMoreButton.setVisible(shownChars < body.length());
+        recordFirstContent(startNanos);
+    }
+
+    // Start filling the area from a download; the placeholder stays until the first text arrives
+    public Stream beginStream(long startNanos) {
+        showMessage("Loading content...");
+        current = new Stream(startNanos, true);
+        checkpoint = new EmailService.BodyCheckpoint();
+        streamedCount++;
+        return current;
+    }
+
+    // Continue where the last stream stopped (pass getCheckpoint() to the download)
+    public Stream continueStream() {
+        loadMoreButton.setVisible(false);
+        current = new Stream(0, false);
+        return current;
+    }
+
+    public boolean hasLocalMore() {
+        return localText != null && shownChars < localText.length();
+    }
+
+    public void showNextLocalPage() {
+        if (!hasLocalMore()) {
+            return;
+        }
+        long end = Math.min(localText.length(), shownChars + PAGE_CHARS);
+        area.appendText(localText.substring((int) shownChars, (int) end));
+        shownChars = end;
+        loadMoreButton.setVisible(hasLocalMore());
+    }
+
+    public EmailService.BodyCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    private void reset() {
+        current = null;
+        localText = null;
+        shownChars = 0;
+        checkpoint = null;
+        loadMoreButton.setVisible(false);
+    }
+
+    private void recordFirstContent(long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        firstContentCount++;
+        firstContentTotalNanos += elapsed;
+        firstContentMaxNanos = Math.max(firstContentMaxNanos, elapsed);
+        firstContentLastNanos = elapsed;
+        MetricsRegistry.getInstance().histogram("ui.timeToFirstContent").record(elapsed);
+    }
+
+    public long getFirstContentCount() {
+        return firstContentCount;
+    }
+
+    public double getAverageFirstContentMillis() {
+        return firstContentCount == 0 ? 0 : firstContentTotalNanos / 1e6 / firstContentCount;
+    }
+
+    public double getMaxFirstContentMillis() {
+        return firstContentMaxNanos / 1e6;
+    }
+
+    public double getLastFirstContentMillis() {
+        return firstContentLastNanos / 1e6;
+    }
+
+    // Bodies that had to be downloaded (the rest came from memory)
+    public long getStreamedCount() {
+        return streamedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamingBodyView{" +
+                "firstContent=" + firstContentCount +
+                ", avgMs=" + String.format("%.1f", getAverageFirstContentMillis()) +
+                ", maxMs=" + String.format("%.1f", getMaxFirstContentMillis()) +
+                ", lastMs=" + String.format("%.1f", getLastFirstContentMillis()) +
+                ", streamed=" + streamedCount +
+                '}';
+    }
+
+    /**
+     * One download into the view. Its methods may be called from any thread;
+     * once the view has moved on to another body they have no effect.
+     */
+    public class Stream {
+        private final long startNanos;
+        private final boolean first;  // replaces the placeholder, and is timed
+        private final StringBuilder pending = new StringBuilder();
+        private boolean flushScheduled;
+        private boolean started;      // FX thread only
+
+        private Stream(long startNanos, boolean first) {
+            this.startNanos = startNanos;
+            this.first = first;
+        }
+
+        public void append(String text) {
+            synchronized (pending) {
+                pending.append(text);
+                if (flushScheduled) {
+                    return;  // the queued flush will take this text too
+                }
+                flushScheduled = true;
+            }
+            Platform.runLater(this::flush);
+        }
+
+        // All text has been appended; more is true if the body was cut at the page limit
+        public void finish(boolean more) {
+            Platform.runLater(() -> {
+                flush();
+                if (current != this) {
+                    return;
+                }
+                if (first && !started) {
+                    area.clear();  // empty body: drop the placeholder
+                }
+                loadMoreButton.setVisible(more);
+            });
+        }
+
+        public void fail(String message) {
+            Platform.runLater(() -> {
+                flush();
+                if (current != this) {
+                    return;
+                }
+                if (first && !started) {
+                    area.setText("Error loading body: " + message);
+                } else {
+                    area.appendText("\n\n[Error loading the rest of the body: " + message + "]");
+                }
+            });
+        }
+
+        private void flush() {
+            String text;
+            synchronized (pending) {
+                text = pending.toString();
+                pending.setLength(0);
+                flushScheduled = false;
+            }
+            if (current != this || text.isEmpty()) {
+                return;
+            }
+            if (first && !started) {
+                area.setText(text);
+                recordFirstContent(startNanos);
+            } else {
+                area.appendText(text);
+            }
+            started = true;
+            shownChars += text.length();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package controller;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import javafx.application.Platform;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.collections.ObservableListBase;
+import model.EmailMessage;
+import service.EnvelopeWindowCache;
+
+/**
+ * Table rows for a whole folder without holding it in memory. The head is the
+ * synced/cached messages (newest first); every row below it maps to an older
+ * sequence number served by an EnvelopeWindowCache. Rows whose window is not
+ * loaded yet show a shared placeholder until the window arrives.
+ */
+public final class VirtualEmailList extends ObservableListBase<EmailMessage> {
+
+    private static final EmailMessage LOADING = new EmailMessage();
+
+    static {
+        LOADING.setSubject("Loading...");
+    }
+
+    private final ObservableList<EmailMessage> head;
+    private EnvelopeWindowCache tail;
+    private int tailSize;
+    // Tail sequence numbers removed from view but not yet expunged on the server
+    private final TreeSet<Integer> hiddenSeqs = new TreeSet<>();
+
+    public VirtualEmailList(ObservableList<EmailMessage> head) {
+        this.head = head;
+        head.addListener((ListChangeListener<EmailMessage>) this::forwardHeadChange);
+    }
+
+    public static boolean isPlaceholder(EmailMessage email) {
+        return email == LOADING;
+    }
+
+    @Override
+    public EmailMessage get(int index) {
+        int headSize = head.size();
+        if (index < headSize) {
+            return head.get(index);
+        }
+        if (index - headSize >= tailSize) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+        }
+        EmailMessage email = tail.get(seqForTailRow(index - headSize));
+        return email != null ? email : LOADING;
+    }
+
+    @Override
+    public int size() {
+        return head.size() + tailSize;
+    }
+
+    // Replace the older part of the folder (sequence numbers 1..tail.getMaxSeq()); null clears it
+    public void setTail(EnvelopeWindowCache newTail) {
+        if (tail != null) {
+            tail.close();
+        }
+        int oldSize = tailSize;
+        tail = newTail;
+        hiddenSeqs.clear();
+        tailSize = newTail != null ? newTail.getMaxSeq() : 0;
+        fireTailReplaced(oldSize);
+    }
+
+    public EnvelopeWindowCache getTail() {
+        return tail;
+    }
+
+    public boolean isTailRow(int index) {
+        return index >= head.size() && index < size();
+    }
+
+    // Optimistic delete of a tail row; returns its sequence number for restoreTailRow/tailRowsExpunged
+    public int hideTailRow(int index) {
+        int seq = seqForTailRow(index - head.size());
+        hiddenSeqs.add(seq);
+        tailSize--;
+        beginChange();
+        nextRemove(index, LOADING);
+        endChange();
+        return seq;
+    }
+
+    public void restoreTailRow(int seq) {
+        if (tail == null || !hiddenSeqs.remove(seq)) {
+            return;
+        }
+        tailSize++;
+        int index = rowForSeq(seq);
+        beginChange();
+        nextAdd(index, index + 1);
+        endChange();
+    }
+
+    // The server expunged these messages: every older sequence number shifts down past each of them
+    public void tailRowsExpunged(Collection<Integer> seqs) {
+        if (tail == null) {
+            return;
+        }
+        List<Integer> expunged = new ArrayList<>();
+        for (int seq : seqs) {
+            if (hiddenSeqs.remove(seq)) {
+                expunged.add(seq);
+            }
+        }
+        if (expunged.isEmpty()) {
+            return;
+        }
+        // Highest first, so the lower sequence numbers still to process are not shifted yet
+        expunged.sort(Collections.reverseOrder());
+        int oldSize = tailSize;
+        for (int seq : expunged) {
+            TreeSet<Integer> stillHidden = new TreeSet<>();
+            for (int hidden : hiddenSeqs) {
+                stillHidden.add(hidden > seq ? hidden - 1 : hidden);
+            }
+            hiddenSeqs.clear();
+            hiddenSeqs.addAll(stillHidden);
+        }
+        tail.invalidate(tail.getMaxSeq() - expunged.size());
+        fireTailReplaced(oldSize);
+    }
+
+    // Older messages were expunged (or the count otherwise changed) on the server: remap from scratch
+    public void resizeTail(int newMaxSeq) {
+        if (tail == null || newMaxSeq == tail.getMaxSeq()) {
+            return;
+        }
+        int oldSize = tailSize;
+        hiddenSeqs.clear();
+        tail.invalidate(Math.max(newMaxSeq, 0));
+        tailSize = tail.getMaxSeq();
+        fireTailReplaced(oldSize);
+    }
+
+    // Flags of an older message changed on the server: refresh its row if its window is loaded
+    public void updateTailMessage(EmailMessage email) {
+        if (tail == null) {
+            return;
+        }
+        int seq = tail.update(email);
+        if (seq < 1 || seq > tail.getMaxSeq() || hiddenSeqs.contains(seq)) {
+            return;  // not loaded: the window shows the new flags when it is fetched
+        }
+        beginChange();
+        nextUpdate(rowForSeq(seq));
+        endChange();
+    }
+
+    // Window cache listener; called on the loader thread
+    public void windowLoaded(int firstSeq, int lastSeq) {
+        Platform.runLater(() -> {
+            if (tailSize == 0) {
+                return;
+            }
+            int from = Math.max(rowForSeq(lastSeq), head.size());
+            int to = Math.min(rowForSeq(firstSeq), size() - 1);
+            if (from > to) {
+                return;
+            }
+            beginChange();
+            for (int i = from; i <= to; i++) {
+                nextUpdate(i);
+            }
+            endChange();
+        });
+    }
+
+    // Tail row j is the j-th newest sequence number that is not hidden
+    private int seqForTailRow(int tailRow) {
+        int seq = tail.getMaxSeq() - tailRow;
+        for (int hidden : hiddenSeqs.descendingSet()) {
+            if (hidden < seq) {
+                break;
+            }
+            seq--;
+        }
+        return seq;
+    }
+
+    private int rowForSeq(int seq) {
+        int newerHidden = hiddenSeqs.tailSet(seq, false).size();
+        return head.size() + (tail.getMaxSeq() - seq) - newerHidden;
+    }
+
+    private void fireTailReplaced(int oldSize) {
+        int from = head.size();
+        beginChange();
+        if (oldSize > 0) {
+            nextRemove(from, placeholders(oldSize));
+        }
+        if (tailSize > 0) {
+            nextAdd(from, from + tailSize);
+        }
+        endChange();
+    }
+
+    private void forwardHeadChange(ListChangeListener.Change<? extends EmailMessage> change) {
+        beginChange();
+        while (change.next()) {
+            if (change.wasPermutated()) {
+                // Reported as a replace of the permuted range; the table re-reads those rows
+                nextRemove(change.getFrom(), placeholders(change.getTo() - change.getFrom()));
+                nextAdd(change.getFrom(), change.getTo());
+            } else if (change.wasUpdated()) {
+                for (int i = change.getFrom(); i < change.getTo(); i++) {
+                    nextUpdate(i);
+                }
+            } else {
+                if (change.wasRemoved()) {
+                    nextRemove(change.getFrom(), new ArrayList<>(change.getRemoved()));
+                }
+                if (change.wasAdded()) {
+                    nextAdd(change.getFrom(), change.getTo());
+                }
+            }
+        }
+        endChange();
+    }
+
+    // Removed tail rows were never materialised, so the change carries placeholders
+    private static List<EmailMessage> placeholders(int count) {
+        return Collections.nCopies(count, LOADING);
+    }
+}
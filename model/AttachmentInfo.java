@@ -0,0 +1,103 @@
+package model;
+
+import java.io.Serializable;
+
+/**
+ * An attachment of a server-side message, located by folder, UID and IMAP
+ * body section (e.g. "2" or "1.3"), as described by the BODYSTRUCTURE.
+ */
+public class AttachmentInfo implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String folder;
+    private long uidValidity;
+    private long uid;
+    private String section;      // IMAP body section number
+    private String fileName;
+    private String mimeType;
+    private String encoding;     // Content-Transfer-Encoding (base64, quoted-printable, 7bit, ...)
+    private long size;           // Encoded size on the server in bytes
+
+    public AttachmentInfo() {
+    }
+
+    // Getters and Setters
+    public String getFolder() {
+        return folder;
+    }
+
+    public void setFolder(String folder) {
+        this.folder = folder;
+    }
+
+    public long getUidValidity() {
+        return uidValidity;
+    }
+
+    public void setUidValidity(long uidValidity) {
+        this.uidValidity = uidValidity;
+    }
+
+    public long getUid() {
+        return uid;
+    }
+
+    public void setUid(long uid) {
+        this.uid = uid;
+    }
+
+    public String getSection() {
+        return section;
+    }
+
+    public void setSection(String section) {
+        this.section = section;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public void setMimeType(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    // Approximate size once decoded (base64 carries 3 bytes in 4 characters plus line breaks)
+    public long getDecodedSize() {
+        return "base64".equalsIgnoreCase(encoding) ? size * 3 / 4 : size;
+    }
+
+    @Override
+    public String toString() {
+        return "AttachmentInfo{" +
+                "fileName='" + fileName + '\'' +
+                ", section='" + section + '\'' +
+                ", mimeType='" + mimeType + '\'' +
+                ", size=" + size +
+                '}';
+    }
+}
@@ -21,6 +21,10 @@ public class EmailMessage implements Serializable {
     private List<File> attachments;
     private String folder;
     private String messageId;  // Unique identifier for the email
+    private long uid;          // IMAP UID within the folder (0 if unknown)
+    private transient int messageNumber;  // Sequence number when fetched (shifts on expunge)
+    private long size;         // RFC822.SIZE in bytes, attachments included (0 if unknown)
+    private transient String account;  // HostConfiguration.getAccountId() of its mailbox (null: current account)
 
     public EmailMessage() {
         this.to = new ArrayList<>();
@@ -113,6 +117,38 @@ public class EmailMessage implements Serializable {
         this.messageId = messageId;
     }
 
+    public long getUid() {
+        return uid;
+    }
+
+    public void setUid(long uid) {
+        this.uid = uid;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public String getAccount() {
+        return account;
+    }
+
+    public void setAccount(String account) {
+        this.account = account;
+    }
+
+    public int getMessageNumber() {
+        return messageNumber;
+    }
+
+    public void setMessageNumber(int messageNumber) {
+        this.messageNumber = messageNumber;
+    }
+
     @Override
     public String toString() {
         return "EmailMessage{" +
@@ -0,0 +1,104 @@
+package model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A folder as listed by the server with its STATUS counts, as shown in the
+ * folder tree. Counts are -1 when unknown (e.g. folders that cannot hold
+ * messages).
+ */
+public class FolderInfo implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String name;            // Full name, e.g. "Archive/2024"
+    private char separator;         // Hierarchy delimiter ('/' or '.'), 0 if flat
+    private ArrayList<String> attributes; // LIST attributes such as \Noselect, \HasChildren, \Sent
+    private int messages = -1;
+    private int unseen = -1;
+    private long uidNext = -1;
+
+    public FolderInfo() {
+        this.attributes = new ArrayList<>();
+    }
+
+    public FolderInfo(String name) {
+        this();
+        this.name = name;
+    }
+
+    // Getters and Setters
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public char getSeparator() {
+        return separator;
+    }
+
+    public void setSeparator(char separator) {
+        this.separator = separator;
+    }
+
+    public List<String> getAttributes() {
+        return attributes;
+    }
+
+    public void setAttributes(List<String> attributes) {
+        this.attributes = new ArrayList<>(attributes);
+    }
+
+    public int getMessages() {
+        return messages;
+    }
+
+    public void setMessages(int messages) {
+        this.messages = messages;
+    }
+
+    public int getUnseen() {
+        return unseen;
+    }
+
+    public void setUnseen(int unseen) {
+        this.unseen = unseen;
+    }
+
+    public long getUidNext() {
+        return uidNext;
+    }
+
+    public void setUidNext(long uidNext) {
+        this.uidNext = uidNext;
+    }
+
+    // False for \Noselect / \NonExistent placeholders in the hierarchy
+    public boolean holdsMessages() {
+        for (String attribute : attributes) {
+            if (attribute.equalsIgnoreCase("\\Noselect") || attribute.equalsIgnoreCase("\\NonExistent")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Same counts as another snapshot of this folder
+    public boolean sameCounts(FolderInfo other) {
+        return other != null && messages == other.messages && unseen == other.unseen && uidNext == other.uidNext;
+    }
+
+    @Override
+    public String toString() {
+        return "FolderInfo{" +
+                "name='" + name + '\'' +
+                ", messages=" + messages +
+                ", unseen=" + unseen +
+                ", uidNext=" + uidNext +
+                '}';
+    }
+}
@@ -0,0 +1,66 @@
+package model;
+
+import java.io.Serializable;
+
+/**
+ * Per-folder sync checkpoint used for UID-based incremental refresh.
+ * A change of UIDVALIDITY invalidates every UID stored for the folder.
+ */
+public class FolderSyncState implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private long uidValidity;
+    private long highestUid;      // Highest UID already in the local cache
+    private int messageCount;     // Server message count at last sync
+    private long lastSyncTime;    // Epoch millis of last successful sync
+
+    public FolderSyncState() {
+    }
+
+    public FolderSyncState(long uidValidity, long highestUid) {
+        this.uidValidity = uidValidity;
+        this.highestUid = highestUid;
+    }
+
+    // Getters and Setters
+    public long getUidValidity() {
+        return uidValidity;
+    }
+
+    public void setUidValidity(long uidValidity) {
+        this.uidValidity = uidValidity;
+    }
+
+    public long getHighestUid() {
+        return highestUid;
+    }
+
+    public void setHighestUid(long highestUid) {
+        this.highestUid = highestUid;
+    }
+
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    public void setMessageCount(int messageCount) {
+        this.messageCount = messageCount;
+    }
+
+    public long getLastSyncTime() {
+        return lastSyncTime;
+    }
+
+    public void setLastSyncTime(long lastSyncTime) {
+        this.lastSyncTime = lastSyncTime;
+    }
+
+    @Override
+    public String toString() {
+        return "FolderSyncState{" +
+                "uidValidity=" + uidValidity +
+                ", highestUid=" + highestUid +
+                ", messageCount=" + messageCount +
+                '}';
+    }
+}
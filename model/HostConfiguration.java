@@ -82,6 +82,11 @@ public class HostConfiguration implements Serializable {
         this.password = password;
     }
 
+    // Identity of the mailbox regardless of credentials: protocol, user and receive server
+    public String getAccountId() {
+        return receiveProtocol + "://" + username + "@" + receiveHost + ":" + receivePort;
+    }
+
     @Override
     public String toString() {
         return "HostConfiguration{" +
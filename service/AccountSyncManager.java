@@ -0,0 +1,218 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import model.EmailMessage;
+import model.HostConfiguration;
+
+/**
+ * All saved accounts side by side. Each account has its own cache directory,
+ * FolderSync and FolderWatcher; connections come from its own ConnectionPool
+ * server pool and its tasks from its own MailTaskExecutor slots, so syncing
+ * one account never waits on another. Also provides the unified inbox: the
+ * per-account caches read newest first and merged.
+ */
+public class AccountSyncManager {
+
+    public static final String INBOX = "INBOX";
+
+    public interface Listener {
+        // Called on a task thread each time one account finished syncing a folder; error is null on success
+        void accountSynced(HostConfiguration account, String folderName, FolderSync.SyncResult result,
+                           Exception error);
+    }
+
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+    private final MailTaskExecutor executor;
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile Listener listener;
+    private ScheduledExecutorService scheduler;
+
+    public AccountSyncManager() {
+        this(MailTaskExecutor.getInstance());
+    }
+
+    public AccountSyncManager(MailTaskExecutor executor) {
+        this.executor = executor;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // State of one account; a config with new credentials for a known account replaces the old one
+    public Account getAccount(HostConfiguration config) {
+        Account account = accounts.computeIfAbsent(config.getAccountId(), id -> new Account(config));
+        account.config = config;
+        return account;
+    }
+
+    // Config of a known account by HostConfiguration.getAccountId(), or null
+    public HostConfiguration getConfig(String accountId) {
+        Account account = accountId != null ? accounts.get(accountId) : null;
+        return account != null ? account.config : null;
+    }
+
+    // Sync one folder of every account at once; each account's result is reported as soon as it is in
+    public List<MailTaskExecutor.TaskHandle> syncAll(List<HostConfiguration> configs, String folderName,
+                                                     TaskPriority priority) {
+        List<MailTaskExecutor.TaskHandle> handles = new ArrayList<>();
+        for (HostConfiguration config : configs) {
+            if (!"imap".equalsIgnoreCase(config.getReceiveProtocol())) {
+                continue;  // POP3 has no folders to keep in sync
+            }
+            Account account = getAccount(config);
+            handles.add(executor.submit(config, priority, "sync " + folderName + " of " + config.getUsername(),
+                    () -> account.syncInBackground(folderName)));
+        }
+        return handles;
+    }
+
+    // Newest-first view of a folder across accounts from what is cached; pulls only as far as it is read
+    public Iterator<EmailMessage> mergedNewestFirst(List<HostConfiguration> configs, String folderName) {
+        List<Iterator<EmailMessage>> sources = new ArrayList<>();
+        for (HostConfiguration config : configs) {
+            sources.add(getAccount(config).newestFirst(folderName));
+        }
+        return new MergedEnvelopeIterator(sources);
+    }
+
+    // Sync the folder of every account now and then at a fixed interval
+    public synchronized void start(Supplier<List<HostConfiguration>> configs, String folderName, long intervalMs) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "account-sync-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> syncAll(new ArrayList<>(configs.get()), folderName,
+                TaskPriority.BACKGROUND_SYNC), 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        for (Account account : accounts.values()) {
+            account.watcher.unwatchAll();
+        }
+    }
+
+    public long getSyncCount() {
+        return syncs.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    public List<Account> getAccounts() {
+        return new ArrayList<>(accounts.values());
+    }
+
+    /**
+     * One account: its cache namespace, sync engine and watcher.
+     */
+    public class Account {
+        private volatile HostConfiguration config;
+        private final EmailCacheService cacheService;
+        private final FolderSync folderSync;
+        private final FolderWatcher watcher;
+        private volatile long lastSyncMillis;
+        private volatile String lastError;
+
+        private Account(HostConfiguration config) {
+            this.config = config;
+            this.cacheService = new EmailCacheService(config);
+            this.folderSync = new FolderSync(cacheService);
+            this.watcher = new FolderWatcher(cacheService);
+        }
+
+        public HostConfiguration getConfig() {
+            return config;
+        }
+
+        public EmailCacheService getCacheService() {
+            return cacheService;
+        }
+
+        public FolderSync getFolderSync() {
+            return folderSync;
+        }
+
+        public FolderWatcher getFolderWatcher() {
+            return watcher;
+        }
+
+        // Duration of the last completed sync
+        public long getLastSyncMillis() {
+            return lastSyncMillis;
+        }
+
+        // Message of the last failed sync, null once a sync succeeded again
+        public String getLastError() {
+            return lastError;
+        }
+
+        // Sync a folder of this account now (on the calling thread) and keep its envelopes for merging
+        public FolderSync.SyncResult syncFolder(String folderName) throws Exception {
+            return folderSync.sync(folderName, config);
+        }
+
+        private void syncInBackground(String folderName) {
+            long start = System.nanoTime();
+            FolderSync.SyncResult result = null;
+            Exception error = null;
+            try {
+                result = syncFolder(folderName);
+                lastError = null;
+                syncs.incrementAndGet();
+            } catch (Exception ex) {
+                if (MailTaskExecutor.isCancelled()) {
+                    return;
+                }
+                error = ex;
+                lastError = String.valueOf(ex.getMessage());
+                failures.incrementAndGet();
+                System.err.println("Sync of " + folderName + " for " + config.getUsername() + " failed: "
+                        + ex.getMessage());
+            }
+            lastSyncMillis = (System.nanoTime() - start) / 1_000_000;
+            Listener current = listener;
+            if (current != null) {
+                current.accountSynced(config, folderName, result, error);
+            }
+        }
+
+        // Straight off the cache in descending UID (arrival) order; no copy of the folder is kept
+        private Iterator<EmailMessage> newestFirst(String folderName) {
+            String accountId = config.getAccountId();
+            Iterator<EmailMessage> cached = cacheService.iterateNewestFirst(folderName);
+            return new Iterator<EmailMessage>() {
+                @Override
+                public boolean hasNext() {
+                    return cached.hasNext();
+                }
+
+                @Override
+                public EmailMessage next() {
+                    EmailMessage email = cached.next();
+                    email.setAccount(accountId);
+                    return email;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import model.HostConfiguration;
+
+/**
+ * Syncs every folder of one account in parallel. Each folder is its own
+ * BACKGROUND_SYNC task, so the account's connection cap (MailTaskExecutor and
+ * ConnectionPool, MAX_CONNECTIONS_PER_SERVER) bounds the fan-out and one
+ * connection always stays free for the user. Busy folders go first: INBOX,
+ * then by when new mail last arrived, then by size. After every folder the
+ * run is checkpointed in the account's cache directory; a run cut short by a
+ * crash or cancel resumes with the folders it had not finished.
+ */
+public class AllFolderSync {
+
+    private static final String CHECKPOINT_FILE = "sync-all.checkpoint";
+    private static final int CHECKPOINT_MAGIC = 0x53414C31;  // "SAL1"
+
+    public interface Listener {
+        // Called on a task thread after each folder
+        void folderSynced(FolderResult result, int foldersDone, int foldersTotal);
+
+        // Called once the last folder is done, or after listing the folders failed
+        void finished(Report report, Exception error);
+    }
+
+    private final AccountSyncManager.Account account;
+    private final FolderManager folderManager;
+    private final MailTaskExecutor executor;
+    private final File checkpointFile;
+
+    public AllFolderSync(AccountSyncManager.Account account, FolderManager folderManager) {
+        this(account, folderManager, MailTaskExecutor.getInstance());
+    }
+
+    public AllFolderSync(AccountSyncManager.Account account, FolderManager folderManager, MailTaskExecutor executor) {
+        this.account = account;
+        this.folderManager = folderManager;
+        this.executor = executor;
+        this.checkpointFile = new File(account.getCacheService().getDirectory(), CHECKPOINT_FILE);
+    }
+
+    public Run start(Listener listener) {
+        Run run = new Run(listener);
+        HostConfiguration config = account.getConfig();
+        executor.submit(config, TaskPriority.BACKGROUND_SYNC, "list folders for sync", () -> {
+            try {
+                run.plan(folderManager.getFolders(config));
+            } catch (Exception ex) {
+                run.fail(ex);
+            }
+        });
+        return run;
+    }
+
+    // Per-folder history kept between runs: what the ordering is based on, and this run's progress
+    private static class FolderState {
+        private final String name;
+        private long lastNewMailAt;
+        private int messageCount;
+        private long lastMillis;
+        private boolean doneInRun;
+
+        FolderState(String name) {
+            this.name = name;
+        }
+    }
+
+    private Map<String, FolderState> loadCheckpoint(boolean[] runActive) {
+        Map<String, FolderState> states = new LinkedHashMap<>();
+        if (!checkpointFile.exists()) {
+            return states;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)))) {
+            if (in.readInt() != CHECKPOINT_MAGIC) {
+                return states;
+            }
+            runActive[0] = in.readBoolean();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                FolderState state = new FolderState(in.readUTF());
+                state.lastNewMailAt = in.readLong();
+                state.messageCount = in.readInt();
+                state.lastMillis = in.readLong();
+                state.doneInRun = in.readBoolean();
+                states.put(state.name, state);
+            }
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable sync checkpoint " + checkpointFile + ": " + e.getMessage());
+            states.clear();
+            runActive[0] = false;
+        }
+        return states;
+    }
+
+    private void saveCheckpoint(Map<String, FolderState> states, boolean runActive) {
+        File tmp = new File(checkpointFile.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(CHECKPOINT_MAGIC);
+                out.writeBoolean(runActive);
+                out.writeInt(states.size());
+                for (FolderState state : states.values()) {
+                    out.writeUTF(state.name);
+                    out.writeLong(state.lastNewMailAt);
+                    out.writeInt(state.messageCount);
+                    out.writeLong(state.lastMillis);
+                    out.writeBoolean(state.doneInRun);
+                }
+            }
+            Files.move(tmp.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Failed to save sync checkpoint " + checkpointFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * One sync-all run. cancel() stops it where it is; the next start()
+     * continues from the checkpoint.
+     */
+    public class Run {
+        private final Listener listener;
+        private final List<FolderResult> results = new ArrayList<>();
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private final long startNanos = System.nanoTime();
+        private Map<String, FolderState> states;  // guarded by this
+        private int total;
+        private int done;
+        private int resumed;
+        private boolean cancelled;
+        private volatile Report report;
+        private volatile Exception error;
+
+        private Run(Listener listener) {
+            this.listener = listener;
+        }
+
+        private void plan(List<String> folderNames) {
+            boolean[] runActive = new boolean[1];
+            Map<String, FolderState> previous = loadCheckpoint(runActive);
+            List<FolderState> order = new ArrayList<>();
+            Map<String, FolderState> current = new LinkedHashMap<>();
+            for (String name : folderNames) {
+                FolderState state = previous.getOrDefault(name, new FolderState(name));
+                if (!runActive[0]) {
+                    state.doneInRun = false;  // a new run; an interrupted one keeps its progress
+                }
+                current.put(name, state);
+                order.add(state);
+            }
+            order.sort(Comparator.comparing((FolderState state) -> !"INBOX".equalsIgnoreCase(state.name))
+                    .thenComparing(state -> -state.lastNewMailAt)
+                    .thenComparing(state -> -state.messageCount));
+
+            List<FolderState> pending = new ArrayList<>();
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                states = current;
+                total = order.size();
+                for (FolderState state : order) {
+                    if (state.doneInRun) {
+                        resumed++;
+                        done++;
+                    } else {
+                        pending.add(state);
+                    }
+                }
+                saveCheckpoint(states, true);
+            }
+            if (pending.isEmpty()) {
+                complete();
+                return;
+            }
+            HostConfiguration config = account.getConfig();
+            for (FolderState state : pending) {
+                executor.submit(config, TaskPriority.BACKGROUND_SYNC, "sync all: " + state.name,
+                        () -> syncFolder(state));
+            }
+        }
+
+        private void syncFolder(FolderState state) {
+            if (isCancelled()) {
+                return;
+            }
+            long start = System.nanoTime();
+            FolderResult result;
+            try {
+                FolderSync.SyncResult sync = account.syncFolder(state.name);
+                result = new FolderResult(state.name, (System.nanoTime() - start) / 1_000_000,
+                        sync.getAdded(), sync.getUpdated(), sync.getRemoved(), null);
+                if (sync.getAdded() > 0) {
+                    state.lastNewMailAt = System.currentTimeMillis();
+                }
+                state.messageCount = sync.getMessageCount();
+            } catch (Exception ex) {
+                System.err.println("Sync of folder " + state.name + " failed: " + ex.getMessage());
+                result = new FolderResult(state.name, (System.nanoTime() - start) / 1_000_000, 0, 0, 0,
+                        String.valueOf(ex.getMessage()));
+            }
+
+            int foldersDone;
+            boolean last;
+            synchronized (this) {
+                state.lastMillis = result.getMillis();
+                // A failed folder stays pending, so resuming retries it
+                state.doneInRun = result.getError() == null;
+                results.add(result);
+                foldersDone = ++done;
+                last = done == total;
+                saveCheckpoint(states, !last);
+            }
+            if (listener != null && !isDone()) {
+                listener.folderSynced(result, foldersDone, total);
+            }
+            if (last) {
+                complete();
+            }
+        }
+
+        private void complete() {
+            finish(null);
+        }
+
+        private void fail(Exception ex) {
+            error = ex;
+            finish(ex);
+        }
+
+        private void finish(Exception ex) {
+            synchronized (this) {
+                if (report != null) {
+                    return;  // cancelled while the last folders were still running
+                }
+                report = new Report(new ArrayList<>(results), resumed, (System.nanoTime() - startNanos) / 1_000_000);
+            }
+            finished.countDown();
+            if (listener != null) {
+                listener.finished(report, ex);
+            }
+        }
+
+        // Start no further folders; the checkpoint still says which ones are left. Folders already
+        // syncing are not interrupted, since that could cut a cache write short.
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+            }
+            finish(null);
+        }
+
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isDone() {
+            return finished.getCount() == 0;
+        }
+
+        // Wait for the last folder; throws if the folders could not be listed
+        public Report await() throws Exception {
+            finished.await();
+            if (error != null) {
+                throw error;
+            }
+            return report;
+        }
+
+        public synchronized int getFoldersDone() {
+            return done;
+        }
+
+        public synchronized int getFoldersTotal() {
+            return total;
+        }
+    }
+
+    /**
+     * Timing and counts of one folder in a run.
+     */
+    public static class FolderResult {
+        private final String folder;
+        private final long millis;
+        private final int added;
+        private final int updated;
+        private final int removed;
+        private final String error;
+
+        public FolderResult(String folder, long millis, int added, int updated, int removed, String error) {
+            this.folder = folder;
+            this.millis = millis;
+            this.added = added;
+            this.updated = updated;
+            this.removed = removed;
+            this.error = error;
+        }
+
+        public String getFolder() {
+            return folder;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public int getAdded() {
+            return added;
+        }
+
+        public int getUpdated() {
+            return updated;
+        }
+
+        public int getRemoved() {
+            return removed;
+        }
+
+        // Null if the folder synced
+        public String getError() {
+            return error;
+        }
+
+        // Messages downloaded or changed
+        public int getMessages() {
+            return added + updated + removed;
+        }
+
+        @Override
+        public String toString() {
+            return folder + ": " + millis + " ms, +" + added + " ~" + updated + " -" + removed
+                    + (error != null ? " (" + error + ")" : "");
+        }
+    }
+
+    /**
+     * Outcome of a run: per-folder results in completion order plus totals.
+     */
+    public static class Report {
+        private final List<FolderResult> folders;
+        private final int resumedFolders;
+        private final long elapsedMillis;
+
+        public Report(List<FolderResult> folders, int resumedFolders, long elapsedMillis) {
+            this.folders = folders;
+            this.resumedFolders = resumedFolders;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public List<FolderResult> getFolders() {
+            return folders;
+        }
+
+        // Folders already done by the interrupted run this one continued
+        public int getResumedFolders() {
+            return resumedFolders;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public int getMessages() {
+            int messages = 0;
+            for (FolderResult folder : folders) {
+                messages += folder.getMessages();
+            }
+            return messages;
+        }
+
+        public int getFailedFolders() {
+            int failed = 0;
+            for (FolderResult folder : folders) {
+                if (folder.getError() != null) {
+                    failed++;
+                }
+            }
+            return failed;
+        }
+
+        public double getMessagesPerSecond() {
+            return elapsedMillis == 0 ? 0 : getMessages() * 1000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "AllFolderSync.Report{" +
+                    "folders=" + folders.size() +
+                    ", resumed=" + resumedFolders +
+                    ", failed=" + getFailedFolders() +
+                    ", messages=" + getMessages() +
+                    ", msgsPerSec=" + String.format("%.1f", getMessagesPerSecond()) +
+                    ", elapsedMs=" + elapsedMillis +
+                    '}';
+        }
+    }
+}
@@ -1,15 +1,65 @@
 package service;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.InputStream;
+import com.sun.mail.iap.ByteArray;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.protocol.BODY;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.activation.DataHandler;
 import javax.activation.FileDataSource;
+import javax.mail.Folder;
+import javax.mail.Message;
+import javax.mail.MessagingException;
 import javax.mail.internet.MimeBodyPart;
+import model.AttachmentInfo;
+import model.HostConfiguration;
 
+/**
+ * Builds outgoing attachment parts and downloads incoming ones.
+ *
+ * Downloads stream the encoded part with partial fetches
+ * (BODY.PEEK[section]<offset.length>) into a reused receive buffer, decode it
+ * incrementally and write the result through a direct buffer to a
+ * FileChannel, so memory stays flat whatever the attachment size. Parts are
+ * fetched in parallel, and a <file>.download checkpoint after every chunk
+ * lets an interrupted transfer continue from its last offset.
+ */
 public class AttachmentHandler {
 
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    private static final int CHECKPOINT_MAGIC = 0x41545431;  // "ATT1"
+
+    public interface DownloadListener {
+        // Called from download threads; bytes are encoded bytes as stored on the server
+        void progress(long bytesDone, long bytesTotal, double bytesPerSecond);
+
+        // Called once; files are in the order requested, error is null on success
+        void finished(List<File> files, Exception error);
+    }
+
+    private final ConnectionPool connectionPool;
+    private final MetricsRegistry metrics = MetricsRegistry.getInstance();
+
     public AttachmentHandler() {
+        this(ConnectionPool.getInstance());
+    }
+
+    public AttachmentHandler(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
     }
 
     // Convert File to MimeBodyPart for email attachment
@@ -23,6 +73,10 @@ public class AttachmentHandler {
 
     // Save MimeBodyPart attachment to disk
     public File saveAttachment(MimeBodyPart part, String destinationFolder) throws Exception {
+        return metrics.time("op.saveAttachment", () -> writeAttachment(part, destinationFolder));
+    }
+
+    private File writeAttachment(MimeBodyPart part, String destinationFolder) throws Exception {
         String fileName = part.getFileName();
         if (fileName == null) {
             fileName = "attachment_" + System.currentTimeMillis();
@@ -34,15 +88,21 @@ public class AttachmentHandler {
             destDir.mkdirs();
         }
 
-        File outputFile = new File(destDir, fileName);
+        File outputFile = new File(destDir, safeFileName(fileName));
 
         // Write attachment to file
-        try (InputStream input = part.getInputStream();
-             FileOutputStream output = new FileOutputStream(outputFile)) {
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = input.read(buffer)) != -1) {
-                output.write(buffer, 0, bytesRead);
+        try (ReadableByteChannel input = Channels.newChannel(part.getInputStream());
+             FileChannel output = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            while (input.read(buffer) != -1) {
+                buffer.flip();
+                output.write(buffer);
+                buffer.compact();
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                output.write(buffer);
             }
         }
 
@@ -52,4 +112,270 @@ public class AttachmentHandler {
     public long getFileSize(File file) {
         return file.length();
     }
+
+    // Attachments of a message on an open IMAP folder, from its BODYSTRUCTURE (no content is fetched)
+    public List<AttachmentInfo> listAttachments(IMAPFolder folder, Message message) throws MessagingException {
+        return MessageStructure.fetch(folder, message).getAttachments();
+    }
+
+    // Download attachments into a directory; each part is its own background task on its own connection
+    public Download download(List<AttachmentInfo> attachments, File directory, HostConfiguration config,
+                             DownloadListener listener) {
+        Download download = new Download(attachments, listener);
+        directory.mkdirs();
+        Set<String> taken = new HashSet<>();
+        for (int i = 0; i < attachments.size(); i++) {
+            AttachmentInfo info = attachments.get(i);
+            File target = uniqueFile(directory, safeFileName(info.getFileName()), taken);
+            int index = i;
+            // Long transfers run below FOLDER_OPEN so they can never take the last connection
+            download.tasks.add(MailTaskExecutor.getInstance().submit(config, TaskPriority.BACKGROUND_SYNC,
+                    "download " + info.getFileName(), () -> {
+                        try {
+                            metrics.time("op.downloadAttachment", () -> {
+                                downloadPart(info, target, config, download);
+                                return null;
+                            });
+                            download.partFinished(index, target, null);
+                        } catch (Exception ex) {
+                            download.partFinished(index, null, ex);
+                            if (!MailTaskExecutor.isCancelled()) {
+                                throw ex;
+                            }
+                        }
+                    }));
+        }
+        return download;
+    }
+
+    private void downloadPart(AttachmentInfo info, File target, HostConfiguration config, Download download)
+            throws Exception {
+        if (info.getSize() > Integer.MAX_VALUE) {
+            throw new MessagingException(info.getFileName() + " is too large for partial fetches");
+        }
+        File partial = new File(target.getPath() + ".part");
+        File checkpointFile = new File(target.getPath() + ".download");
+        Checkpoint checkpoint = readCheckpoint(checkpointFile, info, partial);
+        TransferDecoder decoder = TransferDecoder.forEncoding(info.getEncoding(), checkpoint.decoderState);
+        download.addRestored(checkpoint.rawOffset);
+
+        ByteArray receiveBuffer = new ByteArray(CHUNK_SIZE + 1024);
+        ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        try (FileChannel out = FileChannel.open(partial.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            out.truncate(checkpoint.decodedLength);
+            out.position(checkpoint.decodedLength);
+
+            while (checkpoint.rawOffset < info.getSize() || info.getSize() == 0) {
+                long offset = checkpoint.rawOffset;
+                int length = (int) Math.min(CHUNK_SIZE, info.getSize() > 0 ? info.getSize() - offset : CHUNK_SIZE);
+                // Borrowed per chunk so other work on this account can interleave with a long transfer
+                BODY body = connectionPool.withLease(config, lease -> {
+                    Folder folder = lease.openFolder(info.getFolder(), Folder.READ_ONLY);
+                    if (!(folder instanceof IMAPFolder)) {
+                        throw new MessagingException("Partial downloads need IMAP");
+                    }
+                    IMAPFolder imapFolder = (IMAPFolder) folder;
+                    if (imapFolder.getUIDValidity() != info.getUidValidity()) {
+                        throw new MessagingException("Folder " + info.getFolder() + " was rebuilt on the server");
+                    }
+                    Message message = imapFolder.getMessageByUID(info.getUid());
+                    if (message == null) {
+                        throw new MessagingException("Message is no longer on the server");
+                    }
+                    int messageNumber = message.getMessageNumber();
+                    MetricsRegistry.Timing timing = metrics.start("imap.fetch.attachmentChunk");
+                    try {
+                        return (BODY) imapFolder.doCommand(protocol ->
+                                protocol.peekBody(messageNumber, info.getSection(), (int) offset, length, receiveBuffer));
+                    } finally {
+                        timing.stop();
+                    }
+                });
+
+                ByteArray data = body != null ? body.getByteArray() : null;
+                int received = data != null ? data.getCount() : 0;
+                if (received > 0) {
+                    decoder.decode(data.getBytes(), data.getStart(), received, writeBuffer, out);
+                }
+                writeBuffer.flip();
+                while (writeBuffer.hasRemaining()) {
+                    out.write(writeBuffer);
+                }
+                writeBuffer.clear();
+
+                checkpoint.rawOffset += received;
+                checkpoint.decodedLength = out.position();
+                checkpoint.decoderState = decoder.getState();
+                writeCheckpoint(checkpointFile, info, checkpoint);
+                download.addDone(received);
+                if (received < length) {
+                    break;  // end of the part (the server's size was only an estimate)
+                }
+            }
+        }
+
+        Files.move(partial.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        checkpointFile.delete();
+    }
+
+    private static Checkpoint readCheckpoint(File file, AttachmentInfo info, File partial) {
+        Checkpoint checkpoint = new Checkpoint();
+        if (!file.exists()) {
+            return checkpoint;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() == CHECKPOINT_MAGIC && in.readLong() == info.getUidValidity()
+                    && in.readLong() == info.getUid() && in.readUTF().equals(info.getSection())) {
+                long rawOffset = in.readLong();
+                long decodedLength = in.readLong();
+                long decoderState = in.readLong();
+                // The checkpoint is written after the data; a shorter file means the data was lost
+                if (partial.length() >= decodedLength) {
+                    checkpoint.rawOffset = rawOffset;
+                    checkpoint.decodedLength = decodedLength;
+                    checkpoint.decoderState = decoderState;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable download checkpoint " + file + ": " + e.getMessage());
+        }
+        return checkpoint;
+    }
+
+    private static void writeCheckpoint(File file, AttachmentInfo info, Checkpoint checkpoint) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeLong(info.getUidValidity());
+            out.writeLong(info.getUid());
+            out.writeUTF(info.getSection());
+            out.writeLong(checkpoint.rawOffset);
+            out.writeLong(checkpoint.decodedLength);
+            out.writeLong(checkpoint.decoderState);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String safeFileName(String name) {
+        String safe = name.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_").trim();
+        return safe.isEmpty() || safe.equals(".") || safe.equals("..") ? "attachment" : safe;
+    }
+
+    // An existing finished file is never overwritten; an unfinished download of the same name is resumed
+    private static File uniqueFile(File directory, String name, Set<String> taken) {
+        File file = new File(directory, name);
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        for (int i = 1; file.exists() || taken.contains(file.getName()); i++) {
+            file = new File(directory, base + " (" + i + ")" + extension);
+        }
+        taken.add(file.getName());
+        return file;
+    }
+
+    private static class Checkpoint {
+        private long rawOffset;
+        private long decodedLength;
+        private long decoderState;
+    }
+
+    /**
+     * A running download of one or more attachments. cancel() stops every
+     * part; the checkpoints stay, so downloading again resumes.
+     */
+    public static class Download {
+        private final List<AttachmentInfo> attachments;
+        private final DownloadListener listener;
+        private final List<MailTaskExecutor.TaskHandle> tasks = Collections.synchronizedList(new ArrayList<>());
+        private final File[] files;
+        private final CountDownLatch remaining;
+        private final long totalBytes;
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong doneBytes = new AtomicLong();
+        private final AtomicLong restoredBytes = new AtomicLong();
+        private volatile Exception error;
+
+        private Download(List<AttachmentInfo> attachments, DownloadListener listener) {
+            this.attachments = attachments;
+            this.listener = listener;
+            this.files = new File[attachments.size()];
+            this.remaining = new CountDownLatch(attachments.size());
+            long total = 0;
+            for (AttachmentInfo info : attachments) {
+                total += info.getSize();
+            }
+            this.totalBytes = total;
+            if (attachments.isEmpty() && listener != null) {
+                listener.finished(Collections.emptyList(), null);
+            }
+        }
+
+        // Bytes kept from an earlier attempt count as done but not towards the transfer rate
+        private void addRestored(long bytes) {
+            restoredBytes.addAndGet(bytes);
+            addDone(bytes);
+        }
+
+        private void addDone(long bytes) {
+            long done = doneBytes.addAndGet(bytes);
+            if (listener != null && bytes > 0) {
+                listener.progress(done, totalBytes, getBytesPerSecond());
+            }
+        }
+
+        private void partFinished(int index, File file, Exception ex) {
+            if (file != null) {
+                files[index] = file;
+            } else if (error == null) {
+                error = ex;
+            }
+            remaining.countDown();
+            if (remaining.getCount() == 0 && listener != null) {
+                List<File> done = new ArrayList<>();
+                for (File f : files) {
+                    if (f != null) {
+                        done.add(f);
+                    }
+                }
+                listener.finished(done, error);
+            }
+        }
+
+        public void cancel() {
+            synchronized (tasks) {
+                for (MailTaskExecutor.TaskHandle task : tasks) {
+                    task.cancel();
+                }
+            }
+        }
+
+        public boolean isDone() {
+            return remaining.getCount() == 0;
+        }
+
+        // Wait for every part; returns the saved files (throws the first failure)
+        public List<File> await() throws Exception {
+            remaining.await();
+            if (error != null) {
+                throw error;
+            }
+            List<File> done = new ArrayList<>();
+            Collections.addAll(done, files);
+            return done;
+        }
+
+        public long getBytesDone() {
+            return doneBytes.get();
+        }
+
+        public long getBytesTotal() {
+            return totalBytes;
+        }
+
+        public double getBytesPerSecond() {
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            return seconds <= 0 ? 0 : (doneBytes.get() - restoredBytes.get()) / seconds;
+        }
+    }
 }
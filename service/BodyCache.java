@@ -0,0 +1,266 @@
+package service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Two-tier message body cache: a memory tier bounded by bytes (not entries)
+ * in front of a gzip-compressed disk store. Bodies are keyed by account +
+ * folder + Message-ID, so they survive folder reloads and app restarts and
+ * two accounts' INBOXes never share an entry. The memory budget is shared.
+ */
+public class BodyCache {
+
+    private static final String CACHE_DIR = "body_cache";
+    private static final BodyCache INSTANCE = new BodyCache(DataDirectory.resolve(CACHE_DIR), 32L * 1024 * 1024);
+
+    // Rough per-entry overhead of the map node, key and String header
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    public enum EvictionPolicy {
+        LRU,   // evict least recently read
+        FIFO   // evict oldest inserted
+    }
+
+    private final File directory;
+    private long maxMemoryBytes;
+    private EvictionPolicy evictionPolicy = EvictionPolicy.LRU;
+    private LinkedHashMap<String, String> memory = newMemoryMap(EvictionPolicy.LRU);
+    private long memoryBytes;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong diskBytesWritten = new AtomicLong();
+    private final AtomicLong diskBytesRead = new AtomicLong();
+
+    public BodyCache(File directory, long maxMemoryBytes) {
+        this.directory = directory;
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    public static BodyCache getInstance() {
+        return INSTANCE;
+    }
+
+    // Memory tier only; cheap enough to call on the FX thread
+    public String getFromMemory(String accountId, String folderName, String messageId) {
+        String key = key(accountId, folderName, messageId);
+        synchronized (this) {
+            String body = memory.get(key);
+            if (body != null) {
+                memoryHits.incrementAndGet();
+            }
+            return body;
+        }
+    }
+
+    // Memory first, then disk (promoting the body to memory); null on a miss
+    public String get(String accountId, String folderName, String messageId) {
+        String body = getFromMemory(accountId, folderName, messageId);
+        if (body != null) {
+            return body;
+        }
+
+        String key = key(accountId, folderName, messageId);
+        File file = fileFor(key);
+        if (!file.exists()) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file), 8192)) {
+            body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            diskBytesRead.addAndGet(file.length());
+            diskHits.incrementAndGet();
+            putInMemory(key, body);
+            return body;
+        } catch (IOException e) {
+            System.err.println("Failed to read cached body " + file + ": " + e.getMessage());
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void put(String accountId, String folderName, String messageId, String body) {
+        if (folderName == null || messageId == null || body == null) {
+            return;
+        }
+        String key = key(accountId, folderName, messageId);
+        putInMemory(key, body);
+
+        File file = fileFor(key);
+        file.getParentFile().mkdirs();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp), 8192)) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.err.println("Failed to write cached body " + file + ": " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            diskBytesWritten.addAndGet(file.length());
+        } catch (IOException e) {
+            System.err.println("Failed to store cached body " + file + ": " + e.getMessage());
+            tmp.delete();
+        }
+    }
+
+    public void remove(String accountId, String folderName, String messageId) {
+        String key = key(accountId, folderName, messageId);
+        synchronized (this) {
+            String body = memory.remove(key);
+            if (body != null) {
+                memoryBytes -= sizeOf(key, body);
+            }
+        }
+        fileFor(key).delete();
+    }
+
+    public boolean contains(String accountId, String folderName, String messageId) {
+        String key = key(accountId, folderName, messageId);
+        synchronized (this) {
+            if (memory.containsKey(key)) {
+                return true;
+            }
+        }
+        return fileFor(key).exists();
+    }
+
+    public synchronized EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    public synchronized void setEvictionPolicy(EvictionPolicy policy) {
+        if (policy == evictionPolicy) {
+            return;
+        }
+        LinkedHashMap<String, String> reordered = newMemoryMap(policy);
+        reordered.putAll(memory);
+        memory = reordered;
+        evictionPolicy = policy;
+    }
+
+    public synchronized long getMaxMemoryBytes() {
+        return maxMemoryBytes;
+    }
+
+    public synchronized void setMaxMemoryBytes(long maxMemoryBytes) {
+        this.maxMemoryBytes = maxMemoryBytes;
+        evictToLimit();
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public synchronized int getMemoryEntries() {
+        return memory.size();
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getDiskBytesWritten() {
+        return diskBytesWritten.get();
+    }
+
+    public long getDiskBytesRead() {
+        return diskBytesRead.get();
+    }
+
+    // Share of lookups served without the network (either tier)
+    public double getHitRatio() {
+        long hits = memoryHits.get() + diskHits.get();
+        long total = hits + misses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private synchronized void putInMemory(String key, String body) {
+        long size = sizeOf(key, body);
+        if (size > maxMemoryBytes) {
+            return;  // Larger than the whole tier: disk only
+        }
+        String previous = memory.put(key, body);
+        if (previous != null) {
+            memoryBytes -= sizeOf(key, previous);
+        }
+        memoryBytes += size;
+        evictToLimit();
+    }
+
+    private void evictToLimit() {
+        Iterator<Map.Entry<String, String>> it = memory.entrySet().iterator();
+        while (memoryBytes > maxMemoryBytes && it.hasNext()) {
+            Map.Entry<String, String> eldest = it.next();
+            memoryBytes -= sizeOf(eldest.getKey(), eldest.getValue());
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static LinkedHashMap<String, String> newMemoryMap(EvictionPolicy policy) {
+        return new LinkedHashMap<>(256, 0.75f, policy == EvictionPolicy.LRU);
+    }
+
+    private static long sizeOf(String key, String body) {
+        return 2L * (key.length() + body.length()) + ENTRY_OVERHEAD_BYTES;
+    }
+
+    private static String key(String accountId, String folderName, String messageId) {
+        return accountId + "\n" + folderName + "\n" + messageId;
+    }
+
+    // Hash the key into a two-level layout so no directory gets huge
+    private File fileFor(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return new File(new File(directory, hex.substring(0, 2)), hex.substring(2) + ".gz");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BodyCache{" +
+                "policy=" + getEvictionPolicy() +
+                ", memoryBytes=" + getMemoryBytes() + "/" + getMaxMemoryBytes() +
+                ", hitRatio=" + String.format("%.2f", getHitRatio()) +
+                ", memoryHits=" + getMemoryHits() +
+                ", diskHits=" + getDiskHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                '}';
+    }
+}
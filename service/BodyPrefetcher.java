@@ -0,0 +1,164 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import model.EmailMessage;
+import model.HostConfiguration;
+
+/**
+ * Fetches the bodies of the next few messages in the reading direction into
+ * the BodyCache while the user reads the current one, as PREFETCH tasks so
+ * it never delays a click. Speculative bytes not yet read are capped by a
+ * budget, and large messages (attachments) are left for an explicit open.
+ */
+public class BodyPrefetcher {
+
+    public static final int LOOKAHEAD = 3;
+    private static final long BUDGET_BYTES = 2L * 1024 * 1024;
+    // Bigger than this is almost always attachments; fetching it speculatively wastes the budget
+    private static final long MAX_MESSAGE_BYTES = 256 * 1024;
+    // Assumed size of a message whose size is unknown (cached before sizes were stored)
+    private static final long UNKNOWN_SIZE_BYTES = 16 * 1024;
+
+    private final EmailService emailService;
+    private final BodyCache bodyCache;
+    private final MailTaskExecutor executor;
+
+    // Prefetched bodies nobody opened yet, with their size (the budget in use)
+    private final Map<String, Long> unread = new LinkedHashMap<>();
+    private long unreadBytes;
+    private int generation;
+
+    private final AtomicLong prefetched = new AtomicLong();
+    private final AtomicLong prefetchedBytes = new AtomicLong();
+    private final AtomicLong used = new AtomicLong();
+    private final AtomicLong wasted = new AtomicLong();
+    private final AtomicLong skippedLarge = new AtomicLong();
+    private final AtomicLong opens = new AtomicLong();
+
+    public BodyPrefetcher(EmailService emailService) {
+        this(emailService, emailService.getBodyCache(), MailTaskExecutor.getInstance());
+    }
+
+    public BodyPrefetcher(EmailService emailService, BodyCache bodyCache, MailTaskExecutor executor) {
+        this.emailService = emailService;
+        this.bodyCache = bodyCache;
+        this.executor = executor;
+    }
+
+    // The user opened `opened`; `upcoming` are the next messages in the direction they are moving
+    public void selectionChanged(EmailMessage opened, List<EmailMessage> upcoming, HostConfiguration config) {
+        List<EmailMessage> toFetch = new ArrayList<>();
+        int batch;
+        synchronized (this) {
+            batch = ++generation;
+            if (opened != null && opened.getMessageId() != null) {
+                opens.incrementAndGet();
+                Long size = unread.remove(key(opened));
+                if (size != null) {
+                    used.incrementAndGet();
+                    unreadBytes -= size;
+                }
+            }
+
+            // Prefetched messages outside the new window were not read in time: free their budget
+            Set<String> window = new HashSet<>();
+            for (EmailMessage email : upcoming) {
+                window.add(key(email));
+            }
+            unread.entrySet().removeIf(entry -> {
+                if (window.contains(entry.getKey())) {
+                    return false;
+                }
+                unreadBytes -= entry.getValue();
+                wasted.incrementAndGet();
+                return true;
+            });
+
+            for (EmailMessage email : upcoming) {
+                if (email.getMessageId() == null || email.getFolder() == null || unread.containsKey(key(email))) {
+                    continue;
+                }
+                if (email.getSize() > MAX_MESSAGE_BYTES) {
+                    skippedLarge.incrementAndGet();
+                    continue;
+                }
+                toFetch.add(email);
+            }
+        }
+        if (toFetch.isEmpty() || config == null) {
+            return;
+        }
+
+        executor.submit(config, TaskPriority.PREFETCH, "prefetch " + toFetch.size() + " bodies", () -> {
+            for (EmailMessage email : toFetch) {
+                long size = email.getSize() > 0 ? email.getSize() : UNKNOWN_SIZE_BYTES;
+                synchronized (this) {
+                    // Stop quietly once the selection moved on or the budget is spent
+                    if (batch != generation || unreadBytes + size > BUDGET_BYTES) {
+                        return;
+                    }
+                }
+                if (bodyCache.contains(config.getAccountId(), email.getFolder(), email.getMessageId())) {
+                    continue;
+                }
+                emailService.fetchEmailBody(email.getMessageId(), email.getFolder(), config);
+                prefetched.incrementAndGet();
+                prefetchedBytes.addAndGet(size);
+                synchronized (this) {
+                    if (unread.put(key(email), size) == null) {
+                        unreadBytes += size;
+                    }
+                }
+            }
+        });
+    }
+
+    // Share of prefetched bodies the user went on to open
+    public double getHitRate() {
+        long resolved = used.get() + wasted.get();
+        return resolved == 0 ? 0 : (double) used.get() / resolved;
+    }
+
+    // Share of opened messages whose body was already there thanks to prefetching
+    public double getCoverage() {
+        return opens.get() == 0 ? 0 : (double) used.get() / opens.get();
+    }
+
+    public long getPrefetched() {
+        return prefetched.get();
+    }
+
+    public long getPrefetchedBytes() {
+        return prefetchedBytes.get();
+    }
+
+    public long getSkippedLarge() {
+        return skippedLarge.get();
+    }
+
+    public synchronized long getUnreadBytes() {
+        return unreadBytes;
+    }
+
+    private static String key(EmailMessage email) {
+        return email.getFolder() + "\n" + email.getMessageId();
+    }
+
+    @Override
+    public String toString() {
+        return "BodyPrefetcher{" +
+                "prefetched=" + getPrefetched() +
+                ", bytes=" + getPrefetchedBytes() +
+                ", hitRate=" + String.format("%.2f", getHitRate()) +
+                ", coverage=" + String.format("%.2f", getCoverage()) +
+                ", skippedLarge=" + getSkippedLarge() +
+                ", unreadBytes=" + getUnreadBytes() +
+                '}';
+    }
+}
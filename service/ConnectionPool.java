@@ -0,0 +1,415 @@
+package service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.mail.*;
+import model.HostConfiguration;
+
+/**
+ * Pool of authenticated receive-side connections (Store + last open Folder),
+ * one pool per account (HostConfiguration.getAccountId()). Services borrow a
+ * Lease instead of running the full connect/login/open sequence for every
+ * call. New credentials for an account log out its old connections.
+ */
+public class ConnectionPool {
+
+    private static final ConnectionPool INSTANCE = new ConnectionPool();
+
+    // Max simultaneous connections per server (most providers allow ~10-15 per account)
+    public static final int MAX_CONNECTIONS_PER_SERVER = 4;
+    // Idle connections older than this are NOOP-checked before being handed out
+    private static final long HEALTH_CHECK_AFTER_MS = 30_000;
+    // Idle connections older than this are closed
+    private static final long IDLE_TIMEOUT_MS = 5 * 60_000;
+    private static final long BORROW_TIMEOUT_SECONDS = 60;
+
+    private final Map<String, ServerPool> pools = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong folderReuses = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong connectCount = new AtomicLong();
+    private final AtomicLong connectNanos = new AtomicLong();
+    private final MetricsRegistry metrics = MetricsRegistry.getInstance();
+
+    public static ConnectionPool getInstance() {
+        return INSTANCE;
+    }
+
+    // Borrow a connected Store for this account; always close() the lease when done.
+    // When connections run out, waiters are served by the priority of the calling task.
+    public Lease borrow(HostConfiguration config) throws Exception {
+        ServerPool pool = pools.computeIfAbsent(config.getAccountId(), key -> new ServerPool());
+        String credentials = credentialsOf(config);
+        pool.useCredentials(credentials);
+        TaskPriority priority = MailTaskExecutor.currentPriority();
+        if (!pool.permits.tryAcquire(priority, BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new MessagingException("Timed out waiting for a free connection to " + config.getReceiveHost());
+        }
+
+        try {
+            Lease lease = pool.takeIdle();
+            if (lease == null) {
+                misses.incrementAndGet();
+                lease = new Lease(pool, connect(config), credentials);
+            } else {
+                hits.incrementAndGet();
+            }
+            lease.priority = priority;
+            return lease;
+        } catch (Exception ex) {
+            pool.permits.release(priority);
+            throw ex;
+        }
+    }
+
+    // Run work on a pooled connection; a connection that dropped mid-call is replaced and retried once
+    public <T> T withLease(HostConfiguration config, LeaseWork<T> work) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            Lease lease = borrow(config);
+            try {
+                return work.run(lease);
+            } catch (FolderClosedException | StoreClosedException ex) {
+                lease.invalidate();
+                if (attempt > 0 || MailTaskExecutor.isCancelled()) {
+                    throw ex;
+                }
+                reconnects.incrementAndGet();
+            } finally {
+                // A cancelled task's socket was closed by the interrupt: never pool it again
+                if (MailTaskExecutor.isCancelled() || Thread.currentThread().isInterrupted()) {
+                    lease.invalidate();
+                }
+                lease.close();
+            }
+        }
+    }
+
+    // Open connections for this account ahead of use (e.g. at launch), side by side, and leave them idle
+    // in the pool so the first folder loads skip connect and login. Runs as background tasks.
+    public void prewarm(HostConfiguration config, int connections) {
+        CountDownLatch allConnected = new CountDownLatch(connections);
+        for (int i = 0; i < connections; i++) {
+            MailTaskExecutor.getInstance().submit(config, TaskPriority.BACKGROUND_SYNC, "connect", () -> {
+                Lease lease;
+                try {
+                    lease = borrow(config);
+                } finally {
+                    allConnected.countDown();
+                }
+                try {
+                    // Hold on until the others are connected too, or they would all reuse this one
+                    allConnected.await(BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } finally {
+                    lease.close();
+                }
+            });
+        }
+    }
+
+    // Close every pooled connection (called on application exit)
+    public void shutdown() {
+        for (ServerPool pool : pools.values()) {
+            pool.closeAllIdle();
+        }
+        pools.clear();
+    }
+
+    public Stats getStats() {
+        int idle = 0;
+        int inUse = 0;
+        for (ServerPool pool : pools.values()) {
+            synchronized (pool) {
+                idle += pool.idle.size();
+            }
+            inUse += pool.permits.getInUse();
+        }
+        return new Stats(hits.get(), misses.get(), folderReuses.get(), reconnects.get(),
+                connectCount.get(), connectNanos.get(), idle, inUse);
+    }
+
+    private Store connect(HostConfiguration config) throws MessagingException {
+        String protocol = config.getReceiveProtocol();
+        Properties props = new Properties();
+        props.put("mail.store.protocol", protocol);
+        props.put("mail." + protocol + ".host", config.getReceiveHost());
+        props.put("mail." + protocol + ".port", config.getReceivePort());
+        props.put("mail." + protocol + ".ssl.enable", "true");
+        // Pooled sockets must not hang forever on a dead peer
+        props.put("mail." + protocol + ".connectiontimeout", "15000");
+        props.put("mail." + protocol + ".timeout", "60000");
+
+        // connect() is TCP, TLS and LOGIN in one call, so they are timed together
+        long start = System.nanoTime();
+        Session session = Session.getInstance(props);
+        Store store = session.getStore(protocol);
+        try {
+            store.connect(config.getReceiveHost(), config.getUsername(), config.getPassword());
+        } catch (MessagingException ex) {
+            metrics.counter(protocol + ".connect.errors").increment();
+            throw ex;
+        }
+        long elapsed = System.nanoTime() - start;
+        connectNanos.addAndGet(elapsed);
+        connectCount.incrementAndGet();
+        metrics.histogram(protocol + ".connect").record(elapsed);
+        return store;
+    }
+
+    // Connections logged in with other credentials than these are never handed out again
+    private static String credentialsOf(HostConfiguration config) {
+        return String.valueOf(String.valueOf(config.getPassword()).hashCode());
+    }
+
+    private static void closeQuietly(Folder folder) {
+        try {
+            if (folder != null && folder.isOpen()) {
+                folder.close(false);
+            }
+        } catch (Exception ignored) {
+            // Connection is being discarded anyway
+        }
+    }
+
+    private static void closeQuietly(Store store) {
+        try {
+            store.close();
+        } catch (Exception ignored) {
+            // Connection is being discarded anyway
+        }
+    }
+
+    public interface LeaseWork<T> {
+        T run(Lease lease) throws Exception;
+    }
+
+    // Idle connections of one account, plus the permits capping its concurrency
+    private class ServerPool {
+        private final PriorityGate permits = new PriorityGate(MAX_CONNECTIONS_PER_SERVER, 1);
+        private final Deque<Lease> idle = new ArrayDeque<>();
+        private String credentials;  // guarded by this
+
+        // Changed credentials log out the idle connections; ones in use are closed when returned
+        private synchronized void useCredentials(String current) {
+            if (!current.equals(credentials)) {
+                credentials = current;
+                closeAllIdle();
+            }
+        }
+
+        private Lease takeIdle() {
+            long now = System.currentTimeMillis();
+            while (true) {
+                Lease lease;
+                synchronized (this) {
+                    evictExpired(now);
+                    lease = idle.pollFirst();
+                }
+                if (lease == null) {
+                    return null;
+                }
+                if (now - lease.lastUsed < HEALTH_CHECK_AFTER_MS || isHealthy(lease)) {
+                    lease.returned = false;
+                    return lease;
+                }
+                // Dead connection: drop it and try the next one (or reconnect)
+                reconnects.incrementAndGet();
+                lease.discard();
+            }
+        }
+
+        private void release(Lease lease) {
+            boolean reusable = !lease.broken && (lease.folder == null || lease.folder.isOpen());
+            synchronized (this) {
+                reusable = reusable && lease.credentials.equals(credentials);
+                if (reusable) {
+                    lease.lastUsed = System.currentTimeMillis();
+                    idle.addFirst(lease);
+                }
+            }
+            if (!reusable) {
+                lease.discard();
+            }
+            permits.release(lease.priority);
+        }
+
+        private boolean isHealthy(Lease lease) {
+            try {
+                // IMAPStore.isConnected() issues a NOOP; the folder check keeps its connection alive too
+                if (!lease.store.isConnected()) {
+                    return false;
+                }
+                if (lease.folder != null && lease.folder.isOpen()) {
+                    lease.folder.getMessageCount();
+                }
+                return true;
+            } catch (Exception ex) {
+                return false;
+            }
+        }
+
+        private void evictExpired(long now) {
+            Iterator<Lease> it = idle.iterator();
+            while (it.hasNext()) {
+                Lease lease = it.next();
+                if (now - lease.lastUsed > IDLE_TIMEOUT_MS) {
+                    it.remove();
+                    lease.discard();
+                }
+            }
+        }
+
+        private synchronized void closeAllIdle() {
+            for (Lease lease : idle) {
+                lease.discard();
+            }
+            idle.clear();
+        }
+    }
+
+    /**
+     * A borrowed connection. Keeps the last opened folder open so the next
+     * borrower of the same folder skips SELECT/EXAMINE.
+     */
+    public class Lease implements AutoCloseable {
+        private final ServerPool owner;
+        private final Store store;
+        private final String credentials;
+        private Folder folder;
+        private long lastUsed;
+        private boolean broken;
+        private boolean returned;
+        private TaskPriority priority = TaskPriority.FOLDER_OPEN;
+
+        private Lease(ServerPool owner, Store store, String credentials) {
+            this.owner = owner;
+            this.store = store;
+            this.credentials = credentials;
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        public Store getStore() {
+            return store;
+        }
+
+        // Open (or reuse) a folder on this connection; READ_WRITE also satisfies READ_ONLY
+        public Folder openFolder(String folderName, int mode) throws MessagingException {
+            if (folder != null && folder.isOpen() && folder.getFullName().equals(folderName)
+                    && (mode == Folder.READ_ONLY || folder.getMode() == Folder.READ_WRITE)) {
+                folderReuses.incrementAndGet();
+                return folder;
+            }
+
+            closeQuietly(folder);
+            folder = null;
+            Folder opened = store.getFolder(folderName);
+            MetricsRegistry.Timing timing = metrics.start("imap.select");
+            try {
+                opened.open(mode);
+            } finally {
+                timing.stop();
+            }
+            folder = opened;
+            return opened;
+        }
+
+        // Mark this connection as unusable so it is closed instead of pooled
+        public void invalidate() {
+            broken = true;
+        }
+
+        @Override
+        public void close() {
+            if (returned) {
+                return;
+            }
+            returned = true;
+            owner.release(this);
+        }
+
+        private void discard() {
+            closeQuietly(folder);
+            folder = null;
+            closeQuietly(store);
+        }
+    }
+
+    /**
+     * Snapshot of pool counters.
+     */
+    public static class Stats {
+        private final long hits;
+        private final long misses;
+        private final long folderReuses;
+        private final long reconnects;
+        private final long connectCount;
+        private final long connectNanos;
+        private final int idleConnections;
+        private final int activeConnections;
+
+        private Stats(long hits, long misses, long folderReuses, long reconnects,
+                      long connectCount, long connectNanos, int idleConnections, int activeConnections) {
+            this.hits = hits;
+            this.misses = misses;
+            this.folderReuses = folderReuses;
+            this.reconnects = reconnects;
+            this.connectCount = connectCount;
+            this.connectNanos = connectNanos;
+            this.idleConnections = idleConnections;
+            this.activeConnections = activeConnections;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getFolderReuses() {
+            return folderReuses;
+        }
+
+        public long getReconnects() {
+            return reconnects;
+        }
+
+        public long getConnectCount() {
+            return connectCount;
+        }
+
+        public double getAverageConnectMillis() {
+            return connectCount == 0 ? 0 : connectNanos / 1_000_000.0 / connectCount;
+        }
+
+        public int getIdleConnections() {
+            return idleConnections;
+        }
+
+        public int getActiveConnections() {
+            return activeConnections;
+        }
+
+        @Override
+        public String toString() {
+            return "ConnectionPool.Stats{" +
+                    "hits=" + hits +
+                    ", misses=" + misses +
+                    ", folderReuses=" + folderReuses +
+                    ", reconnects=" + reconnects +
+                    ", avgConnectMs=" + String.format("%.1f", getAverageConnectMillis()) +
+                    ", idle=" + idleConnections +
+                    ", active=" + activeConnections +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package service;
+
+import java.io.File;
+
+/**
+ * Root of the local stores (envelope cache, body cache, search and
+ * Message-ID indexes): the working directory, or the directory named by the
+ * emailclient.dataDir system property. Benchmarks point it at a scratch
+ * directory so they never write into a real profile.
+ */
+public final class DataDirectory {
+
+    public static final String PROPERTY = "emailclient.dataDir";
+
+    private DataDirectory() {
+    }
+
+    // Directory of one store; read when the store is created, so set the property before first use
+    public static File resolve(String name) {
+        String root = System.getProperty(PROPERTY);
+        return root != null ? new File(root, name) : new File(name);
+    }
+}
@@ -1,53 +1,195 @@
 package service;
 
 import model.EmailMessage;
+import model.FolderSyncState;
+import model.HostConfiguration;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class EmailCacheService {
 
     private static final String CACHE_DIR = "email_cache";
+    private static final String LAST_FOLDER_FILE = "last-folder";
+
+    private final Map<String, SegmentStore> stores = new ConcurrentHashMap<>();
+    private final File cacheDir;
+    private final MetricsRegistry metrics = MetricsRegistry.getInstance();
 
     public EmailCacheService() {
-        File cacheDir = new File(CACHE_DIR);
+        this(DataDirectory.resolve(CACHE_DIR));
+    }
+
+    // Separate cache per account: folder names repeat across accounts (INBOX, Sent, ...)
+    public EmailCacheService(HostConfiguration account) {
+        this(getAccountDirectory(account));
+    }
+
+    // Where everything cached for this account lives
+    public static File getAccountDirectory(HostConfiguration account) {
+        return new File(DataDirectory.resolve(CACHE_DIR), sanitize(account.getAccountId()));
+    }
+
+    // Cache rooted somewhere else, e.g. a scratch directory for benchmarks
+    public EmailCacheService(File cacheDir) {
+        this.cacheDir = cacheDir;
         if (!cacheDir.exists()) {
             cacheDir.mkdirs();
         }
     }
 
-    public void saveEmails(String folderName, List<EmailMessage> emails) {
-        // Sanitize folder name for file system
-        String filename = getCacheFileName(folderName);
-        File cacheFile = new File(CACHE_DIR, filename);
+    // Root of this cache (one account's folders)
+    public File getDirectory() {
+        return cacheDir;
+    }
 
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(cacheFile))) {
-            oos.writeObject(emails);
+    public void saveEmails(String folderName, List<EmailMessage> emails) {
+        MetricsRegistry.Timing timing = metrics.start("cache.write");
+        try {
+            getStore(folderName).replaceAll(emails);
         } catch (IOException e) {
+            metrics.counter("cache.write.errors").increment();
             System.err.println("Failed to save cache for folder " + folderName + ": " + e.getMessage());
+        } finally {
+            timing.stop();
         }
     }
 
-    @SuppressWarnings("unchecked")
     public List<EmailMessage> loadEmails(String folderName) {
-        String filename = getCacheFileName(folderName);
-        File cacheFile = new File(CACHE_DIR, filename);
-
-        if (!cacheFile.exists()) {
+        MetricsRegistry.Timing timing = metrics.start("cache.read");
+        try {
+            return getStore(folderName).loadAll();
+        } catch (IOException e) {
+            metrics.counter("cache.read.errors").increment();
+            System.err.println("Failed to load cache for folder " + folderName + ": " + e.getMessage());
             return new ArrayList<>();
+        } finally {
+            timing.stop();
         }
+    }
 
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(cacheFile))) {
-            return (List<EmailMessage>) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
+    // Cached envelopes from the newest (highest UID) down, read from disk only as far as they are taken
+    public Iterator<EmailMessage> iterateNewestFirst(String folderName) {
+        try {
+            return getStore(folderName).iterateNewestFirst();
+        } catch (IOException e) {
+            metrics.counter("cache.read.errors").increment();
             System.err.println("Failed to load cache for folder " + folderName + ": " + e.getMessage());
-            return new ArrayList<>();
+            return Collections.emptyIterator();
+        }
+    }
+
+    // Append a sync delta (new/changed messages keyed by UID, expunged UIDs) to the cached folder
+    public void applyDelta(String folderName, Collection<EmailMessage> changed, Set<Long> removedUids) {
+        MetricsRegistry.Timing timing = metrics.start("cache.write");
+        try {
+            getStore(folderName).append(changed, removedUids);
+        } catch (IOException e) {
+            metrics.counter("cache.write.errors").increment();
+            System.err.println("Failed to update cache for folder " + folderName + ": " + e.getMessage());
+        } finally {
+            timing.stop();
+        }
+    }
+
+    public void saveSyncState(String folderName, FolderSyncState state) {
+        File stateFile = new File(getFolderDir(folderName), "sync.state");
+        stateFile.getParentFile().mkdirs();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(stateFile)))) {
+            out.writeLong(state.getUidValidity());
+            out.writeLong(state.getHighestUid());
+            out.writeInt(state.getMessageCount());
+            out.writeLong(state.getLastSyncTime());
+        } catch (IOException e) {
+            System.err.println("Failed to save sync state for folder " + folderName + ": " + e.getMessage());
         }
     }
 
-    private String getCacheFileName(String folderName) {
+    // Returns null when the folder has never been synced (or the state is unreadable)
+    public FolderSyncState loadSyncState(String folderName) {
+        File stateFile = new File(getFolderDir(folderName), "sync.state");
+        if (!stateFile.exists()) {
+            return null;
+        }
+        // Envelopes the state claims are cached but that cannot be read back must be fetched again
+        if (!getStore(folderName).isConsistent()) {
+            System.err.println("Cache of folder " + folderName + " is inconsistent, resyncing it");
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)))) {
+            FolderSyncState state = new FolderSyncState(in.readLong(), in.readLong());
+            state.setMessageCount(in.readInt());
+            state.setLastSyncTime(in.readLong());
+            return state;
+        } catch (IOException e) {
+            System.err.println("Failed to load sync state for folder " + folderName + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Remember the folder the user has open, so the next launch can show it straight from the cache
+    public void saveLastOpenFolder(String folderName) {
+        File file = new File(cacheDir, LAST_FOLDER_FILE);
+        File tmp = new File(cacheDir, LAST_FOLDER_FILE + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+                out.writeUTF(folderName);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Failed to save last open folder: " + e.getMessage());
+        }
+    }
+
+    // Null when no folder was opened yet
+    public String loadLastOpenFolder() {
+        File file = new File(cacheDir, LAST_FOLDER_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readUTF();
+        } catch (IOException e) {
+            System.err.println("Failed to load last open folder: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private SegmentStore getStore(String folderName) {
+        return stores.computeIfAbsent(folderName, name -> {
+            deleteLegacyFiles(name);
+            return new SegmentStore(getFolderDir(name));
+        });
+    }
+
+    private File getFolderDir(String folderName) {
+        return new File(cacheDir, getCacheDirName(folderName));
+    }
+
+    // Snapshots from the old ObjectOutputStream format are dropped; the next sync rebuilds them
+    private void deleteLegacyFiles(String folderName) {
+        String base = getCacheDirName(folderName);
+        new File(cacheDir, base + ".dat").delete();
+        new File(cacheDir, base + ".state").delete();
+    }
+
+    private String getCacheDirName(String folderName) {
+        return sanitize(folderName);
+    }
+
+    private static String sanitize(String name) {
         // Replace potentially invalid characters
-        return folderName.replaceAll("[^a-zA-Z0-9.-]", "_") + ".dat";
+        return name.replaceAll("[^a-zA-Z0-9.-]", "_");
     }
 }
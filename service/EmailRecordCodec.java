@@ -0,0 +1,99 @@
+package service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import model.EmailMessage;
+
+/**
+ * Compact, versioned binary encoding of an EmailMessage envelope.
+ * Unlike Java serialization it does not break when the model class changes:
+ * new fields get a new format version and old records stay readable.
+ * Bodies and local attachment files are not part of the envelope record.
+ */
+public class EmailRecordCodec {
+
+    private static final byte FORMAT_VERSION = 2;  // 2: adds message size
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    public byte[] encode(EmailMessage email) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeByte(FORMAT_VERSION);
+        out.writeLong(email.getUid());
+        out.writeBoolean(email.isRead());
+        if (email.getSentDate() != null) {
+            out.writeLong(email.getSentDate().toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(email.getSentDate().getNano());
+        } else {
+            out.writeLong(NO_DATE);
+            out.writeInt(0);
+        }
+        writeString(out, email.getFrom());
+        writeString(out, email.getSubject());
+        writeString(out, email.getFolder());
+        writeString(out, email.getMessageId());
+        out.writeShort(email.getTo().size());
+        for (String recipient : email.getTo()) {
+            writeString(out, recipient);
+        }
+        out.writeLong(email.getSize());
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    // Decode straight from a (memory-mapped) buffer positioned at the record payload
+    public EmailMessage decode(ByteBuffer buffer) throws IOException {
+        byte version = buffer.get();
+        if (version < 1 || version > FORMAT_VERSION) {
+            throw new IOException("Unsupported record version " + version);
+        }
+
+        EmailMessage email = new EmailMessage();
+        email.setUid(buffer.getLong());
+        email.setRead(buffer.get() != 0);
+        long epochSecond = buffer.getLong();
+        int nano = buffer.getInt();
+        if (epochSecond != NO_DATE) {
+            email.setSentDate(LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC));
+        }
+        email.setFrom(readString(buffer));
+        email.setSubject(readString(buffer));
+        email.setFolder(readString(buffer));
+        email.setMessageId(readString(buffer));
+        int recipients = buffer.getShort() & 0xFFFF;
+        for (int i = 0; i < recipients; i++) {
+            email.addTo(readString(buffer));
+        }
+        if (version >= 2) {
+            email.setSize(buffer.getLong());
+        }
+        return email;
+    }
+
+    private void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] utf8 = new byte[length];
+        buffer.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
@@ -1,24 +1,67 @@
 package service;
 
+import com.sun.mail.iap.Response;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.IMAPStore;
+import com.sun.mail.imap.protocol.BODY;
+import com.sun.mail.imap.protocol.UIDSet;
 import java.io.File;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
 import javax.mail.*;
 import javax.mail.internet.*;
+import javax.mail.search.HeaderTerm;
+import javax.mail.search.OrTerm;
+import javax.mail.search.SearchTerm;
+import model.AttachmentInfo;
 import model.EmailMessage;
+import model.FolderSyncState;
 import model.HostConfiguration;
 
 public class EmailService {
 
     private HostConfiguration hostConfig;
     private AttachmentHandler attachmentHandler;
+    private final ConnectionPool connectionPool;
+    private final SmtpTransportPool smtpPool;
+    private final EnvelopeLoader envelopeLoader;
+    private final SearchIndex searchIndex;
+    private final BodyCache bodyCache;
+    private final MessageIdIndex messageIdIndex;
+    private final MetricsRegistry metrics;
+    // Attachment lists of recently opened messages (folder + Message-ID), for the reading pane
+    private final Map<String, List<AttachmentInfo>> knownAttachments = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<AttachmentInfo>> eldest) {
+            return size() > 512;
+        }
+    };
 
     public EmailService() {
-        this.attachmentHandler = new AttachmentHandler();
+        this(ConnectionPool.getInstance());
+    }
+
+    public EmailService(ConnectionPool connectionPool) {
+        this.attachmentHandler = new AttachmentHandler(connectionPool);
+        this.connectionPool = connectionPool;
+        this.smtpPool = SmtpTransportPool.getInstance();
+        this.envelopeLoader = new EnvelopeLoader();
+        this.searchIndex = SearchIndex.getInstance();
+        this.bodyCache = BodyCache.getInstance();
+        this.messageIdIndex = MessageIdIndex.getInstance();
+        this.metrics = MetricsRegistry.getInstance();
     }
 
     public void setHostConfiguration(HostConfiguration hostConfig) {
@@ -29,23 +72,74 @@ public class EmailService {
         return hostConfig;
     }
 
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    public BodyCache getBodyCache() {
+        return bodyCache;
+    }
+
     public void sendEmail(EmailMessage message, HostConfiguration config) throws Exception {
-        // Configure SMTP properties
-        Properties props = new Properties();
-        props.put("mail.smtp.host", config.getSendHost());
-        props.put("mail.smtp.port", config.getSendPort());
-        props.put("mail.smtp.auth", "true");
-        props.put("mail.smtp.ssl.enable", "true");
-
-        // Create authenticated session
-        Session session = Session.getInstance(props, new Authenticator() {
-            @Override
-            protected PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(config.getUsername(), config.getPassword());
+        metrics.time("op.sendEmail", () -> {
+            try (SmtpTransportPool.Lease lease = smtpPool.borrow(config)) {
+                lease.send(buildMimeMessage(message, lease.getSession()));
             }
+            return null;
         });
+    }
+
+    // Send many messages over pooled SMTP connections; one failed message never stops the rest
+    public List<SendResult> sendBatch(List<EmailMessage> messages, HostConfiguration config) {
+        List<SendResult> results = new ArrayList<>();
+        SmtpTransportPool.Lease lease = null;
+        try {
+            for (EmailMessage message : messages) {
+                Exception error = null;
+                // A connection that dropped mid-batch is replaced and the message tried once more
+                for (int attempt = 0; attempt < 2; attempt++) {
+                    try {
+                        if (lease != null && lease.isExhausted()) {
+                            lease.close();
+                            lease = null;
+                        }
+                        if (lease == null) {
+                            lease = smtpPool.borrow(config);
+                        }
+                        lease.send(buildMimeMessage(message, lease.getSession()));
+                        error = null;
+                        break;
+                    } catch (Exception ex) {
+                        error = ex;
+                        if (lease == null || !lease.isBroken()) {
+                            break;  // bad message or address: retrying would fail the same way
+                        }
+                        lease.close();
+                        lease = null;
+                    }
+                }
+                results.add(new SendResult(message, error));
+            }
+        } finally {
+            if (lease != null) {
+                lease.close();
+            }
+        }
+        return results;
+    }
+
+    // Complete MIME message (attachments embedded, Message-ID assigned), e.g. for the outbox spool
+    public MimeMessage createMimeMessage(EmailMessage message, HostConfiguration config) throws Exception {
+        MimeMessage mimeMessage = buildMimeMessage(message, smtpPool.getSession(config));
+        mimeMessage.saveChanges();
+        return mimeMessage;
+    }
 
-        // Build MIME message
+    private MimeMessage buildMimeMessage(EmailMessage message, Session session) throws Exception {
         MimeMessage mimeMessage = new MimeMessage(session);
         mimeMessage.setFrom(new InternetAddress(message.getFrom()));
 
@@ -74,77 +168,67 @@ public class EmailService {
         } else {
             mimeMessage.setText(message.getBody());
         }
-
-        Transport.send(mimeMessage);
+        return mimeMessage;
     }
 
     public List<EmailMessage> receiveEmails(String folderName, HostConfiguration config) throws Exception {
-        // Configure mail store properties
-        Properties props = new Properties();
-        props.put("mail.store.protocol", config.getReceiveProtocol());
-        props.put("mail." + config.getReceiveProtocol() + ".host", config.getReceiveHost());
-        props.put("mail." + config.getReceiveProtocol() + ".port", config.getReceivePort());
-        props.put("mail." + config.getReceiveProtocol() + ".ssl.enable", "true");
-
-        // Connect to mail store
-        Session session = Session.getInstance(props);
-        Store store = session.getStore(config.getReceiveProtocol());
-        store.connect(config.getReceiveHost(), config.getUsername(), config.getPassword());
-
-        // Open folder and fetch messages
-        Folder folder = store.getFolder(folderName);
-        folder.open(Folder.READ_ONLY);
-
-        // Fetch only last 20 messages for performance
-        int messageCount = folder.getMessageCount();
-        Message[] messages;
-        if (messageCount > 20) {
-            messages = folder.getMessages(messageCount - 19, messageCount);
-        } else {
-            messages = folder.getMessages();
-        }
-
-        List<EmailMessage> emailList = new ArrayList<>();
-
-        // Convert JavaMail messages to EmailMessage objects
-        for (Message msg : messages) {
-            if (msg.isSet(Flags.Flag.DELETED)) {
-                continue;
-            }
-            EmailMessage email = new EmailMessage();
-
-            Address[] fromAddresses = msg.getFrom();
-            if (fromAddresses != null && fromAddresses.length > 0) {
-                email.setFrom(fromAddresses[0].toString());
+        // Borrow a pooled connection; the folder stays open for the next call
+        return metrics.time("op.receiveEmails", () -> connectionPool.withLease(config, lease -> {
+            Folder folder = lease.openFolder(folderName, Folder.READ_ONLY);
+
+            // Fetch only last 20 messages for performance
+            int messageCount = folder.getMessageCount();
+            Message[] messages;
+            if (messageCount > 20) {
+                messages = folder.getMessages(messageCount - 19, messageCount);
+            } else {
+                messages = folder.getMessages();
             }
 
-            email.setSubject(msg.getSubject());
-            
-            Date sentDate = msg.getSentDate();
-            if (sentDate != null) {
-                email.setSentDate(LocalDateTime.ofInstant(sentDate.toInstant(), ZoneId.systemDefault()));
-            }
+            // One bulk envelope FETCH for the whole range instead of per-message round trips
+            List<EmailMessage> emailList = envelopeLoader.load(config.getAccountId(), folder, messages);
+            searchIndex.addEnvelopes(config.getAccountId(), emailList);
+            return emailList;
+        }));
+    }
 
-            email.setRead(msg.isSet(Flags.Flag.SEEN));
-            email.setFolder(folderName);
+    public int getMessageCount(String folderName, HostConfiguration config) throws Exception {
+        return connectionPool.withLease(config, lease -> lease.openFolder(folderName, Folder.READ_ONLY).getMessageCount());
+    }
 
-            // Store message ID for deletion
-            String[] messageIdHeaders = msg.getHeader("Message-ID");
-            if (messageIdHeaders != null && messageIdHeaders.length > 0) {
-                email.setMessageId(messageIdHeaders[0]);
+    // Envelopes for sequence numbers firstSeq..lastSeq, aligned by position (for windowed browsing)
+    public EmailMessage[] receiveWindow(String folderName, int firstSeq, int lastSeq, HostConfiguration config) throws Exception {
+        return metrics.time("op.receiveWindow", () -> connectionPool.withLease(config, lease -> {
+            Folder folder = lease.openFolder(folderName, Folder.READ_ONLY);
+            int last = Math.min(lastSeq, folder.getMessageCount());
+            if (last < firstSeq) {
+                return new EmailMessage[lastSeq - firstSeq + 1];
             }
+            EmailMessage[] window = Arrays.copyOf(
+                    envelopeLoader.loadAligned(config.getAccountId(), folder, folder.getMessages(firstSeq, last)),
+                    lastSeq - firstSeq + 1);
+            List<EmailMessage> loaded = new ArrayList<>();
+            for (EmailMessage email : window) {
+                if (email != null) {
+                    loaded.add(email);
+                }
+            }
+            searchIndex.addEnvelopes(config.getAccountId(), loaded);
+            return window;
+        }));
+    }
 
-            emailList.add(email);
+    // Extract text content from message (handles plain and multipart)
+    public String getTextFromMessage(Message message) throws Exception {
+        MetricsRegistry.Timing timing = metrics.start("mime.parse");
+        try {
+            return extractText(message);
+        } finally {
+            timing.stop();
         }
-
-        folder.close(false);
-        store.close();
-
-        return emailList;
     }
 
-    // Extract text content from message (handles plain and multipart)
-    private String getTextFromMessage(Message message) throws Exception {
+    private String extractText(Message message) throws Exception {
         String result = "";
         if (message.isMimeType("text/plain")) {
             result = message.getContent().toString();
@@ -165,80 +249,533 @@ public class EmailService {
                 result.append(bodyPart.getContent());
             } else if (bodyPart.isMimeType("text/html")) {
                 result.append(bodyPart.getContent());
-            } else if (bodyPart.getContent() instanceof MimeMultipart) {
+            } else if (bodyPart.isMimeType("multipart/*")) {
+                // Checked by type: getContent() here would download and decode attachments too
                 result.append(getTextFromMimeMultipart((MimeMultipart) bodyPart.getContent()));
             }
         }
         return result.toString();
     }
 
+    // On IMAP only the BODYSTRUCTURE and the chosen text sections are downloaded, so attachments
+    // cost nothing until they are saved; their metadata is kept for getKnownAttachments()
     public String fetchEmailBody(String messageId, String folderName, HostConfiguration config) throws Exception {
-        // Configure mail store properties
-        Properties props = new Properties();
-        props.put("mail.store.protocol", config.getReceiveProtocol());
-        props.put("mail." + config.getReceiveProtocol() + ".host", config.getReceiveHost());
-        props.put("mail." + config.getReceiveProtocol() + ".port", config.getReceivePort());
-        props.put("mail." + config.getReceiveProtocol() + ".ssl.enable", "true");
+        // Bodies we have already read come from memory or disk, never the server
+        String cached = bodyCache.get(config.getAccountId(), folderName, messageId);
+        if (cached != null) {
+            return cached;
+        }
+
+        return metrics.time("op.fetchEmailBody", () -> connectionPool.withLease(config, lease -> {
+            Folder folder = lease.openFolder(folderName, Folder.READ_ONLY);
+            Message message = findMessage(config.getAccountId(), folder, folderName, messageId);
+            if (message == null) {
+                return "Error: Could not find email content.";
+            }
+
+            String body;
+            if (folder instanceof IMAPFolder) {
+                IMAPFolder imapFolder = (IMAPFolder) folder;
+                MessageStructure structure = MessageStructure.fetch(imapFolder, message);
+                rememberAttachments(folderName, messageId, structure.getAttachments());
+                body = fetchText(imapFolder, message, structure);
+            } else {
+                body = getTextFromMessage(message);
+            }
+            bodyCache.put(config.getAccountId(), folderName, messageId, body);
+            searchIndex.addBody(config.getAccountId(), folderName, messageId, body);
+            return body;
+        }));
+    }
+
+    public interface BodyConsumer {
+        // Called on the fetching thread with consecutive pieces of the body text
+        void append(String text);
+    }
+
+    // Stream the next page of the body text (at most maxChars) in pieces as they are decoded, from where
+    // the checkpoint left off; a new checkpoint starts at the beginning. Returns true if the body goes
+    // on past what was delivered. Only a body read completely in one go is cached.
+    public boolean streamEmailBody(String messageId, String folderName, HostConfiguration config,
+                                   BodyCheckpoint checkpoint, int maxChars, BodyConsumer consumer)
+            throws Exception {
+        String cached = bodyCache.get(config.getAccountId(), folderName, messageId);
+        if (cached != null) {
+            return emitSlice(cached, checkpoint, maxChars, consumer);
+        }
+
+        return metrics.time("op.streamEmailBody", () -> connectionPool.withLease(config, lease -> {
+            Folder folder = lease.openFolder(folderName, Folder.READ_ONLY);
+            Message message = findMessage(config.getAccountId(), folder, folderName, messageId);
+            if (message == null) {
+                consumer.append("Error: Could not find email content.");
+                return false;
+            }
+            if (!(folder instanceof IMAPFolder)) {
+                String body = getTextFromMessage(message);
+                bodyCache.put(config.getAccountId(), folderName, messageId, body);
+                searchIndex.addBody(config.getAccountId(), folderName, messageId, body);
+                return emitSlice(body, checkpoint, maxChars, consumer);
+            }
+
+            IMAPFolder imapFolder = (IMAPFolder) folder;
+            MessageStructure structure = MessageStructure.fetch(imapFolder, message);
+            rememberAttachments(folderName, messageId, structure.getAttachments());
+            boolean whole = checkpoint.delivered == 0;
+            BodyStreamer streamer = new BodyStreamer(checkpoint, maxChars, consumer);
+            boolean more = streamer.stream(imapFolder, message.getMessageNumber(), structure);
+            if (!more && whole) {
+                String body = streamer.getText();
+                bodyCache.put(config.getAccountId(), folderName, messageId, body);
+                searchIndex.addBody(config.getAccountId(), folderName, messageId, body);
+            }
+            return more;
+        }));
+    }
+
+    private static boolean emitSlice(String body, BodyCheckpoint checkpoint, int maxChars, BodyConsumer consumer) {
+        int start = (int) Math.min(checkpoint.delivered, body.length());
+        int end = (int) Math.min((long) start + maxChars, body.length());
+        for (int i = start; i < end; i += BodyStreamer.PIECE_CHARS) {
+            consumer.append(body.substring(i, Math.min(end, i + BodyStreamer.PIECE_CHARS)));
+        }
+        // Positions in the encoded sections are unknown now; a later page is cut from the text again
+        checkpoint.restartAt(end);
+        return end < body.length();
+    }
+
+    /**
+     * Where a paged body stopped: the text section and encoded offset reached,
+     * the transfer decoder state, the bytes of a character split across reads
+     * and text decoded past the page end. "Load more" hands it back so the
+     * body is resumed there instead of fetched and decoded again from the start.
+     */
+    public static class BodyCheckpoint {
+        private long delivered;      // characters handed to the consumer so far
+        private long skip;           // characters to drop before delivering (restarted from the start)
+        private int part;            // index of the text section being read
+        private long rawOffset;      // encoded bytes of that section consumed
+        private long decoderState;
+        private byte[] undecoded = new byte[0];
+        private String overflow = "";
+
+        public long getDelivered() {
+            return delivered;
+        }
+
+        private void restartAt(long chars) {
+            delivered = chars;
+            skip = chars;
+            part = 0;
+            rawOffset = 0;
+            decoderState = 0;
+            undecoded = new byte[0];
+            overflow = "";
+        }
+    }
+
+    /**
+     * Decodes the text sections one after another (transfer encoding, then
+     * charset) from a checkpoint and hands the next page to a consumer,
+     * updating the checkpoint as it goes.
+     */
+    private static class BodyStreamer {
+        private static final int PIECE_CHARS = 8 * 1024;
+
+        private final BodyCheckpoint checkpoint;
+        private final BodyConsumer consumer;
+        private final StringBuilder text = new StringBuilder();
+        private long room;  // characters still wanted on this page
+
+        BodyStreamer(BodyCheckpoint checkpoint, int maxChars, BodyConsumer consumer) {
+            this.checkpoint = checkpoint;
+            this.room = maxChars;
+            this.consumer = consumer;
+        }
+
+        boolean stream(IMAPFolder folder, int messageNumber, MessageStructure structure)
+                throws IOException, MessagingException {
+            String overflow = checkpoint.overflow;
+            checkpoint.overflow = "";
+            if (emit(overflow)) {
+                return true;
+            }
+            List<MessageStructure.TextPart> parts = structure.getTextParts();
+            byte[] raw = new byte[PIECE_CHARS];
+            ByteBuffer bytes = ByteBuffer.allocate(raw.length + 64);
+            while (checkpoint.part < parts.size()) {
+                MessageStructure.TextPart part = parts.get(checkpoint.part);
+                TransferDecoder decoder = transferDecoder(part.getEncoding(), checkpoint.decoderState);
+                CharsetDecoder charset = charsetOf(part).newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                CharBuffer chars = CharBuffer.allocate((int) (bytes.capacity() * charset.maxCharsPerByte()) + 16);
+                InputStream in = new SectionInputStream(folder, messageNumber, part.getSection(),
+                        checkpoint.rawOffset);
+                int n;
+                while ((n = in.read(raw)) != -1) {
+                    bytes.clear();
+                    bytes.put(checkpoint.undecoded);
+                    decoder.decode(raw, 0, n, bytes, null);
+                    bytes.flip();
+                    chars.clear();
+                    charset.decode(bytes, chars, false);
+                    chars.flip();
+                    checkpoint.rawOffset += n;
+                    checkpoint.decoderState = decoder.getState();
+                    checkpoint.undecoded = new byte[bytes.remaining()];
+                    bytes.get(checkpoint.undecoded);
+                    if (emit(chars.toString())) {
+                        return true;
+                    }
+                }
+
+                // End of the section: a character cut off at its end becomes a replacement character
+                bytes.clear();
+                bytes.put(checkpoint.undecoded);
+                bytes.flip();
+                chars.clear();
+                charset.decode(bytes, chars, true);
+                charset.flush(chars);
+                chars.flip();
+                checkpoint.part++;
+                checkpoint.rawOffset = 0;
+                checkpoint.decoderState = 0;
+                checkpoint.undecoded = new byte[0];
+                String tail = checkpoint.part < parts.size() ? chars + "\n" : chars.toString();
+                if (emit(tail)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Returns true once the page is full and more text follows (kept in the checkpoint)
+        private boolean emit(String piece) {
+            if (checkpoint.skip > 0) {
+                int skipped = (int) Math.min(checkpoint.skip, piece.length());
+                checkpoint.skip -= skipped;
+                piece = piece.substring(skipped);
+            }
+            int taken = (int) Math.min(room, piece.length());
+            if (taken > 0) {
+                String page = piece.substring(0, taken);
+                consumer.append(page);
+                text.append(page);
+                room -= taken;
+                checkpoint.delivered += taken;
+            }
+            if (taken < piece.length()) {
+                checkpoint.overflow = piece.substring(taken);
+                return true;
+            }
+            return false;
+        }
+
+        String getText() {
+            return text.toString();
+        }
+
+        private static TransferDecoder transferDecoder(String encoding, long state) {
+            try {
+                return TransferDecoder.forEncoding(encoding != null ? encoding.toLowerCase() : null, state);
+            } catch (MessagingException e) {
+                return TransferDecoder.identity();  // unknown encoding: show it as it is
+            }
+        }
+    }
+
+    // Download and decode only the displayable text sections
+    private String fetchText(IMAPFolder folder, Message message, MessageStructure structure) throws Exception {
+        int messageNumber = message.getMessageNumber();
+        StringBuilder text = new StringBuilder();
+        for (MessageStructure.TextPart part : structure.getTextParts()) {
+            BODY body;
+            MetricsRegistry.Timing timing = metrics.start("imap.fetch.body");
+            try {
+                body = (BODY) folder.doCommand(protocol -> protocol.peekBody(messageNumber, part.getSection()));
+            } finally {
+                timing.stop();
+            }
+            if (body == null) {
+                continue;
+            }
+            byte[] decoded;
+            try (InputStream in = MimeUtility.decode(body.getByteArrayInputStream(), part.getEncoding())) {
+                decoded = in.readAllBytes();
+            }
+            if (text.length() > 0) {
+                text.append("\n");
+            }
+            text.append(new String(decoded, charsetOf(part)));
+        }
+        return text.toString();
+    }
+
+    private static Charset charsetOf(MessageStructure.TextPart part) {
+        if (part.getCharset() == null) {
+            return StandardCharsets.UTF_8;  // us-ascii by the RFC, but undeclared 8-bit text is usually UTF-8
+        }
+        try {
+            return Charset.forName(MimeUtility.javaCharset(part.getCharset()));
+        } catch (IllegalArgumentException e) {
+            return StandardCharsets.ISO_8859_1;  // unknown charset: keep every byte visible
+        }
+    }
 
-        // Connect to mail store
-        Session session = Session.getInstance(props);
-        Store store = session.getStore(config.getReceiveProtocol());
-        store.connect(config.getReceiveHost(), config.getUsername(), config.getPassword());
+    // Attachment metadata seen for this message since startup, or null if not known yet
+    public List<AttachmentInfo> getKnownAttachments(String folderName, String messageId) {
+        synchronized (knownAttachments) {
+            return knownAttachments.get(folderName + "\n" + messageId);
+        }
+    }
 
-        // Open folder
-        Folder folder = store.getFolder(folderName);
-        folder.open(Folder.READ_ONLY);
+    private void rememberAttachments(String folderName, String messageId, List<AttachmentInfo> attachments) {
+        synchronized (knownAttachments) {
+            knownAttachments.put(folderName + "\n" + messageId, attachments);
+        }
+    }
 
-        // Efficiently search for the message by ID
-        javax.mail.search.SearchTerm searchTerm = new javax.mail.search.HeaderTerm("Message-ID", messageId);
-        Message[] foundMessages = folder.search(searchTerm);
+    // Attachments of a message, read from its BODYSTRUCTURE without downloading any content
+    public List<AttachmentInfo> listAttachments(String messageId, String folderName, HostConfiguration config)
+            throws Exception {
+        // A message never changes on the server, so metadata seen once stays valid
+        List<AttachmentInfo> known = getKnownAttachments(folderName, messageId);
+        if (known != null) {
+            return known;
+        }
+        return metrics.time("op.listAttachments", () -> connectionPool.withLease(config, lease -> {
+            Folder folder = lease.openFolder(folderName, Folder.READ_ONLY);
+            if (!(folder instanceof IMAPFolder)) {
+                throw new MessagingException("Attachment downloads need IMAP");
+            }
+            Message message = findMessage(config.getAccountId(), folder, folderName, messageId);
+            if (message == null) {
+                throw new MessagingException("Message not found on the server");
+            }
+            List<AttachmentInfo> attachments = attachmentHandler.listAttachments((IMAPFolder) folder, message);
+            rememberAttachments(folderName, messageId, attachments);
+            return attachments;
+        }));
+    }
+
+    // Save attachments into a directory in the background; progress and completion go to the listener
+    public AttachmentHandler.Download downloadAttachments(List<AttachmentInfo> attachments, File directory,
+                                                          HostConfiguration config,
+                                                          AttachmentHandler.DownloadListener listener) {
+        return attachmentHandler.download(attachments, directory, config, listener);
+    }
+
+    // Message-ID -> UID through the local index; a server SEARCH only when the index misses or is stale.
+    // A hit is only used if the message under that UID still has the Message-ID asked for.
+    private Message findMessage(String accountId, Folder folder, String folderName, String messageId)
+            throws MessagingException {
+        if (folder instanceof UIDFolder) {
+            UIDFolder uidFolder = (UIDFolder) folder;
+            long uid = messageIdIndex.lookupUid(accountId, folderName, uidFolder.getUIDValidity(), messageId);
+            if (uid > 0) {
+                Message message = uidFolder.getMessageByUID(uid);
+                if (message != null && hasMessageId(message, messageId)) {
+                    return message;
+                }
+                messageIdIndex.remove(accountId, folderName, messageId);
+            }
+        }
+        Message[] found;
+        MetricsRegistry.Timing timing = metrics.start("imap.search");
+        try {
+            found = folder.search(new HeaderTerm("Message-ID", messageId));
+        } finally {
+            timing.stop();
+        }
+        return found.length > 0 ? found[0] : null;
+    }
 
-        String body = "Error: Could not find email content.";
-        if (foundMessages != null && foundMessages.length > 0) {
-            body = getTextFromMessage(foundMessages[0]);
+    // The Message-ID the server has for this message matches (a UID from the index may be stale)
+    private static boolean hasMessageId(Message message, String messageId) throws MessagingException {
+        if (message.isExpunged()) {
+            return false;
         }
+        String[] headers = message.getHeader("Message-ID");
+        return headers != null && headers.length > 0 && headers[0].trim().equals(messageId.trim());
+    }
+
+    // The folder's cached UIDs were synced under this UIDVALIDITY
+    private static boolean syncedUnder(HostConfiguration config, String folderName, long uidValidity) {
+        FolderSyncState state = new EmailCacheService(config).loadSyncState(folderName);
+        return state != null && state.getUidValidity() == uidValidity;
+    }
 
-        folder.close(false);
-        store.close();
-        return body;
+    private static Message[] nonNull(Message[] messages) {
+        List<Message> present = new ArrayList<>();
+        for (Message message : messages) {
+            if (message != null) {
+                present.add(message);
+            }
+        }
+        return present.toArray(new Message[0]);
     }
 
     public void deleteEmail(EmailMessage message, HostConfiguration config) throws Exception {
-        if (message.getMessageId() == null) {
+        if (message.getMessageId() == null && message.getUid() <= 0) {
             throw new Exception("Cannot delete email: Message ID is missing");
         }
 
-        // Configure mail store properties
-        Properties props = new Properties();
-        props.put("mail.store.protocol", config.getReceiveProtocol());
-        props.put("mail." + config.getReceiveProtocol() + ".host", config.getReceiveHost());
-        props.put("mail." + config.getReceiveProtocol() + ".port", config.getReceivePort());
-        props.put("mail." + config.getReceiveProtocol() + ".ssl.enable", "true");
+        metrics.time("op.deleteEmail", () -> connectionPool.withLease(config, lease -> {
+            deleteInFolder(lease, config, message.getFolder(), Collections.singletonList(message));
+            return null;
+        }));
+    }
+
+    // Delete many messages: one STORE and one EXPUNGE per folder, all on one pooled connection.
+    // A folder either succeeds or fails as a whole; the messages of failed folders are returned.
+    public List<EmailMessage> deleteEmails(List<EmailMessage> messages, HostConfiguration config) throws Exception {
+        Map<String, List<EmailMessage>> byFolder = new LinkedHashMap<>();
+        for (EmailMessage message : messages) {
+            byFolder.computeIfAbsent(message.getFolder(), name -> new ArrayList<>()).add(message);
+        }
 
-        // Connect to mail store
-        Session session = Session.getInstance(props);
-        Store store = session.getStore(config.getReceiveProtocol());
-        store.connect(config.getReceiveHost(), config.getUsername(), config.getPassword());
+        return metrics.time("op.deleteEmails", () -> connectionPool.withLease(config, lease -> {
+            List<EmailMessage> failed = new ArrayList<>();
+            for (Map.Entry<String, List<EmailMessage>> entry : byFolder.entrySet()) {
+                try {
+                    deleteInFolder(lease, config, entry.getKey(), entry.getValue());
+                } catch (MessagingException ex) {
+                    System.err.println("Failed to delete " + entry.getValue().size() + " messages from "
+                            + entry.getKey() + ": " + ex.getMessage());
+                    failed.addAll(entry.getValue());
+                }
+            }
+            return failed;
+        }));
+    }
+
+    private void deleteInFolder(ConnectionPool.Lease lease, HostConfiguration config, String folderName,
+                                List<EmailMessage> messages) throws MessagingException {
+        String accountId = config.getAccountId();
+        Folder folder = lease.openFolder(folderName, Folder.READ_WRITE);
+
+        // Synced messages carry their UID, trusted as is while the folder keeps the UIDVALIDITY it
+        // was synced under. Other UIDs, and those from the Message-ID index, are checked against
+        // the server before deleting; the rest are found with one SEARCH over all their Message-IDs.
+        List<Long> uids = new ArrayList<>();
+        List<SearchTerm> byMessageId = new ArrayList<>();
+        Map<Long, String> indexed = new LinkedHashMap<>();
+        long uidValidity = folder instanceof IMAPFolder ? ((IMAPFolder) folder).getUIDValidity() : 0;
+        boolean syncedUidsValid = folder instanceof IMAPFolder && syncedUnder(config, folderName, uidValidity);
+        for (EmailMessage message : messages) {
+            if (message.getUid() > 0 && folder instanceof IMAPFolder) {
+                if (syncedUidsValid) {
+                    uids.add(message.getUid());
+                } else if (message.getMessageId() != null) {
+                    indexed.put(message.getUid(), message.getMessageId());
+                } else {
+                    System.err.println("Not deleting UID " + message.getUid() + " from " + folderName
+                            + ": UIDVALIDITY changed and the message has no Message-ID");
+                }
+                continue;
+            }
+            long uid = folder instanceof IMAPFolder
+                    ? messageIdIndex.lookupUid(accountId, folderName, uidValidity, message.getMessageId())
+                    : -1;
+            if (uid > 0) {
+                indexed.put(uid, message.getMessageId());
+            } else if (message.getMessageId() != null) {
+                byMessageId.add(new HeaderTerm("Message-ID", message.getMessageId()));
+            }
+        }
+        if (!indexed.isEmpty()) {
+            IMAPFolder imapFolder = (IMAPFolder) folder;
+            long[] indexedUids = indexed.keySet().stream().mapToLong(Long::longValue).toArray();
+            Message[] candidates = imapFolder.getMessagesByUID(indexedUids);
+            FetchProfile messageIdProfile = new FetchProfile();
+            messageIdProfile.add("Message-ID");
+            imapFolder.fetch(nonNull(candidates), messageIdProfile);
+            for (int i = 0; i < indexedUids.length; i++) {
+                String messageId = indexed.get(indexedUids[i]);
+                if (candidates[i] != null && hasMessageId(candidates[i], messageId)) {
+                    uids.add(indexedUids[i]);
+                } else {
+                    messageIdIndex.remove(accountId, folderName, messageId);
+                    byMessageId.add(new HeaderTerm("Message-ID", messageId));
+                }
+            }
+        }
+        Message[] found = new Message[0];
+        if (!byMessageId.isEmpty()) {
+            MetricsRegistry.Timing timing = metrics.start("imap.search");
+            try {
+                found = folder.search(byMessageId.size() == 1
+                        ? byMessageId.get(0)
+                        : new OrTerm(byMessageId.toArray(new SearchTerm[0])));
+            } finally {
+                timing.stop();
+            }
+        }
 
-        // Open folder in READ_WRITE mode
-        Folder folder = store.getFolder(message.getFolder());
-        folder.open(Folder.READ_WRITE);
+        if (folder instanceof IMAPFolder) {
+            IMAPFolder imapFolder = (IMAPFolder) folder;
+            for (Message msg : found) {
+                uids.add(imapFolder.getUID(msg));
+            }
+            if (!uids.isEmpty()) {
+                storeDeletedAndExpunge(imapFolder, uids);
+            }
+        } else if (found.length > 0) {
+            folder.setFlags(found, new Flags(Flags.Flag.DELETED), true);
+            folder.expunge();
+        }
 
-        // Use SearchTerm to find the message efficiently
-        javax.mail.search.SearchTerm searchTerm = new javax.mail.search.HeaderTerm("Message-ID", message.getMessageId());
-        Message[] foundMessages = folder.search(searchTerm);
+        for (EmailMessage message : messages) {
+            searchIndex.remove(accountId, folderName, message.getMessageId());
+            bodyCache.remove(accountId, folderName, message.getMessageId());
+            messageIdIndex.remove(accountId, folderName, message.getMessageId());
+        }
+    }
 
-        if (foundMessages != null && foundMessages.length > 0) {
-            // Delete all matches (should be unique)
-            for (Message msg : foundMessages) {
-                msg.setFlag(Flags.Flag.DELETED, true);
+    // UID STORE +FLAGS (\Deleted) and UID EXPUNGE over the whole set. Without UIDPLUS a plain
+    // EXPUNGE is used, which also removes anything else already marked deleted (as before).
+    private void storeDeletedAndExpunge(IMAPFolder folder, List<Long> uids) throws MessagingException {
+        long[] sorted = uids.stream().mapToLong(Long::longValue).sorted().distinct().toArray();
+        UIDSet[] uidSet = UIDSet.createUIDSets(sorted);
+        boolean uidPlus = ((IMAPStore) folder.getStore()).hasCapability("UIDPLUS");
+        folder.doCommand(protocol -> {
+            Response[] responses = protocol.command(
+                    "UID STORE " + UIDSet.toString(uidSet) + " +FLAGS.SILENT (\\Deleted)", null);
+            protocol.notifyResponseHandlers(responses);
+            protocol.handleResult(responses[responses.length - 1]);
+            if (uidPlus) {
+                protocol.uidexpunge(uidSet);
+            } else {
+                protocol.expunge();
             }
-        } else {
-            System.out.println("Warning: Could not find email to delete with ID: " + message.getMessageId());
+            return null;
+        });
+    }
+
+    /**
+     * Outcome of one message of a batch send.
+     */
+    public static class SendResult {
+        private final EmailMessage message;
+        private final Exception error;
+
+        SendResult(EmailMessage message, Exception error) {
+            this.message = message;
+            this.error = error;
+        }
+
+        public EmailMessage getMessage() {
+            return message;
+        }
+
+        public boolean isSent() {
+            return error == null;
         }
 
-        // Close folder with expunge=true to permanently delete
-        folder.close(true);
-        store.close();
+        // Why the message was not sent (null if it was)
+        public Exception getError() {
+            return error;
+        }
     }
 }
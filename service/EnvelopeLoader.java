@@ -0,0 +1,152 @@
+package service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import javax.mail.*;
+import javax.mail.internet.MimeMessage;
+import model.EmailMessage;
+
+/**
+ * Loads message envelopes in bulk. One FETCH with a FetchProfile covers the
+ * whole range, so converting to EmailMessage afterwards never goes back to the
+ * server (instead of one round trip per getFrom/getSubject/isSet call).
+ * Every load also feeds the Message-ID -> UID index of the given account.
+ */
+public class EnvelopeLoader {
+
+    private final FetchProfile fetchProfile;
+    private final MessageIdIndex messageIdIndex = MessageIdIndex.getInstance();
+    private final MetricsRegistry metrics = MetricsRegistry.getInstance();
+
+    public EnvelopeLoader() {
+        fetchProfile = new FetchProfile();
+        fetchProfile.add(FetchProfile.Item.ENVELOPE);
+        fetchProfile.add(FetchProfile.Item.FLAGS);
+        fetchProfile.add(FetchProfile.Item.SIZE);
+        fetchProfile.add(UIDFolder.FetchProfileItem.UID);
+        fetchProfile.add("Message-ID");
+    }
+
+    public FetchProfile getFetchProfile() {
+        return fetchProfile;
+    }
+
+    // Fetch envelopes for all messages in one pass and convert them (deleted messages are skipped)
+    public List<EmailMessage> load(String accountId, Folder folder, Message[] messages) throws MessagingException {
+        fetch(folder, messages);
+
+        UIDFolder uidFolder = folder instanceof UIDFolder ? (UIDFolder) folder : null;
+        String folderName = folder.getFullName();
+
+        List<EmailMessage> emailList = new ArrayList<>(messages.length);
+        MetricsRegistry.Timing timing = metrics.start("envelope.parse");
+        try {
+            for (Message msg : messages) {
+                if (msg.isExpunged()) {
+                    continue;
+                }
+                Flags flags = msg.getFlags();
+                if (flags.contains(Flags.Flag.DELETED)) {
+                    continue;
+                }
+                EmailMessage email = toEmailMessage(msg, flags, folderName);
+                if (uidFolder != null) {
+                    email.setUid(uidFolder.getUID(msg));
+                }
+                emailList.add(email);
+            }
+        } finally {
+            timing.stop();
+        }
+        if (uidFolder != null) {
+            messageIdIndex.record(accountId, folderName, uidFolder.getUIDValidity(), emailList);
+        }
+        return emailList;
+    }
+
+    // Like load(), but keeps positions: result[i] belongs to messages[i] (null if expunged)
+    public EmailMessage[] loadAligned(String accountId, Folder folder, Message[] messages)
+            throws MessagingException {
+        fetch(folder, messages);
+
+        UIDFolder uidFolder = folder instanceof UIDFolder ? (UIDFolder) folder : null;
+        String folderName = folder.getFullName();
+
+        EmailMessage[] emails = new EmailMessage[messages.length];
+        MetricsRegistry.Timing timing = metrics.start("envelope.parse");
+        try {
+            for (int i = 0; i < messages.length; i++) {
+                Message msg = messages[i];
+                if (msg.isExpunged()) {
+                    continue;
+                }
+                emails[i] = toEmailMessage(msg, msg.getFlags(), folderName);
+                if (uidFolder != null) {
+                    emails[i].setUid(uidFolder.getUID(msg));
+                }
+            }
+        } finally {
+            timing.stop();
+        }
+        if (uidFolder != null) {
+            messageIdIndex.record(accountId, folderName, uidFolder.getUIDValidity(), Arrays.asList(emails));
+        }
+        return emails;
+    }
+
+    // One bulk FETCH for the whole range
+    private void fetch(Folder folder, Message[] messages) throws MessagingException {
+        MetricsRegistry.Timing timing = metrics.start("imap.fetch.envelopes");
+        try {
+            folder.fetch(messages, fetchProfile);
+        } finally {
+            timing.stop();
+        }
+    }
+
+    private EmailMessage toEmailMessage(Message msg, Flags flags, String folderName) throws MessagingException {
+        EmailMessage email = new EmailMessage();
+
+        Address[] fromAddresses = msg.getFrom();
+        if (fromAddresses != null && fromAddresses.length > 0) {
+            email.setFrom(fromAddresses[0].toString());
+        }
+
+        Address[] toAddresses = msg.getRecipients(Message.RecipientType.TO);
+        if (toAddresses != null) {
+            for (Address address : toAddresses) {
+                email.addTo(address.toString());
+            }
+        }
+
+        email.setSubject(msg.getSubject());
+
+        Date sentDate = msg.getSentDate();
+        if (sentDate != null) {
+            email.setSentDate(LocalDateTime.ofInstant(sentDate.toInstant(), ZoneId.systemDefault()));
+        }
+
+        email.setRead(flags.contains(Flags.Flag.SEEN));
+        email.setFolder(folderName);
+        email.setMessageNumber(msg.getMessageNumber());
+        email.setSize(Math.max(msg.getSize(), 0));
+
+        // IMAP returns Message-ID as part of ENVELOPE; other stores use the prefetched header
+        String messageId = null;
+        if (msg instanceof MimeMessage) {
+            messageId = ((MimeMessage) msg).getMessageID();
+        }
+        if (messageId == null) {
+            String[] messageIdHeaders = msg.getHeader("Message-ID");
+            if (messageIdHeaders != null && messageIdHeaders.length > 0) {
+                messageId = messageIdHeaders[0];
+            }
+        }
+        email.setMessageId(messageId);
+        return email;
+    }
+}
@@ -0,0 +1,181 @@
+package service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import model.EmailMessage;
+import model.HostConfiguration;
+
+/**
+ * Fixed-size windows of envelopes for one folder, fetched on demand by
+ * sequence number. Only MAX_WINDOWS windows are kept (LRU), so memory stays
+ * constant however large the folder is. Every lookup also queues the next
+ * window in the current scroll direction. Windows are loaded one task at a
+ * time through MailTaskExecutor at FOLDER_OPEN, so clicks still go first.
+ */
+public class EnvelopeWindowCache {
+
+    public static final int WINDOW_SIZE = 100;
+    private static final int MAX_WINDOWS = 8;
+
+    public interface Listener {
+        // Called on a background thread once envelopes for firstSeq..lastSeq are available
+        void windowLoaded(int firstSeq, int lastSeq);
+    }
+
+    private final EmailService emailService;
+    private final HostConfiguration config;
+    private final String folderName;
+    private final Listener listener;
+    private final MailTaskExecutor mailTasks = MailTaskExecutor.getInstance();
+
+    private final Map<Integer, EmailMessage[]> windows = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, EmailMessage[]> eldest) {
+            return size() > MAX_WINDOWS;
+        }
+    };
+    private final Deque<Integer> requested = new ArrayDeque<>();
+    private final Set<Integer> inFlight = new HashSet<>();
+    private int maxSeq;
+    private int lastSeq;
+    private int generation;
+    private MailTaskExecutor.TaskHandle loadTask;
+    private boolean closed;
+
+    public EnvelopeWindowCache(EmailService emailService, HostConfiguration config, String folderName,
+                               int maxSeq, Listener listener) {
+        this.emailService = emailService;
+        this.config = config;
+        this.folderName = folderName;
+        this.maxSeq = maxSeq;
+        this.listener = listener;
+    }
+
+    // Envelope at this sequence number, or null while its window is still loading
+    public synchronized EmailMessage get(int seq) {
+        int window = (seq - 1) / WINDOW_SIZE;
+        boolean scrollingToOlder = seq < lastSeq;
+        lastSeq = seq;
+
+        // Queue the neighbour first so the window actually needed is loaded before it
+        request(scrollingToOlder ? window - 1 : window + 1);
+        EmailMessage[] loaded = windows.get(window);
+        if (loaded == null) {
+            request(window);
+            return null;
+        }
+        return loaded[(seq - 1) % WINDOW_SIZE];
+    }
+
+    // Replace the loaded envelope with this one's UID (flags changed); its sequence number, or -1 if not loaded
+    public synchronized int update(EmailMessage email) {
+        for (Map.Entry<Integer, EmailMessage[]> entry : windows.entrySet()) {
+            EmailMessage[] loaded = entry.getValue();
+            for (int i = 0; i < loaded.length; i++) {
+                if (loaded[i] != null && loaded[i].getUid() == email.getUid()) {
+                    loaded[i] = email;
+                    return entry.getKey() * WINDOW_SIZE + i + 1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    public synchronized int getMaxSeq() {
+        return maxSeq;
+    }
+
+    // Sequence numbers shifted (expunge) or the folder grew: drop everything loaded so far
+    public synchronized void invalidate(int newMaxSeq) {
+        maxSeq = newMaxSeq;
+        windows.clear();
+        requested.clear();
+        inFlight.clear();
+        generation++;
+    }
+
+    public synchronized void close() {
+        closed = true;
+        requested.clear();
+        // Leaving the folder stops its page loads, on the server too
+        if (loadTask != null) {
+            loadTask.cancel();
+        }
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void request(int window) {
+        if (closed || window < 0 || window * WINDOW_SIZE >= maxSeq
+                || windows.containsKey(window) || inFlight.contains(window)) {
+            return;
+        }
+        requested.remove(window);
+        requested.addLast(window);
+        // Stale requests from rows scrolled past long ago are dropped
+        while (requested.size() > MAX_WINDOWS) {
+            requested.removeFirst();
+        }
+        if (loadTask == null) {
+            loadNext();
+        }
+    }
+
+    // One window per task, so the account's slot is given back between windows
+    private synchronized void loadNext() {
+        if (closed || requested.isEmpty()) {
+            loadTask = null;
+            return;
+        }
+        loadTask = mailTasks.submit(config, TaskPriority.FOLDER_OPEN, "envelopes of " + folderName,
+                this::loadWindow);
+    }
+
+    // Most recent request first: the rows the user is looking at now win
+    private void loadWindow() {
+        int window;
+        int requestGeneration;
+        synchronized (this) {
+            Integer next = requested.pollLast();
+            if (next == null || closed) {
+                loadTask = null;
+                return;
+            }
+            window = next;
+            requestGeneration = generation;
+            inFlight.add(window);
+        }
+
+        int firstSeq = window * WINDOW_SIZE + 1;
+        int lastSeqInWindow = firstSeq + WINDOW_SIZE - 1;
+        EmailMessage[] loaded = null;
+        try {
+            loaded = emailService.receiveWindow(folderName, firstSeq, lastSeqInWindow, config);
+        } catch (Exception ex) {
+            if (isClosed()) {
+                return;  // cancelled by close()
+            }
+            System.err.println("Failed to load messages " + firstSeq + "-" + lastSeqInWindow
+                    + " of " + folderName + ": " + ex.getMessage());
+        }
+
+        boolean stored;
+        synchronized (this) {
+            inFlight.remove(window);
+            stored = loaded != null && !closed && requestGeneration == generation;
+            if (stored) {
+                windows.put(window, loaded);
+            }
+        }
+        if (stored) {
+            listener.windowLoaded(firstSeq, Math.min(lastSeqInWindow, maxSeq));
+        }
+        loadNext();
+    }
+}
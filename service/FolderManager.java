@@ -2,39 +2,32 @@ package service;
 
 import model.HostConfiguration;
 import model.EmailMessage;
+import model.FolderInfo;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Properties;
-import javax.mail.*;
 
 public class FolderManager {
     private EmailService emailService;
+    private final FolderMetadataService folderMetadata;
 
     public FolderManager() {
         this.emailService = new EmailService();
+        this.folderMetadata = FolderMetadataService.getInstance();
     }
 
-    // Retrieve list of all folders from mail server
+    // Retrieve list of all folders from mail server (one LIST-STATUS, which also refreshes the counts)
     public List<String> getFolders(HostConfiguration config) throws Exception {
-        Properties props = new Properties();
-        props.put("mail.store.protocol", config.getReceiveProtocol());
-        props.put("mail." + config.getReceiveProtocol() + ".host", config.getReceiveHost());
-        props.put("mail." + config.getReceiveProtocol() + ".port", config.getReceivePort());
-        props.put("mail." + config.getReceiveProtocol() + ".ssl.enable", "true");
-
-        // Connect and list folders
-        Session session = Session.getInstance(props);
-        Store store = session.getStore(config.getReceiveProtocol());
-        store.connect(config.getReceiveHost(), config.getUsername(), config.getPassword());
-
-        Folder defaultFolder = store.getDefaultFolder();
-        Folder[] folders = defaultFolder.list("*");
+        return MetricsRegistry.getInstance().time("op.getFolders",
+                () -> folderNames(folderMetadata.refresh(config)));
+    }
 
+    // Folders worth showing: those that can hold messages, minus Gmail's virtual views
+    public static List<String> folderNames(List<FolderInfo> folders) {
         List<String> folderNames = new ArrayList<>();
-        for (Folder folder : folders) {
+        for (FolderInfo folder : folders) {
             // Only include folders that can hold messages
-            if ((folder.getType() & Folder.HOLDS_MESSAGES) != 0) {
-                String name = folder.getFullName();
+            if (folder.holdsMessages()) {
+                String name = folder.getName();
                 // Filter out "All Mail", "Important", "Starred" to reduce clutter
                 if (name.contains("All Mail") || name.contains("Important") || name.contains("Starred")) {
                     continue;
@@ -42,8 +35,6 @@ public class FolderManager {
                 folderNames.add(name);
             }
         }
-
-        store.close();
         return folderNames;
     }
 
@@ -0,0 +1,364 @@
+package service;
+
+import com.sun.mail.iap.Argument;
+import com.sun.mail.iap.ProtocolException;
+import com.sun.mail.iap.Response;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.protocol.BASE64MailboxEncoder;
+import com.sun.mail.imap.protocol.IMAPProtocol;
+import com.sun.mail.imap.protocol.IMAPResponse;
+import com.sun.mail.imap.protocol.ListInfo;
+import com.sun.mail.imap.protocol.Status;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.mail.Folder;
+import javax.mail.Store;
+import model.FolderInfo;
+import model.HostConfiguration;
+
+/**
+ * Folder names, attributes and MESSAGES/UNSEEN/UIDNEXT counts of every
+ * folder of an account without opening any of them. Uses one LIST-STATUS
+ * round trip (RFC 5819) where the server supports it, otherwise LIST plus
+ * all STATUS commands pipelined on the same connection. The last result is
+ * kept per account in memory and in the account's cache directory, so the
+ * tree can show counts before the server answers; listeners only hear about
+ * folders whose counts changed.
+ */
+public class FolderMetadataService {
+
+    private static final FolderMetadataService INSTANCE = new FolderMetadataService();
+
+    private static final String SNAPSHOT_FILE = "folders.snapshot";
+    private static final int SNAPSHOT_MAGIC = 0x464C5331;  // "FLS1"
+    private static final String[] STATUS_ITEMS = {"MESSAGES", "UNSEEN", "UIDNEXT"};
+    // STATUS commands in flight at once, so neither side's socket buffer can fill up while the other writes
+    private static final int PIPELINE_DEPTH = 64;
+
+    public interface Listener {
+        // Called on the refreshing thread with the folders whose counts or presence changed
+        void foldersChanged(HostConfiguration account, List<FolderInfo> changed, List<FolderInfo> all);
+    }
+
+    private final ConnectionPool connectionPool;
+    private final Map<String, Map<String, FolderInfo>> snapshots = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong listStatusRefreshes = new AtomicLong();
+    private final AtomicLong statusCommands = new AtomicLong();
+    private final AtomicLong refreshNanos = new AtomicLong();
+
+    public FolderMetadataService() {
+        this(ConnectionPool.getInstance());
+    }
+
+    public FolderMetadataService(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    public static FolderMetadataService getInstance() {
+        return INSTANCE;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    // Last known folders of an account, from memory or disk; empty if it was never listed
+    public List<FolderInfo> getSnapshot(HostConfiguration config) {
+        return new ArrayList<>(snapshotOf(config).values());
+    }
+
+    // Every folder with its counts in one round trip; only changes reach the listeners
+    public List<FolderInfo> refresh(HostConfiguration config) throws Exception {
+        long start = System.nanoTime();
+        Map<String, FolderInfo> fresh = connectionPool.withLease(config, lease -> {
+            Store store = lease.getStore();
+            Folder root = store.getDefaultFolder();
+            if (!(root instanceof IMAPFolder)) {
+                return listPlain(root);  // POP3: just INBOX, no counts without opening it
+            }
+            Object result = ((IMAPFolder) root).doCommand(this::listWithStatus);
+            @SuppressWarnings("unchecked")
+            Map<String, FolderInfo> folders = (Map<String, FolderInfo>) result;
+            return folders;
+        });
+        refreshes.incrementAndGet();
+        refreshNanos.addAndGet(System.nanoTime() - start);
+        return apply(config, fresh, true);
+    }
+
+    // Counts of one folder (one STATUS), e.g. after the user read or deleted mail in it
+    public FolderInfo refreshFolder(HostConfiguration config, String folderName) throws Exception {
+        FolderInfo info = connectionPool.withLease(config, lease -> {
+            Folder folder = lease.getStore().getFolder(folderName);
+            if (!(folder instanceof IMAPFolder)) {
+                return null;
+            }
+            Status status = (Status) ((IMAPFolder) folder).doCommand(protocol -> {
+                statusCommands.incrementAndGet();
+                return protocol.status(folderName, STATUS_ITEMS);
+            });
+            return status != null ? toFolderInfo(status) : null;
+        });
+        if (info == null) {
+            return null;
+        }
+        Map<String, FolderInfo> merged = new LinkedHashMap<>(snapshotOf(config));
+        FolderInfo known = merged.get(folderName);
+        if (known == null) {
+            return info;  // not in the snapshot yet; the next full refresh brings it in with its attributes
+        }
+        info.setSeparator(known.getSeparator());
+        info.setAttributes(known.getAttributes());
+        merged.put(folderName, info);
+        apply(config, merged, false);
+        return info;
+    }
+
+    private Map<String, FolderInfo> listWithStatus(IMAPProtocol protocol) throws ProtocolException {
+        Map<String, FolderInfo> folders = new LinkedHashMap<>();
+        synchronized (protocol) {
+            if (protocol.hasCapability("LIST-STATUS")) {
+                // LIST and STATUS answers for every folder in a single round trip
+                Response[] responses = protocol.command("LIST \"\" \"*\" RETURN (STATUS ("
+                        + String.join(" ", STATUS_ITEMS) + "))", null);
+                protocol.notifyResponseHandlers(responses);
+                protocol.handleResult(responses[responses.length - 1]);
+                collect(responses, folders);
+                listStatusRefreshes.incrementAndGet();
+                return folders;
+            }
+
+            ListInfo[] infos = protocol.list("", "*");
+            List<String> selectable = new ArrayList<>();
+            for (ListInfo info : infos != null ? infos : new ListInfo[0]) {
+                FolderInfo folder = folders.computeIfAbsent(info.name, FolderInfo::new);
+                folder.setSeparator(info.separator);
+                folder.setAttributes(info.attrs != null ? new ArrayList<>(Arrays.asList(info.attrs)) : new ArrayList<>());
+                if (folder.holdsMessages()) {
+                    selectable.add(info.name);
+                }
+            }
+            for (int i = 0; i < selectable.size(); i += PIPELINE_DEPTH) {
+                collect(pipelineStatus(protocol, selectable.subList(i, Math.min(selectable.size(), i + PIPELINE_DEPTH))),
+                        folders);
+            }
+            return folders;
+        }
+    }
+
+    // Send all STATUS commands before reading any answer: one round trip instead of one per folder
+    private Response[] pipelineStatus(IMAPProtocol protocol, List<String> folderNames) throws ProtocolException {
+        Set<String> tags = new HashSet<>();
+        List<Response> responses = new ArrayList<>();
+        try {
+            for (String name : folderNames) {
+                Argument args = new Argument();
+                if (protocol.supportsUtf8()) {
+                    args.writeString(name, StandardCharsets.UTF_8);
+                } else {
+                    args.writeString(BASE64MailboxEncoder.encode(name));
+                }
+                Argument items = new Argument();
+                for (String item : STATUS_ITEMS) {
+                    items.writeAtom(item);
+                }
+                args.writeArgument(items);
+                tags.add(protocol.writeCommand("STATUS", args));
+                statusCommands.incrementAndGet();
+            }
+            while (!tags.isEmpty()) {
+                Response response = protocol.readResponse();
+                if (response.isBYE()) {
+                    throw new ProtocolException(response);
+                }
+                if (response.isTagged()) {
+                    // A NO (e.g. a folder deleted since LIST) just leaves that folder without counts
+                    tags.remove(response.getTag());
+                } else {
+                    responses.add(response);
+                }
+            }
+        } catch (IOException e) {
+            throw new ProtocolException("Pipelined STATUS failed: " + e.getMessage(), e);
+        }
+        Response[] untagged = responses.toArray(new Response[0]);
+        protocol.notifyResponseHandlers(untagged);
+        return untagged;
+    }
+
+    private static void collect(Response[] responses, Map<String, FolderInfo> folders) throws ProtocolException {
+        for (Response response : responses) {
+            if (!(response instanceof IMAPResponse)) {
+                continue;
+            }
+            IMAPResponse imapResponse = (IMAPResponse) response;
+            if (imapResponse.keyEquals("LIST")) {
+                ListInfo info = new ListInfo(imapResponse);
+                FolderInfo folder = folders.computeIfAbsent(info.name, FolderInfo::new);
+                folder.setSeparator(info.separator);
+                folder.setAttributes(info.attrs != null ? new ArrayList<>(Arrays.asList(info.attrs)) : new ArrayList<>());
+            } else if (imapResponse.keyEquals("STATUS")) {
+                Status status = new Status(imapResponse);
+                FolderInfo folder = folders.computeIfAbsent(status.mbox, FolderInfo::new);
+                folder.setMessages(status.total);
+                folder.setUnseen(status.unseen);
+                folder.setUidNext(status.uidnext);
+            }
+        }
+    }
+
+    private static FolderInfo toFolderInfo(Status status) {
+        FolderInfo info = new FolderInfo(status.mbox);
+        info.setMessages(status.total);
+        info.setUnseen(status.unseen);
+        info.setUidNext(status.uidnext);
+        return info;
+    }
+
+    private static Map<String, FolderInfo> listPlain(Folder root) throws Exception {
+        Map<String, FolderInfo> folders = new LinkedHashMap<>();
+        for (Folder folder : root.list("*")) {
+            if ((folder.getType() & Folder.HOLDS_MESSAGES) != 0) {
+                folders.put(folder.getFullName(), new FolderInfo(folder.getFullName()));
+            }
+        }
+        return folders;
+    }
+
+    // Store the new snapshot and tell listeners what changed; a full listing also drops vanished folders
+    private List<FolderInfo> apply(HostConfiguration config, Map<String, FolderInfo> fresh, boolean complete) {
+        List<FolderInfo> changed = new ArrayList<>();
+        List<FolderInfo> all;
+        synchronized (this) {
+            Map<String, FolderInfo> previous = snapshotOf(config);
+            for (FolderInfo folder : fresh.values()) {
+                if (!folder.sameCounts(previous.get(folder.getName()))) {
+                    changed.add(folder);
+                }
+            }
+            boolean removed = complete && !fresh.keySet().containsAll(previous.keySet());
+            if (changed.isEmpty() && !removed) {
+                return new ArrayList<>(previous.values());
+            }
+            Map<String, FolderInfo> snapshot = new LinkedHashMap<>(fresh);
+            snapshots.put(config.getAccountId(), snapshot);
+            saveSnapshot(config, snapshot);
+            all = new ArrayList<>(snapshot.values());
+        }
+        for (Listener listener : listeners) {
+            listener.foldersChanged(config, changed, all);
+        }
+        return all;
+    }
+
+    private Map<String, FolderInfo> snapshotOf(HostConfiguration config) {
+        return snapshots.computeIfAbsent(config.getAccountId(), id -> loadSnapshot(config));
+    }
+
+    private Map<String, FolderInfo> loadSnapshot(HostConfiguration config) {
+        Map<String, FolderInfo> folders = new LinkedHashMap<>();
+        File file = new File(EmailCacheService.getAccountDirectory(config), SNAPSHOT_FILE);
+        if (!file.exists()) {
+            return folders;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                return folders;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                FolderInfo folder = new FolderInfo(in.readUTF());
+                folder.setSeparator(in.readChar());
+                int attributes = in.readInt();
+                for (int j = 0; j < attributes; j++) {
+                    folder.getAttributes().add(in.readUTF());
+                }
+                folder.setMessages(in.readInt());
+                folder.setUnseen(in.readInt());
+                folder.setUidNext(in.readLong());
+                folders.put(folder.getName(), folder);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to load folder snapshot " + file + ": " + e.getMessage());
+            folders.clear();
+        }
+        return folders;
+    }
+
+    private void saveSnapshot(HostConfiguration config, Map<String, FolderInfo> folders) {
+        File directory = EmailCacheService.getAccountDirectory(config);
+        directory.mkdirs();
+        File file = new File(directory, SNAPSHOT_FILE);
+        File tmp = new File(directory, SNAPSHOT_FILE + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(folders.size());
+                for (FolderInfo folder : folders.values()) {
+                    out.writeUTF(folder.getName());
+                    out.writeChar(folder.getSeparator());
+                    out.writeInt(folder.getAttributes().size());
+                    for (String attribute : folder.getAttributes()) {
+                        out.writeUTF(attribute);
+                    }
+                    out.writeInt(folder.getMessages());
+                    out.writeInt(folder.getUnseen());
+                    out.writeLong(folder.getUidNext());
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Failed to save folder snapshot " + file + ": " + e.getMessage());
+        }
+    }
+
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    // Refreshes answered by a single LIST-STATUS
+    public long getListStatusCount() {
+        return listStatusRefreshes.get();
+    }
+
+    public long getStatusCommandCount() {
+        return statusCommands.get();
+    }
+
+    public double getAverageRefreshMillis() {
+        long count = refreshes.get();
+        return count == 0 ? 0 : refreshNanos.get() / 1_000_000.0 / count;
+    }
+
+    @Override
+    public String toString() {
+        return "FolderMetadataService{" +
+                "refreshes=" + getRefreshCount() +
+                ", listStatus=" + getListStatusCount() +
+                ", statusCommands=" + getStatusCommandCount() +
+                ", avgRefreshMs=" + String.format("%.1f", getAverageRefreshMillis()) +
+                '}';
+    }
+}
@@ -0,0 +1,254 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.mail.*;
+import com.sun.mail.imap.IMAPFolder;
+import model.EmailMessage;
+import model.FolderSyncState;
+import model.HostConfiguration;
+
+/**
+ * UID-based incremental folder sync on top of EmailCacheService.
+ * Only messages above the last seen UID are downloaded; flags and expunges
+ * are reconciled for the cached UID range with a cheap FLAGS-only fetch.
+ * A UIDVALIDITY change (or a store without UIDs) falls back to a full resync.
+ */
+public class FolderSync {
+
+    // Number of newest messages pulled on a full resync
+    private static final int FULL_SYNC_WINDOW = 200;
+
+    private final EmailCacheService cacheService;
+    private final ConnectionPool connectionPool;
+    private final EnvelopeLoader envelopeLoader;
+    private final FetchProfile flagsProfile;
+    private final SearchIndex searchIndex;
+    // One sync per folder at a time: a second caller waits and then only picks up what is left
+    private final Map<String, ReentrantLock> folderLocks = new ConcurrentHashMap<>();
+
+    public FolderSync(EmailCacheService cacheService) {
+        this(cacheService, ConnectionPool.getInstance());
+    }
+
+    public FolderSync(EmailCacheService cacheService, ConnectionPool connectionPool) {
+        this.cacheService = cacheService;
+        this.connectionPool = connectionPool;
+        this.envelopeLoader = new EnvelopeLoader();
+        this.searchIndex = SearchIndex.getInstance();
+        this.flagsProfile = new FetchProfile();
+        flagsProfile.add(FetchProfile.Item.FLAGS);
+        flagsProfile.add(UIDFolder.FetchProfileItem.UID);
+    }
+
+    // Bring the cached copy of a folder up to date and return its full cached contents
+    public SyncResult sync(String folderName, HostConfiguration config) throws Exception {
+        ReentrantLock lock = folderLocks.computeIfAbsent(folderName, name -> new ReentrantLock());
+        lock.lockInterruptibly();
+        try {
+            return MetricsRegistry.getInstance().time("op.syncFolder", () -> syncLocked(folderName, config));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private SyncResult syncLocked(String folderName, HostConfiguration config) throws Exception {
+        return connectionPool.withLease(config, lease -> {
+            Folder folder = lease.openFolder(folderName, Folder.READ_ONLY);
+            // A pooled folder may have been open for a while: pick up pending EXISTS/EXPUNGE first
+            if (folder instanceof IMAPFolder) {
+                ((IMAPFolder) folder).doCommand(protocol -> {
+                    protocol.simpleCommand("NOOP", null);
+                    return null;
+                });
+            }
+            if (!(folder instanceof UIDFolder)) {
+                return fullResync(config.getAccountId(), folder, folderName, 0);
+            }
+
+            long uidValidity = ((UIDFolder) folder).getUIDValidity();
+            FolderSyncState state = cacheService.loadSyncState(folderName);
+            if (state == null || state.getUidValidity() != uidValidity) {
+                return fullResync(config.getAccountId(), folder, folderName, uidValidity);
+            }
+            return incrementalSync(config.getAccountId(), (UIDFolder) folder, folder, folderName, state);
+        });
+    }
+
+    private SyncResult fullResync(String accountId, Folder folder, String folderName, long uidValidity)
+            throws MessagingException {
+        int messageCount = folder.getMessageCount();
+        Message[] messages = messageCount > FULL_SYNC_WINDOW
+                ? folder.getMessages(messageCount - FULL_SYNC_WINDOW + 1, messageCount)
+                : folder.getMessages();
+
+        List<EmailMessage> emails = envelopeLoader.load(accountId, folder, messages);
+        cacheService.saveEmails(folderName, emails);
+        searchIndex.addEnvelopes(accountId, emails);
+
+        long highestUid = 0;
+        for (EmailMessage email : emails) {
+            highestUid = Math.max(highestUid, email.getUid());
+        }
+        saveState(folderName, uidValidity, highestUid, messageCount);
+        int firstSeq = messages.length > 0 ? messages[0].getMessageNumber() : messageCount + 1;
+        return new SyncResult(emails, emails.size(), 0, 0, true, messageCount, firstSeq);
+    }
+
+    private SyncResult incrementalSync(String accountId, UIDFolder uidFolder, Folder folder, String folderName,
+                                       FolderSyncState state) throws MessagingException {
+        List<EmailMessage> cached = cacheService.loadEmails(folderName);
+        long highestUid = state.getHighestUid();
+
+        // 1. New mail: UID FETCH highest+1:*  ("n:*" always returns the last message, so filter)
+        List<EmailMessage> changed = new ArrayList<>();
+        Message[] newMessages = uidFolder.getMessagesByUID(highestUid + 1, UIDFolder.LASTUID);
+        int added = 0;
+        for (EmailMessage email : envelopeLoader.load(accountId, folder, newMessages)) {
+            if (email.getUid() > highestUid) {
+                changed.add(email);
+                added++;
+            }
+        }
+        searchIndex.addEnvelopes(accountId, changed);
+
+        // 2. Flag changes and expunges within the range we already hold
+        Set<Long> removedUids = new HashSet<>();
+        int updated = 0;
+        int messageCount = folder.getMessageCount();
+        int firstSeq = newMessages.length > 0 ? newMessages[0].getMessageNumber() : messageCount + 1;
+        if (!cached.isEmpty()) {
+            long lowestUid = Long.MAX_VALUE;
+            for (EmailMessage email : cached) {
+                lowestUid = Math.min(lowestUid, email.getUid());
+            }
+
+            Message[] known = uidFolder.getMessagesByUID(lowestUid, highestUid);
+            folder.fetch(known, flagsProfile);
+            Map<Long, Flags> serverFlags = new HashMap<>();
+            for (Message msg : known) {
+                if (msg != null && !msg.isExpunged()) {
+                    serverFlags.put(uidFolder.getUID(msg), msg.getFlags());
+                    firstSeq = Math.min(firstSeq, msg.getMessageNumber());
+                }
+            }
+
+            for (EmailMessage email : cached) {
+                Flags flags = serverFlags.get(email.getUid());
+                if (flags == null || flags.contains(Flags.Flag.DELETED)) {
+                    removedUids.add(email.getUid());
+                    // Expunged elsewhere: no longer a search hit
+                    if (email.getMessageId() != null) {
+                        searchIndex.remove(accountId, folderName, email.getMessageId());
+                    }
+                } else if (flags.contains(Flags.Flag.SEEN) != email.isRead()) {
+                    email.setRead(flags.contains(Flags.Flag.SEEN));
+                    changed.add(email);
+                    updated++;
+                }
+            }
+        }
+
+        List<EmailMessage> merged = cached;
+        if (!changed.isEmpty() || !removedUids.isEmpty()) {
+            // Only the delta is written; the merged view is built from what we already hold
+            cacheService.applyDelta(folderName, changed, removedUids);
+            merged = merge(cached, changed, removedUids);
+        }
+
+        for (EmailMessage email : changed) {
+            highestUid = Math.max(highestUid, email.getUid());
+        }
+        saveState(folderName, state.getUidValidity(), highestUid, messageCount);
+        return new SyncResult(merged, added, updated, removedUids.size(), false, messageCount, firstSeq);
+    }
+
+    private List<EmailMessage> merge(List<EmailMessage> cached, List<EmailMessage> changed, Set<Long> removedUids) {
+        Map<Long, EmailMessage> byUid = new TreeMap<>();
+        for (EmailMessage email : cached) {
+            byUid.put(email.getUid(), email);
+        }
+        for (EmailMessage email : changed) {
+            byUid.put(email.getUid(), email);
+        }
+        byUid.keySet().removeAll(removedUids);
+        return new ArrayList<>(byUid.values());
+    }
+
+    private void saveState(String folderName, long uidValidity, long highestUid, int messageCount) {
+        FolderSyncState state = new FolderSyncState(uidValidity, highestUid);
+        state.setMessageCount(messageCount);
+        state.setLastSyncTime(System.currentTimeMillis());
+        cacheService.saveSyncState(folderName, state);
+    }
+
+    /**
+     * Outcome of one sync: the folder's cached contents plus delta counts.
+     */
+    public static class SyncResult {
+        private final List<EmailMessage> messages;
+        private final int added;
+        private final int updated;
+        private final int removed;
+        private final boolean fullResync;
+        private final int messageCount;
+        private final int firstSequenceNumber;
+
+        public SyncResult(List<EmailMessage> messages, int added, int updated, int removed, boolean fullResync,
+                          int messageCount, int firstSequenceNumber) {
+            this.messages = messages;
+            this.added = added;
+            this.updated = updated;
+            this.removed = removed;
+            this.fullResync = fullResync;
+            this.messageCount = messageCount;
+            this.firstSequenceNumber = firstSequenceNumber;
+        }
+
+        public List<EmailMessage> getMessages() {
+            return messages;
+        }
+
+        public int getAdded() {
+            return added;
+        }
+
+        public int getUpdated() {
+            return updated;
+        }
+
+        public int getRemoved() {
+            return removed;
+        }
+
+        public boolean isFullResync() {
+            return fullResync;
+        }
+
+        public int getMessageCount() {
+            return messageCount;
+        }
+
+        // Cached messages are the contiguous newest ones; everything below this is not cached
+        public int getFirstSequenceNumber() {
+            return firstSequenceNumber;
+        }
+
+        @Override
+        public String toString() {
+            return "SyncResult{" +
+                    "added=" + added +
+                    ", updated=" + updated +
+                    ", removed=" + removed +
+                    ", fullResync=" + fullResync +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package service;
+
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.IMAPStore;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.mail.*;
+import javax.mail.event.MessageChangedEvent;
+import javax.mail.event.MessageChangedListener;
+import javax.mail.event.MessageCountEvent;
+import javax.mail.event.MessageCountListener;
+import model.EmailMessage;
+import model.FolderSyncState;
+import model.HostConfiguration;
+
+/**
+ * Pushes server-side changes of watched folders to the app as they happen.
+ * Each watched folder holds one pooled connection in IMAP IDLE (or polls
+ * with NOOP when the server has no IDLE); EXISTS/EXPUNGE/FETCH notifications
+ * become envelope deltas applied to the local cache and handed to a listener.
+ */
+public class FolderWatcher {
+
+    // Re-issue IDLE well before the pool's 60 s read timeout (RFC 2177 allows up to 29 min)
+    private static final long IDLE_REFRESH_MS = 45_000;
+    private static final long POLL_INTERVAL_MS = 30_000;
+    private static final long RETRY_DELAY_MS = 10_000;
+    // Notifications usually come in bursts (EXISTS + RECENT + FETCH): handle them together
+    private static final long COALESCE_MS = 200;
+
+    public interface Listener {
+        // Called on a background thread; added is new mail (EXISTS), changed is flag updates of older
+        // messages anywhere in the folder; messageCount is the folder size after the change
+        void folderChanged(String folderName, List<EmailMessage> added, List<EmailMessage> changed,
+                           Set<Long> removedUids, int messageCount);
+    }
+
+    private final EmailCacheService cacheService;
+    private final ConnectionPool connectionPool;
+    private final EnvelopeLoader envelopeLoader = new EnvelopeLoader();
+    private final SearchIndex searchIndex = SearchIndex.getInstance();
+    private final Map<String, Watch> watches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "folder-watcher-events");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public FolderWatcher(EmailCacheService cacheService) {
+        this(cacheService, ConnectionPool.getInstance());
+    }
+
+    public FolderWatcher(EmailCacheService cacheService, ConnectionPool connectionPool) {
+        this.cacheService = cacheService;
+        this.connectionPool = connectionPool;
+    }
+
+    // Start watching a folder (replacing an earlier watch of the same folder). lowestUid is the oldest
+    // message the caller holds by UID: expunges from there up are reported by UID, older ones only
+    // through messageCount. 0 means the caller holds nothing by UID.
+    public void watch(String folderName, HostConfiguration config, long lowestUid, Listener listener) {
+        Watch watch = new Watch(folderName, config, lowestUid, listener);
+        Watch previous = watches.put(folderName, watch);
+        if (previous != null) {
+            previous.stop();
+        }
+        watch.thread.start();
+    }
+
+    public void unwatch(String folderName) {
+        Watch watch = watches.remove(folderName);
+        if (watch != null) {
+            watch.stop();
+        }
+    }
+
+    public void unwatchAll() {
+        for (String folderName : new ArrayList<>(watches.keySet())) {
+            unwatch(folderName);
+        }
+    }
+
+    public boolean isWatching(String folderName) {
+        return watches.containsKey(folderName);
+    }
+
+    // Forces a pending IDLE to end (any other command on the folder sends DONE first)
+    private static void noop(IMAPFolder folder) throws MessagingException {
+        folder.doCommand(protocol -> {
+            protocol.simpleCommand("NOOP", null);
+            return null;
+        });
+    }
+
+    /**
+     * One watched folder: a thread parked in IDLE plus the changes it has
+     * been notified about but not yet applied.
+     */
+    private class Watch implements Runnable, MessageCountListener, MessageChangedListener {
+        private final String folderName;
+        private final HostConfiguration config;
+        private final long lowestUid;
+        private final Listener listener;
+        private final Thread thread;
+
+        private volatile boolean stopped;
+        private volatile IMAPFolder folder;
+        private ScheduledFuture<?> keepAlive;
+
+        private final Set<Message> pendingAdded = new LinkedHashSet<>();
+        private final Set<Message> pendingChanged = new LinkedHashSet<>();
+        private final Set<Message> pendingRemoved = new LinkedHashSet<>();
+        private boolean flushScheduled;
+
+        Watch(String folderName, HostConfiguration config, long lowestUid, Listener listener) {
+            this.folderName = folderName;
+            this.config = config;
+            this.lowestUid = lowestUid;
+            this.listener = listener;
+            this.thread = new Thread(this, "folder-watcher-" + folderName);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            MailTaskExecutor.setThreadPriority(TaskPriority.BACKGROUND_SYNC);
+            while (!stopped) {
+                ConnectionPool.Lease lease = null;
+                try {
+                    lease = connectionPool.borrow(config);
+                    watchOn(lease);
+                } catch (Exception ex) {
+                    if (lease != null) {
+                        lease.invalidate();
+                    }
+                    if (!stopped) {
+                        System.err.println("Watching " + folderName + " failed, retrying: " + ex.getMessage());
+                        sleepQuietly(RETRY_DELAY_MS);
+                    }
+                } finally {
+                    if (lease != null) {
+                        lease.close();
+                    }
+                }
+            }
+        }
+
+        private void watchOn(ConnectionPool.Lease lease) throws MessagingException {
+            Folder opened = lease.openFolder(folderName, Folder.READ_ONLY);
+            if (!(opened instanceof IMAPFolder)) {
+                System.err.println("Not watching " + folderName + ": change notifications need IMAP");
+                stopped = true;
+                return;
+            }
+            IMAPFolder imapFolder = (IMAPFolder) opened;
+
+            // UIDs of expunged messages can only be read if they were fetched before the EXPUNGE.
+            // UID FETCH lowestUid:* covers the rows the caller holds; new mail gets its UID on arrival.
+            if (lowestUid > 0) {
+                FetchProfile uidProfile = new FetchProfile();
+                uidProfile.add(UIDFolder.FetchProfileItem.UID);
+                imapFolder.fetch(imapFolder.getMessagesByUID(lowestUid, UIDFolder.LASTUID), uidProfile);
+            }
+
+            imapFolder.addMessageCountListener(this);
+            imapFolder.addMessageChangedListener(this);
+            folder = imapFolder;
+            boolean idleSupported = ((IMAPStore) lease.getStore()).hasCapability("IDLE");
+            keepAlive = scheduler.scheduleWithFixedDelay(this::refresh, IDLE_REFRESH_MS, IDLE_REFRESH_MS,
+                    TimeUnit.MILLISECONDS);
+            try {
+                while (!stopped) {
+                    if (idleSupported) {
+                        imapFolder.idle(true);  // returns after the first notification or when interrupted by refresh()
+                    } else {
+                        sleepQuietly(POLL_INTERVAL_MS);
+                        if (!stopped) {
+                            noop(imapFolder);
+                        }
+                    }
+                    if (!imapFolder.isOpen()) {
+                        throw new FolderClosedException(imapFolder, "Folder closed while watching");
+                    }
+                }
+            } finally {
+                keepAlive.cancel(false);
+                folder = null;
+                imapFolder.removeMessageCountListener(this);
+                imapFolder.removeMessageChangedListener(this);
+            }
+        }
+
+        // Breaks the current IDLE so the loop re-issues it; also keeps the connection from timing out
+        private void refresh() {
+            IMAPFolder current = folder;
+            if (current == null) {
+                return;
+            }
+            try {
+                noop(current);
+            } catch (MessagingException ex) {
+                System.err.println("Keep-alive for " + folderName + " failed: " + ex.getMessage());
+            }
+        }
+
+        // Listener callbacks run on JavaMail's event thread: just record and coalesce
+        @Override
+        public void messagesAdded(MessageCountEvent e) {
+            enqueue(pendingAdded, e.getMessages());
+        }
+
+        @Override
+        public void messagesRemoved(MessageCountEvent e) {
+            enqueue(pendingRemoved, e.getMessages());
+        }
+
+        @Override
+        public void messageChanged(MessageChangedEvent e) {
+            if (e.getMessageChangeType() == MessageChangedEvent.FLAGS_CHANGED) {
+                enqueue(pendingChanged, new Message[]{e.getMessage()});
+            }
+        }
+
+        private void enqueue(Set<Message> pending, Message[] messages) {
+            synchronized (this) {
+                for (Message msg : messages) {
+                    pending.add(msg);
+                }
+                if (flushScheduled) {
+                    return;
+                }
+                flushScheduled = true;
+            }
+            scheduler.schedule(this::flush, COALESCE_MS, TimeUnit.MILLISECONDS);
+        }
+
+        private void flush() {
+            Set<Message> added;
+            Set<Message> changed;
+            List<Message> removed;
+            synchronized (this) {
+                flushScheduled = false;
+                added = new HashSet<>(pendingAdded);
+                changed = new LinkedHashSet<>(pendingAdded);
+                changed.addAll(pendingChanged);
+                removed = new ArrayList<>(pendingRemoved);
+                pendingAdded.clear();
+                pendingChanged.clear();
+                pendingRemoved.clear();
+            }
+            IMAPFolder current = folder;
+            if (stopped || current == null) {
+                return;
+            }
+
+            try {
+                Set<Long> removedUids = new HashSet<>();
+                for (Message msg : removed) {
+                    try {
+                        removedUids.add(current.getUID(msg));
+                    } catch (MessagingException ex) {
+                        // Never had its UID fetched; the next full sync will notice it is gone
+                    }
+                }
+
+                // One FETCH for all new and changed messages (this ends the running IDLE)
+                List<Message> live = new ArrayList<>();
+                for (Message msg : changed) {
+                    if (!msg.isExpunged()) {
+                        live.add(msg);
+                    }
+                }
+                List<EmailMessage> emails = envelopeLoader.load(config.getAccountId(), current,
+                        live.toArray(new Message[0]));
+                Set<Long> addedUids = new HashSet<>();
+                for (Message msg : live) {
+                    if (msg.getFlags().contains(Flags.Flag.DELETED)) {
+                        removedUids.add(current.getUID(msg));
+                    } else if (added.contains(msg)) {
+                        addedUids.add(current.getUID(msg));
+                    }
+                }
+                List<EmailMessage> newMail = new ArrayList<>();
+                List<EmailMessage> flagged = new ArrayList<>();
+                for (EmailMessage email : emails) {
+                    if (addedUids.contains(email.getUid())) {
+                        newMail.add(email);
+                    } else {
+                        flagged.add(email);
+                    }
+                }
+
+                applyToCache(current, emails, removedUids);
+                searchIndex.addEnvelopes(config.getAccountId(), emails);
+                listener.folderChanged(folderName, newMail, flagged, removedUids, current.getMessageCount());
+            } catch (MessagingException ex) {
+                System.err.println("Failed to apply changes to " + folderName + ": " + ex.getMessage());
+            }
+        }
+
+        // Only folders that FolderSync already caches are updated, and the sync checkpoint moves with them.
+        // The cache holds the newest synced messages: changes to older ones are left to the window cache,
+        // otherwise a flag change deep in the folder would become a cached envelope out of UID order.
+        private void applyToCache(IMAPFolder current, List<EmailMessage> emails, Set<Long> removedUids)
+                throws MessagingException {
+            FolderSyncState state = cacheService.loadSyncState(folderName);
+            if (state == null || state.getUidValidity() != current.getUIDValidity()) {
+                removeFromSearchIndex(removedUids, null);
+                return;
+            }
+            Map<Long, EmailMessage> cached = new HashMap<>();
+            for (EmailMessage email : cacheService.loadEmails(folderName)) {
+                cached.put(email.getUid(), email);
+            }
+            // Expunged messages are known by UID only; the cached envelopes give their Message-IDs
+            removeFromSearchIndex(removedUids, cached);
+
+            long highestUid = state.getHighestUid();
+            List<EmailMessage> toWrite = new ArrayList<>();
+            for (EmailMessage email : emails) {
+                if (cached.containsKey(email.getUid()) || email.getUid() > state.getHighestUid()) {
+                    toWrite.add(email);
+                    highestUid = Math.max(highestUid, email.getUid());
+                }
+            }
+            Set<Long> toRemove = new HashSet<>(removedUids);
+            toRemove.retainAll(cached.keySet());
+            if (!toWrite.isEmpty() || !toRemove.isEmpty()) {
+                cacheService.applyDelta(folderName, toWrite, toRemove);
+            }
+
+            state.setHighestUid(highestUid);
+            state.setMessageCount(current.getMessageCount());
+            state.setLastSyncTime(System.currentTimeMillis());
+            cacheService.saveSyncState(folderName, state);
+        }
+
+        private void removeFromSearchIndex(Set<Long> removedUids, Map<Long, EmailMessage> cached) {
+            if (removedUids.isEmpty()) {
+                return;
+            }
+            if (cached == null) {
+                cached = new HashMap<>();
+                for (EmailMessage email : cacheService.loadEmails(folderName)) {
+                    cached.put(email.getUid(), email);
+                }
+            }
+            for (long uid : removedUids) {
+                EmailMessage email = cached.get(uid);
+                if (email != null && email.getMessageId() != null) {
+                    searchIndex.remove(config.getAccountId(), folderName, email.getMessageId());
+                }
+            }
+        }
+
+        private void stop() {
+            stopped = true;
+            thread.interrupt();  // wakes the NOOP poll sleep
+            scheduler.execute(this::refresh);  // ends a running IDLE
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,8 +1,8 @@
 package service;
 
 import java.io.*;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import model.HostConfiguration;
 
 public class HostConfigManager {
@@ -11,11 +11,16 @@ public class HostConfigManager {
     private HostConfiguration currentHost;
 
     public HostConfigManager() {
-        this.savedHosts = new ArrayList<>();
+        // Read by background sync while the settings dialog may add to it
+        this.savedHosts = new CopyOnWriteArrayList<>();
     }
 
+    // Saving settings for an account that is already known replaces its entry
     public void addHost(HostConfiguration host) {
-        if (!savedHosts.contains(host)) {
+        int index = indexOfAccount(host);
+        if (index >= 0) {
+            savedHosts.set(index, host);
+        } else {
             savedHosts.add(host);
         }
     }
@@ -30,9 +35,25 @@ public class HostConfigManager {
 
     public void setCurrentHost(HostConfiguration host) {
         this.currentHost = host;
-        if (!savedHosts.contains(host)) {
-            savedHosts.add(host);
+        addHost(host);
+    }
+
+    public HostConfiguration findHost(String accountId) {
+        for (HostConfiguration host : savedHosts) {
+            if (host.getAccountId().equals(accountId)) {
+                return host;
+            }
+        }
+        return null;
+    }
+
+    private int indexOfAccount(HostConfiguration host) {
+        for (int i = 0; i < savedHosts.size(); i++) {
+            if (savedHosts.get(i) == host || savedHosts.get(i).getAccountId().equals(host.getAccountId())) {
+                return i;
+            }
         }
+        return -1;
     }
 
     public void saveToFile(String filepath) throws Exception {
@@ -49,7 +70,7 @@ public class HostConfigManager {
         }
 
         try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(filepath))) {
-            savedHosts = (List<HostConfiguration>) in.readObject();
+            savedHosts = new CopyOnWriteArrayList<>((List<HostConfiguration>) in.readObject());
             if (!savedHosts.isEmpty()) {
                 currentHost = savedHosts.get(0);
             }
@@ -0,0 +1,273 @@
+package service;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import model.HostConfiguration;
+
+/**
+ * Runs mail work (folder loads, body fetches, deletes, sends) on virtual
+ * threads. Tasks for one account run at most MAX_CONNECTIONS_PER_SERVER at a
+ * time; the rest wait in line by TaskPriority. Cancelling a handle interrupts its thread,
+ * which on a virtual thread closes the socket of a blocked IMAP read, so the
+ * server call stops right away; the pool then discards that connection.
+ */
+public class MailTaskExecutor {
+
+    private static final MailTaskExecutor INSTANCE = new MailTaskExecutor(ConnectionPool.MAX_CONNECTIONS_PER_SERVER);
+    private static final ThreadLocal<TaskHandle> CURRENT = new ThreadLocal<>();
+    // Priority of long-lived threads outside the executor (IDLE watcher)
+    private static final ThreadLocal<TaskPriority> THREAD_PRIORITY =
+            ThreadLocal.withInitial(() -> TaskPriority.FOLDER_OPEN);
+
+    public interface MailTask {
+        void run() throws Exception;
+    }
+
+    private final int maxConcurrentPerAccount;
+    private final ExecutorService threads = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("mail-task-", 0).factory());
+    private final Map<String, PriorityGate> accountPermits = new ConcurrentHashMap<>();
+    private final Set<TaskHandle> active = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    public MailTaskExecutor(int maxConcurrentPerAccount) {
+        this.maxConcurrentPerAccount = maxConcurrentPerAccount;
+    }
+
+    public static MailTaskExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    // Call first thing in main, before any virtual thread exists. JavaMail does its socket I/O inside
+    // synchronized blocks, which pins a virtual thread to its carrier; without enough carriers a few
+    // slow server calls would stall every other mail task. An explicit -D setting is kept.
+    public static void configureCarrierThreads() {
+        if (System.getProperty("jdk.virtualThreadScheduler.parallelism") == null) {
+            int carriers = Math.max(Runtime.getRuntime().availableProcessors(), 4 * ConnectionPool.MAX_CONNECTIONS_PER_SERVER);
+            System.setProperty("jdk.virtualThreadScheduler.parallelism", String.valueOf(carriers));
+        }
+    }
+
+    // True if the task running on this thread was cancelled (false outside tasks)
+    public static boolean isCancelled() {
+        TaskHandle task = CURRENT.get();
+        return task != null && task.isCancelled();
+    }
+
+    // Priority of the work running on this thread; ConnectionPool orders its waiters by it
+    public static TaskPriority currentPriority() {
+        TaskHandle task = CURRENT.get();
+        return task != null ? task.priority : THREAD_PRIORITY.get();
+    }
+
+    public static void setThreadPriority(TaskPriority priority) {
+        THREAD_PRIORITY.set(priority);
+    }
+
+    // Run work that talks to this account's server; config may be null for local-only work.
+    // Waiting tasks start highest priority first (FIFO within a priority), and background
+    // priorities never occupy the last slot of an account.
+    public TaskHandle submit(HostConfiguration config, TaskPriority priority, String name, MailTask task) {
+        PriorityGate permits = config != null
+                ? accountPermits.computeIfAbsent(accountKey(config), key -> new PriorityGate(maxConcurrentPerAccount, 1))
+                : null;
+        TaskHandle handle = new TaskHandle(name, priority);
+        active.add(handle);
+        submitted.incrementAndGet();
+        queued.incrementAndGet();
+        threads.execute(() -> run(handle, permits, task));
+        return handle;
+    }
+
+    private void run(TaskHandle handle, PriorityGate permits, MailTask task) {
+        handle.thread = Thread.currentThread();
+        CURRENT.set(handle);
+        boolean waiting = true;
+        boolean acquired = false;
+        try {
+            if (handle.isCancelled()) {
+                return;
+            }
+            if (permits != null) {
+                permits.acquire(handle.priority);
+                acquired = true;
+            }
+            queued.decrementAndGet();
+            waiting = false;
+            running.incrementAndGet();
+            try {
+                if (!handle.isCancelled()) {
+                    task.run();
+                }
+            } finally {
+                running.decrementAndGet();
+            }
+            if (!handle.isCancelled()) {
+                completed.incrementAndGet();
+            }
+        } catch (InterruptedException ex) {
+            // Cancelled while waiting for a slot
+        } catch (Exception ex) {
+            if (!handle.isCancelled()) {
+                failed.incrementAndGet();
+                System.err.println("Mail task '" + handle.name + "' failed: " + ex.getMessage());
+                ex.printStackTrace();
+            }
+        } finally {
+            if (waiting) {
+                queued.decrementAndGet();
+            }
+            if (acquired) {
+                permits.release(handle.priority);
+            }
+            if (handle.isCancelled()) {
+                cancelled.incrementAndGet();
+            }
+            handle.done = true;
+            active.remove(handle);
+            CURRENT.remove();
+        }
+    }
+
+    public void shutdown() {
+        for (TaskHandle handle : active) {
+            handle.cancel();
+        }
+        threads.shutdown();
+    }
+
+    public Stats getStats() {
+        int[] queuedByPriority = new int[TaskPriority.values().length];
+        for (PriorityGate gate : accountPermits.values()) {
+            for (TaskPriority priority : TaskPriority.values()) {
+                queuedByPriority[priority.ordinal()] += gate.getWaiting(priority);
+            }
+        }
+        return new Stats(queued.get(), running.get(), submitted.get(), completed.get(), failed.get(), cancelled.get(),
+                queuedByPriority);
+    }
+
+    private static String accountKey(HostConfiguration config) {
+        return config.getAccountId();
+    }
+
+    /**
+     * A submitted task. cancel() is safe to call from any thread, any number of times.
+     */
+    public static class TaskHandle {
+        private final String name;
+        private final TaskPriority priority;
+        private volatile boolean cancelledFlag;
+        private volatile boolean done;
+        private volatile Thread thread;
+
+        private TaskHandle(String name, TaskPriority priority) {
+            this.name = name;
+            this.priority = priority;
+        }
+
+        public void cancel() {
+            if (done || cancelledFlag) {
+                return;
+            }
+            cancelledFlag = true;
+            Thread running = thread;
+            if (running != null) {
+                running.interrupt();
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelledFlag;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public TaskPriority getPriority() {
+            return priority;
+        }
+    }
+
+    /**
+     * Snapshot of executor counters.
+     */
+    public static class Stats {
+        private final int queued;
+        private final int running;
+        private final long submitted;
+        private final long completed;
+        private final long failed;
+        private final long cancelled;
+        private final int[] queuedByPriority;
+
+        Stats(int queued, int running, long submitted, long completed, long failed, long cancelled,
+              int[] queuedByPriority) {
+            this.queued = queued;
+            this.running = running;
+            this.submitted = submitted;
+            this.completed = completed;
+            this.failed = failed;
+            this.cancelled = cancelled;
+            this.queuedByPriority = queuedByPriority;
+        }
+
+        // Tasks waiting for a free slot on their account
+        public int getQueueDepth() {
+            return queued;
+        }
+
+        public int getQueueDepth(TaskPriority priority) {
+            return queuedByPriority[priority.ordinal()];
+        }
+
+        public int getRunning() {
+            return running;
+        }
+
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public String toString() {
+            return "MailTaskExecutor.Stats{" +
+                    "queued=" + queued + " " + Arrays.toString(queuedByPriority) +
+                    ", running=" + running +
+                    ", submitted=" + submitted +
+                    ", completed=" + completed +
+                    ", failed=" + failed +
+                    ", cancelled=" + cancelled +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package service;
+
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import model.EmailMessage;
+
+/**
+ * K-way merge of envelope sequences that are each newest first into one
+ * newest-first sequence by date. Sources are usually caches read in
+ * descending UID (arrival) order. Only the head of every source is held, so
+ * taking the first page of a merged view costs O(page * log k) no matter how
+ * long the sources are. Messages without a date sort last.
+ */
+public class MergedEnvelopeIterator implements Iterator<EmailMessage> {
+
+    private final PriorityQueue<Source> heads = new PriorityQueue<>();
+
+    public MergedEnvelopeIterator(List<Iterator<EmailMessage>> sources) {
+        for (int i = 0; i < sources.size(); i++) {
+            Source source = new Source(sources.get(i), i);
+            if (source.advance()) {
+                heads.add(source);
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heads.isEmpty();
+    }
+
+    @Override
+    public EmailMessage next() {
+        Source source = heads.poll();
+        if (source == null) {
+            throw new NoSuchElementException();
+        }
+        EmailMessage email = source.head;
+        if (source.advance()) {
+            heads.add(source);
+        }
+        return email;
+    }
+
+    private static class Source implements Comparable<Source> {
+        private final Iterator<EmailMessage> iterator;
+        private final int order;  // ties go to the earlier source, keeping the merge stable
+        private EmailMessage head;
+
+        Source(Iterator<EmailMessage> iterator, int order) {
+            this.iterator = iterator;
+            this.order = order;
+        }
+
+        boolean advance() {
+            head = iterator.hasNext() ? iterator.next() : null;
+            return head != null;
+        }
+
+        @Override
+        public int compareTo(Source other) {
+            LocalDateTime mine = head.getSentDate();
+            LocalDateTime theirs = other.head.getSentDate();
+            int byDate;
+            if (mine == null || theirs == null) {
+                byDate = mine == null ? (theirs == null ? 0 : 1) : -1;
+            } else {
+                byDate = theirs.compareTo(mine);  // newest first
+            }
+            return byDate != 0 ? byDate : Integer.compare(order, other.order);
+        }
+    }
+}
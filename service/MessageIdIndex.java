@@ -0,0 +1,196 @@
+package service;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import model.EmailMessage;
+
+/**
+ * Persistent Message-ID -> UID map per account and folder, filled from every
+ * envelope fetch, so a message can be opened with UID FETCH instead of a
+ * server-side SEARCH on the Message-ID header (a linear scan on many servers).
+ * Accounts are kept apart (HostConfiguration.getAccountId()): every account
+ * has an INBOX, and UIDs of one mean nothing in another.
+ *
+ * Each folder is an append-only log: header (magic, UIDVALIDITY), then
+ * [op][Message-ID][uid] records. A changed UIDVALIDITY starts the folder over;
+ * the log is rewritten once it is mostly superseded records. Logs are only
+ * open while a batch is appended, so a sync over many folders does not hold
+ * a file per folder.
+ */
+public class MessageIdIndex {
+
+    private static final String INDEX_DIR = "message_id_index";
+    private static final MessageIdIndex INSTANCE = new MessageIdIndex(DataDirectory.resolve(INDEX_DIR));
+
+    private static final int MAGIC = 0x4D494458;  // "MIDX"
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final int MIN_RECORDS_FOR_COMPACTION = 1024;
+
+    private final File directory;
+    private final Map<String, FolderIds> folders = new HashMap<>();
+
+    public MessageIdIndex(File directory) {
+        this.directory = directory;
+    }
+
+    public static MessageIdIndex getInstance() {
+        return INSTANCE;
+    }
+
+    // Remember where these envelopes live; called for every bulk envelope fetch
+    public synchronized void record(String accountId, String folderName, long uidValidity,
+                                    List<EmailMessage> emails) {
+        FolderIds ids = open(accountId, folderName, uidValidity);
+        List<EmailMessage> changed = new ArrayList<>();
+        for (EmailMessage email : emails) {
+            if (email == null || email.getMessageId() == null || email.getUid() <= 0) {
+                continue;
+            }
+            Long previous = ids.uids.put(email.getMessageId(), email.getUid());
+            if (previous == null || previous != email.getUid()) {
+                changed.add(email);
+            }
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+        try (DataOutputStream out = ids.append()) {
+            for (EmailMessage email : changed) {
+                write(out, OP_PUT, email.getMessageId(), email.getUid());
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to update Message-ID index for " + folderName + ": " + e.getMessage());
+            folders.remove(key(accountId, folderName));
+        }
+    }
+
+    // UID of the message in this folder, or -1 if it was never indexed (or UIDVALIDITY changed)
+    public synchronized long lookupUid(String accountId, String folderName, long uidValidity, String messageId) {
+        if (messageId == null) {
+            return -1;
+        }
+        Long uid = open(accountId, folderName, uidValidity).uids.get(messageId);
+        return uid != null ? uid : -1;
+    }
+
+    // Drop an entry that turned out to be stale (message expunged or moved)
+    public synchronized void remove(String accountId, String folderName, String messageId) {
+        FolderIds ids = folders.get(key(accountId, folderName));
+        if (ids == null || messageId == null || ids.uids.remove(messageId) == null) {
+            return;
+        }
+        try (DataOutputStream out = ids.append()) {
+            write(out, OP_REMOVE, messageId, 0);
+        } catch (IOException e) {
+            System.err.println("Failed to update Message-ID index for " + folderName + ": " + e.getMessage());
+        }
+    }
+
+    public synchronized int size(String accountId, String folderName) {
+        FolderIds ids = folders.get(key(accountId, folderName));
+        return ids != null ? ids.uids.size() : 0;
+    }
+
+    // Forget what was loaded; every log is read again on next use
+    public synchronized void close() {
+        folders.clear();
+    }
+
+    private static String key(String accountId, String folderName) {
+        return accountId + "\n" + folderName;
+    }
+
+    private static String fileName(String name) {
+        return name.replaceAll("[^a-zA-Z0-9.-]", "_");
+    }
+
+    private FolderIds open(String accountId, String folderName, long uidValidity) {
+        FolderIds ids = folders.get(key(accountId, folderName));
+        if (ids != null && ids.uidValidity == uidValidity) {
+            return ids;
+        }
+
+        File file = new File(new File(directory, fileName(accountId)), fileName(folderName) + ".log");
+        ids = new FolderIds(uidValidity, file);
+        int records = 0;
+        boolean usable = false;
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                usable = in.readInt() == MAGIC && in.readLong() == uidValidity;
+                while (usable) {
+                    byte op = in.readByte();
+                    String messageId = in.readUTF();
+                    long uid = in.readLong();
+                    if (op == OP_PUT) {
+                        ids.uids.put(messageId, uid);
+                    } else {
+                        ids.uids.remove(messageId);
+                    }
+                    records++;
+                }
+            } catch (EOFException e) {
+                // End of log (a torn last record from a crash is dropped with it)
+            } catch (IOException e) {
+                System.err.println("Failed to read Message-ID index " + file + ": " + e.getMessage());
+                usable = false;
+            }
+        }
+        if (!usable) {
+            ids.uids.clear();
+        }
+
+        try {
+            if (!usable || (records > MIN_RECORDS_FOR_COMPACTION && records > 2 * ids.uids.size())) {
+                rewrite(file, ids);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to open Message-ID index " + file + ": " + e.getMessage());
+            ids.file = null;  // in memory only
+        }
+        folders.put(key(accountId, folderName), ids);
+        return ids;
+    }
+
+    // Fresh log with only the live entries (also used to start over after a UIDVALIDITY change)
+    private void rewrite(File file, FolderIds ids) throws IOException {
+        file.getParentFile().mkdirs();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(ids.uidValidity);
+            for (Map.Entry<String, Long> entry : ids.uids.entrySet()) {
+                write(out, OP_PUT, entry.getKey(), entry.getValue());
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void write(DataOutputStream out, byte op, String messageId, long uid) throws IOException {
+        out.writeByte(op);
+        out.writeUTF(messageId);
+        out.writeLong(uid);
+    }
+
+    private static class FolderIds {
+        private final long uidValidity;
+        private final Map<String, Long> uids = new HashMap<>();
+        private File file;  // null if the log could not be written
+
+        FolderIds(long uidValidity, File file) {
+            this.uidValidity = uidValidity;
+            this.file = file;
+        }
+
+        // Opened per batch and closed by the caller
+        DataOutputStream append() throws IOException {
+            OutputStream target = file != null ? new FileOutputStream(file, true) : OutputStream.nullOutputStream();
+            return new DataOutputStream(new BufferedOutputStream(target));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package service;
+
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.protocol.BODYSTRUCTURE;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeUtility;
+import model.AttachmentInfo;
+
+/**
+ * The MIME tree of a server-side message as described by its BODYSTRUCTURE,
+ * split into the text parts worth displaying (one per multipart/alternative,
+ * plain text preferred) and the attachments. Reading it costs one small
+ * FETCH; no part content is downloaded.
+ */
+public class MessageStructure {
+
+    private final List<TextPart> textParts = new ArrayList<>();
+    private final List<AttachmentInfo> attachments = new ArrayList<>();
+    private final String folderName;
+    private final long uidValidity;
+    private final long uid;
+
+    private MessageStructure(String folderName, long uidValidity, long uid) {
+        this.folderName = folderName;
+        this.uidValidity = uidValidity;
+        this.uid = uid;
+    }
+
+    public static MessageStructure fetch(IMAPFolder folder, Message message) throws MessagingException {
+        int messageNumber = message.getMessageNumber();
+        BODYSTRUCTURE root;
+        MetricsRegistry.Timing timing = MetricsRegistry.getInstance().start("imap.fetch.structure");
+        try {
+            root = (BODYSTRUCTURE) folder.doCommand(protocol -> protocol.fetchBodyStructure(messageNumber));
+        } finally {
+            timing.stop();
+        }
+        MessageStructure structure = new MessageStructure(folder.getFullName(), folder.getUIDValidity(),
+                folder.getUID(message));
+        if (root != null) {
+            // A single-part message has its content in section 1
+            structure.walk(root, root.isMulti() ? "" : "1");
+        }
+        return structure;
+    }
+
+    // Text parts to show, in display order
+    public List<TextPart> getTextParts() {
+        return Collections.unmodifiableList(textParts);
+    }
+
+    public List<AttachmentInfo> getAttachments() {
+        return Collections.unmodifiableList(attachments);
+    }
+
+    private void walk(BODYSTRUCTURE part, String section) {
+        if (part.isMulti()) {
+            if ("alternative".equalsIgnoreCase(part.subtype)) {
+                int best = bestAlternative(part);
+                if (best >= 0) {
+                    walk(part.bodies[best], child(section, best));
+                }
+                return;
+            }
+            for (int i = 0; i < part.bodies.length; i++) {
+                walk(part.bodies[i], child(section, i));
+            }
+            return;
+        }
+
+        String fileName = part.dParams != null ? part.dParams.get("filename") : null;
+        if (fileName == null && part.cParams != null) {
+            fileName = part.cParams.get("name");
+        }
+        // Text parts without a file name are the message body; everything else can be saved
+        boolean attachment = "attachment".equalsIgnoreCase(part.disposition) || fileName != null
+                || !"text".equalsIgnoreCase(part.type);
+        if (!attachment) {
+            textParts.add(new TextPart(section, part));
+            return;
+        }
+
+        if (fileName == null) {
+            fileName = "part-" + section + (part.isNested() ? ".eml" : "");
+        }
+        try {
+            fileName = MimeUtility.decodeText(fileName);
+        } catch (UnsupportedEncodingException e) {
+            // Keep the raw name
+        }
+        AttachmentInfo info = new AttachmentInfo();
+        info.setFolder(folderName);
+        info.setUidValidity(uidValidity);
+        info.setUid(uid);
+        info.setSection(section);
+        info.setFileName(fileName);
+        info.setMimeType((part.type + "/" + part.subtype).toLowerCase());
+        info.setEncoding(part.encoding != null ? part.encoding.toLowerCase() : "7bit");
+        info.setSize(Math.max(part.size, 0));
+        attachments.add(info);
+    }
+
+    // text/plain, else text/html, else a nested multipart (e.g. multipart/related holding the HTML)
+    private static int bestAlternative(BODYSTRUCTURE alternative) {
+        int html = -1;
+        int multi = -1;
+        for (int i = 0; i < alternative.bodies.length; i++) {
+            BODYSTRUCTURE candidate = alternative.bodies[i];
+            if (candidate.isMulti()) {
+                multi = multi < 0 ? i : multi;
+            } else if ("text".equalsIgnoreCase(candidate.type) && "plain".equalsIgnoreCase(candidate.subtype)) {
+                return i;
+            } else if ("text".equalsIgnoreCase(candidate.type) && "html".equalsIgnoreCase(candidate.subtype)) {
+                html = html < 0 ? i : html;
+            }
+        }
+        return html >= 0 ? html : multi;
+    }
+
+    private static String child(String section, int index) {
+        return section.isEmpty() ? String.valueOf(index + 1) : section + "." + (index + 1);
+    }
+
+    /**
+     * A displayable text part: where it is and how to decode it.
+     */
+    public static class TextPart {
+        private final String section;
+        private final String mimeType;
+        private final String charset;
+        private final String encoding;
+        private final long size;
+
+        TextPart(String section, BODYSTRUCTURE part) {
+            this.section = section;
+            this.mimeType = (part.type + "/" + part.subtype).toLowerCase();
+            this.charset = part.cParams != null ? part.cParams.get("charset") : null;
+            this.encoding = part.encoding != null ? part.encoding.toLowerCase() : "7bit";
+            this.size = Math.max(part.size, 0);
+        }
+
+        public String getSection() {
+            return section;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        // Declared charset, or null if the part did not name one
+        public String getCharset() {
+            return charset;
+        }
+
+        public String getEncoding() {
+            return encoding;
+        }
+
+        // Encoded size on the server in bytes
+        public long getSize() {
+            return size;
+        }
+    }
+}
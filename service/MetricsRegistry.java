@@ -0,0 +1,204 @@
+package service;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Latency histograms and counters for every mail operation, split by phase
+ * (imap.connect, imap.select, imap.search, imap.fetch, mime.parse,
+ * cache.read, cache.write, smtp.connect, smtp.send) and per whole operation
+ * (op.*). Failures of an operation are counted as "&lt;name&gt;.errors".
+ * Every metric is also published over JMX under "EmailClient:type=...", and
+ * the stats objects of the pools and caches can be registered alongside.
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+    private static final String JMX_DOMAIN = "EmailClient";
+
+    public interface LatencyMXBean {
+        long getCount();
+
+        double getMeanMillis();
+
+        double getP50Millis();
+
+        double getP90Millis();
+
+        double getP99Millis();
+
+        double getMaxMillis();
+    }
+
+    public interface CounterMXBean {
+        long getCount();
+    }
+
+    public interface StatsMXBean {
+        String getSummary();
+    }
+
+    public interface Work<T> {
+        T run() throws Exception;
+    }
+
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Supplier<?>> stats = new ConcurrentHashMap<>();
+    private volatile boolean jmxEnabled = true;
+
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram != null) {
+            return histogram;
+        }
+        return histograms.computeIfAbsent(name, key -> {
+            LatencyHistogram created = new LatencyHistogram(key);
+            export("Latency", key, created, LatencyMXBean.class);
+            return created;
+        });
+    }
+
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter != null) {
+            return counter;
+        }
+        return counters.computeIfAbsent(name, key -> {
+            Counter created = new Counter();
+            export("Counter", key, created, CounterMXBean.class);
+            return created;
+        });
+    }
+
+    // Time a block: Timing timing = metrics.start("imap.fetch"); try { ... } finally { timing.stop(); }
+    public Timing start(String name) {
+        return new Timing(histogram(name));
+    }
+
+    // Time work and count it under name.errors if it throws
+    public <T> T time(String name, Work<T> work) throws Exception {
+        LatencyHistogram histogram = histogram(name);
+        long start = System.nanoTime();
+        try {
+            return work.run();
+        } catch (Exception ex) {
+            counter(name + ".errors").increment();
+            throw ex;
+        } finally {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    // Show a component's own stats (e.g. ConnectionPool.getStats) next to the metrics
+    public void registerStats(String name, Supplier<?> source) {
+        if (stats.put(name, source) == null) {
+            exportStats(name, source);
+        }
+    }
+
+    private void exportStats(String name, Supplier<?> source) {
+        export("Stats", name, (StatsMXBean) () -> String.valueOf(source.get()), StatsMXBean.class);
+    }
+
+    // Starting the platform MBean server costs about half a second, too much for short command-line
+    // runs. Metrics keep working without it; turning it back on exports everything recorded so far.
+    public void setJmxEnabled(boolean enabled) {
+        jmxEnabled = enabled;
+        if (enabled) {
+            histograms.forEach((name, histogram) -> export("Latency", name, histogram, LatencyMXBean.class));
+            counters.forEach((name, counter) -> export("Counter", name, counter, CounterMXBean.class));
+            stats.forEach((name, source) -> exportStats(name, source));
+        }
+    }
+
+    public Map<String, LatencyHistogram> getHistograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    public Map<String, Long> getCounters() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getCount());
+        }
+        return values;
+    }
+
+    public Map<String, String> getStats() {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (Map.Entry<String, Supplier<?>> entry : new TreeMap<>(stats).entrySet()) {
+            values.put(entry.getKey(), String.valueOf(entry.getValue().get()));
+        }
+        return values;
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+        for (Counter counter : counters.values()) {
+            counter.value.reset();
+        }
+    }
+
+    private <T> void export(String type, String name, T bean, Class<T> mxBeanInterface) {
+        if (!jmxEnabled) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(new StandardMBean(bean, mxBeanInterface, true), objectName);
+            }
+        } catch (Exception e) {
+            // Metrics still work in-process without JMX
+            System.err.println("Could not export metric " + name + " over JMX: " + e.getMessage());
+        }
+    }
+
+    public static class Counter implements CounterMXBean {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        @Override
+        public long getCount() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * One timed block; the elapsed time is recorded on stop().
+     */
+    public static class Timing {
+        private final LatencyHistogram histogram;
+        private final long start = System.nanoTime();
+
+        private Timing(LatencyHistogram histogram) {
+            this.histogram = histogram;
+        }
+
+        public void stop() {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,530 @@
+package service;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.mail.Address;
+import javax.mail.SendFailedException;
+import javax.mail.internet.MimeMessage;
+import model.EmailMessage;
+import model.HostConfiguration;
+
+/**
+ * Durable outbox. enqueue() writes the complete MIME message to a spool
+ * directory and returns; worker threads deliver spooled messages over pooled
+ * SMTP connections, retrying transient failures with exponential backoff.
+ * Spooled messages survive restarts. Delivery is at-least-once: a crash
+ * between the server's acceptance and the spool cleanup resends the message.
+ *
+ * Each entry is <id>.eml (the message) plus <id>.meta (account, attempts,
+ * next attempt time); the meta file is written last and is the commit point.
+ */
+public class OutboxService {
+
+    private static final String OUTBOX_DIR = "outbox";
+    private static final String FAILED_DIR = "failed";
+    public static final int DEFAULT_WORKERS = 2;
+
+    private static final int META_MAGIC = 0x4F425831;  // "OBX1"
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long BASE_RETRY_DELAY_MS = 30_000;
+    private static final long MAX_RETRY_DELAY_MS = 60 * 60_000;
+    // Entry for another account than the configured one: look again later without using up attempts
+    private static final long ACCOUNT_MISMATCH_DELAY_MS = 60_000;
+    private static final long THROUGHPUT_WINDOW_MS = 60_000;
+
+    public interface Listener {
+        // Called on a worker thread
+        void messageSent(String subject, List<String> recipients);
+
+        // Given up: rejected by the server or out of attempts; the message stays in outbox/failed
+        void messageFailed(String subject, List<String> recipients, Exception error);
+    }
+
+    private final File directory;
+    private final File failedDirectory;
+    private final EmailService emailService;
+    private final SmtpTransportPool smtpPool;
+    private final int workerCount;
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile Listener listener;
+    private volatile boolean running;
+
+    // Entries waiting for (re)delivery, earliest attempt first
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>((a, b) -> a.nextAttemptAt != b.nextAttemptAt
+            ? Long.compare(a.nextAttemptAt, b.nextAttemptAt) : a.id.compareTo(b.id));
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final AtomicLong idSequence = new AtomicLong();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failedAttempts = new AtomicLong();
+    private final AtomicLong permanentlyFailed = new AtomicLong();
+    private final Deque<Long> recentDeliveries = new ArrayDeque<>();
+
+    public OutboxService(EmailService emailService) {
+        this(new File(OUTBOX_DIR), emailService, DEFAULT_WORKERS);
+    }
+
+    public OutboxService(File directory, EmailService emailService, int workerCount) {
+        this.directory = directory;
+        this.failedDirectory = new File(directory, FAILED_DIR);
+        this.emailService = emailService;
+        this.smtpPool = SmtpTransportPool.getInstance();
+        this.workerCount = workerCount;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Reload whatever an earlier run left in the spool and start the delivery workers
+    public void start() {
+        directory.mkdirs();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(".meta")) {
+                    loadEntry(name.substring(0, name.length() - ".meta".length()));
+                } else if (name.endsWith(".eml") && !metaFile(name.substring(0, name.length() - 4)).exists()) {
+                    file.delete();  // crashed before enqueue() returned: never reported as queued
+                } else if (name.endsWith(".tmp")) {
+                    file.delete();
+                }
+            }
+        }
+
+        running = true;
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::deliverLoop, "outbox-worker-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    // Stop the workers; undelivered messages stay spooled for the next start
+    public void shutdown() {
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        workers.clear();
+    }
+
+    // Spool a message for delivery with this account; returns once it is safely on disk
+    public void enqueue(EmailMessage message, HostConfiguration config) throws Exception {
+        spool(emailService.createMimeMessage(message, config), message.getSubject(), message.getTo(), config);
+    }
+
+    // Spool a ready-made message (e.g. an .eml file written by another program); it goes to all of its
+    // To/Cc/Bcc recipients as is
+    public void enqueue(MimeMessage mime, HostConfiguration config) throws Exception {
+        List<String> recipients = new ArrayList<>();
+        Address[] addresses = mime.getAllRecipients();
+        if (addresses != null) {
+            for (Address address : addresses) {
+                recipients.add(address.toString());
+            }
+        }
+        spool(mime, mime.getSubject(), recipients, config);
+    }
+
+    private void spool(MimeMessage mime, String subject, List<String> recipients, HostConfiguration config)
+            throws Exception {
+        Entry entry = new Entry(System.currentTimeMillis() + "-" + idSequence.incrementAndGet());
+        entry.account = accountKey(config);
+        entry.subject = subject != null ? subject : "";
+        entry.recipients = new ArrayList<>(recipients);
+        entry.nextAttemptAt = System.currentTimeMillis();
+
+        directory.mkdirs();
+        File tmp = new File(directory, entry.id + ".eml.tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+            mime.writeTo(out);
+        }
+        Files.move(tmp.toPath(), emlFile(entry.id).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        writeMeta(entry);
+
+        enqueued.incrementAndGet();
+        lock.lock();
+        try {
+            queue.add(entry);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void deliverLoop() {
+        SmtpTransportPool.Lease lease = null;
+        try {
+            while (running) {
+                // Keep the connection while more mail is due; give it back once the queue runs dry
+                Entry entry = pollDue();
+                if (entry == null) {
+                    if (lease != null) {
+                        lease.close();
+                        lease = null;
+                    }
+                    entry = takeDue();
+                }
+                try {
+                    lease = deliver(entry, lease);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }
+        } catch (InterruptedException ex) {
+            // Shutting down
+        } finally {
+            if (lease != null) {
+                lease.close();
+            }
+        }
+    }
+
+    // Returns the lease to keep using (null if it had to be given up)
+    private SmtpTransportPool.Lease deliver(Entry entry, SmtpTransportPool.Lease lease) {
+        HostConfiguration config = emailService.getHostConfiguration();
+        if (config == null || !accountKey(config).equals(entry.account)) {
+            reschedule(entry, ACCOUNT_MISMATCH_DELAY_MS);
+            return lease;
+        }
+
+        try {
+            if (lease != null && lease.isExhausted()) {
+                lease.close();
+                lease = null;
+            }
+            if (lease == null) {
+                lease = smtpPool.borrow(config);
+            }
+            MimeMessage mime;
+            try (InputStream in = new BufferedInputStream(new FileInputStream(emlFile(entry.id)))) {
+                mime = new MimeMessage(lease.getSession(), in);
+            }
+            lease.send(mime);
+
+            emlFile(entry.id).delete();
+            metaFile(entry.id).delete();
+            sent.incrementAndGet();
+            synchronized (recentDeliveries) {
+                recentDeliveries.addLast(System.currentTimeMillis());
+            }
+            Listener current = listener;
+            if (current != null) {
+                current.messageSent(entry.subject, entry.recipients);
+            }
+        } catch (Exception ex) {
+            if (lease != null && lease.isBroken()) {
+                lease.close();
+                lease = null;
+            }
+            if (!running) {
+                reschedule(entry, 0);  // interrupted by shutdown: not the message's fault
+                return lease;
+            }
+            failedAttempts.incrementAndGet();
+            entry.attempts++;
+            entry.lastError = String.valueOf(ex.getMessage());
+            if (isPermanent(ex) || entry.attempts >= MAX_ATTEMPTS) {
+                giveUp(entry, ex);
+            } else {
+                System.err.println("Sending '" + entry.subject + "' failed (attempt " + entry.attempts
+                        + "), retrying: " + ex.getMessage());
+                reschedule(entry, retryDelay(entry.attempts));
+            }
+        }
+        return lease;
+    }
+
+    // 30 s, 1 min, 2 min, ... capped at an hour, with jitter so failed messages do not retry in lockstep
+    private static long retryDelay(int attempts) {
+        long delay = Math.min(MAX_RETRY_DELAY_MS, BASE_RETRY_DELAY_MS << Math.min(attempts - 1, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    // 5xx replies and rejected addresses will fail the same way every time
+    private static boolean isPermanent(Exception ex) {
+        // MessagingException chains nested exceptions through getCause()
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SMTPSendFailedException) {
+                return ((SMTPSendFailedException) cause).getReturnCode() >= 500;
+            }
+            if (cause instanceof SMTPAddressFailedException) {
+                return ((SMTPAddressFailedException) cause).getReturnCode() >= 500;
+            }
+            if (cause instanceof SendFailedException) {
+                Address[] invalid = ((SendFailedException) cause).getInvalidAddresses();
+                if (invalid != null && invalid.length > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void reschedule(Entry entry, long delayMs) {
+        entry.nextAttemptAt = System.currentTimeMillis() + delayMs;
+        try {
+            writeMeta(entry);
+        } catch (IOException e) {
+            System.err.println("Failed to update outbox entry " + entry.id + ": " + e.getMessage());
+        }
+        lock.lock();
+        try {
+            queue.add(entry);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void giveUp(Entry entry, Exception error) {
+        permanentlyFailed.incrementAndGet();
+        System.err.println("Giving up on '" + entry.subject + "' after " + entry.attempts + " attempt(s): "
+                + error.getMessage());
+        try {
+            writeMeta(entry);
+            failedDirectory.mkdirs();
+            Files.move(emlFile(entry.id).toPath(), new File(failedDirectory, entry.id + ".eml").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            Files.move(metaFile(entry.id).toPath(), new File(failedDirectory, entry.id + ".meta").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Failed to move outbox entry " + entry.id + " aside: " + e.getMessage());
+        }
+        Listener current = listener;
+        if (current != null) {
+            current.messageFailed(entry.subject, entry.recipients, error);
+        }
+    }
+
+    private Entry pollDue() {
+        lock.lock();
+        try {
+            Entry head = queue.peek();
+            return head != null && head.nextAttemptAt <= System.currentTimeMillis() ? takeHead() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Entry takeDue() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                Entry head = queue.peek();
+                if (head == null) {
+                    changed.await();
+                    continue;
+                }
+                long wait = head.nextAttemptAt - System.currentTimeMillis();
+                if (wait <= 0) {
+                    return takeHead();
+                }
+                changed.await(wait, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Counted as in flight under the lock, so isIdle() never sees an entry in neither place
+    private Entry takeHead() {
+        inFlight.incrementAndGet();
+        return queue.poll();
+    }
+
+    // Nothing being sent and nothing due: what is left waits for a retry (or for its account)
+    public boolean isIdle() {
+        lock.lock();
+        try {
+            Entry head = queue.peek();
+            return inFlight.get() == 0 && (head == null || head.nextAttemptAt > System.currentTimeMillis());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void loadEntry(String id) {
+        File meta = metaFile(id);
+        if (!emlFile(id).exists()) {
+            meta.delete();
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(meta)))) {
+            if (in.readInt() != META_MAGIC) {
+                throw new IOException("Not an outbox entry");
+            }
+            Entry entry = new Entry(id);
+            entry.account = in.readUTF();
+            entry.subject = in.readUTF();
+            int recipients = in.readShort();
+            for (int i = 0; i < recipients; i++) {
+                entry.recipients.add(in.readUTF());
+            }
+            entry.attempts = in.readInt();
+            entry.nextAttemptAt = in.readLong();
+            entry.lastError = in.readUTF();
+            lock.lock();
+            try {
+                queue.add(entry);
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException e) {
+            System.err.println("Skipping unreadable outbox entry " + id + ": " + e.getMessage());
+        }
+    }
+
+    private void writeMeta(Entry entry) throws IOException {
+        File tmp = new File(directory, entry.id + ".meta.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(META_MAGIC);
+            out.writeUTF(entry.account);
+            out.writeUTF(entry.subject);
+            out.writeShort(entry.recipients.size());
+            for (String recipient : entry.recipients) {
+                out.writeUTF(recipient);
+            }
+            out.writeInt(entry.attempts);
+            out.writeLong(entry.nextAttemptAt);
+            out.writeUTF(entry.lastError != null ? entry.lastError : "");
+        }
+        Files.move(tmp.toPath(), metaFile(entry.id).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File emlFile(String id) {
+        return new File(directory, id + ".eml");
+    }
+
+    private File metaFile(String id) {
+        return new File(directory, id + ".meta");
+    }
+
+    // Entries remember the account by name only; the password never goes into the spool
+    private static String accountKey(HostConfiguration config) {
+        return config.getUsername() + "@" + config.getSendHost() + ":" + config.getSendPort();
+    }
+
+    public Stats getStats() {
+        int waiting;
+        lock.lock();
+        try {
+            waiting = queue.size();
+        } finally {
+            lock.unlock();
+        }
+        double perSecond;
+        synchronized (recentDeliveries) {
+            long cutoff = System.currentTimeMillis() - THROUGHPUT_WINDOW_MS;
+            while (!recentDeliveries.isEmpty() && recentDeliveries.peekFirst() < cutoff) {
+                recentDeliveries.pollFirst();
+            }
+            perSecond = recentDeliveries.size() * 1000.0 / THROUGHPUT_WINDOW_MS;
+        }
+        return new Stats(waiting, inFlight.get(), enqueued.get(), sent.get(), failedAttempts.get(),
+                permanentlyFailed.get(), perSecond);
+    }
+
+    // One spooled message; only touched by the worker that took it off the queue
+    private static class Entry {
+        private final String id;
+        private String account;
+        private String subject;
+        private List<String> recipients = new ArrayList<>();
+        private int attempts;
+        private long nextAttemptAt;
+        private String lastError;
+
+        Entry(String id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Snapshot of outbox counters.
+     */
+    public static class Stats {
+        private final int queueDepth;
+        private final int inFlight;
+        private final long enqueued;
+        private final long sent;
+        private final long failedAttempts;
+        private final long permanentlyFailed;
+        private final double messagesPerSecond;
+
+        Stats(int queueDepth, int inFlight, long enqueued, long sent, long failedAttempts,
+              long permanentlyFailed, double messagesPerSecond) {
+            this.queueDepth = queueDepth;
+            this.inFlight = inFlight;
+            this.enqueued = enqueued;
+            this.sent = sent;
+            this.failedAttempts = failedAttempts;
+            this.permanentlyFailed = permanentlyFailed;
+            this.messagesPerSecond = messagesPerSecond;
+        }
+
+        // Spooled messages not yet delivered (due now or waiting for a retry)
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        public long getEnqueued() {
+            return enqueued;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        public long getFailedAttempts() {
+            return failedAttempts;
+        }
+
+        public long getPermanentlyFailed() {
+            return permanentlyFailed;
+        }
+
+        // Deliveries per second over the last minute
+        public double getMessagesPerSecond() {
+            return messagesPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return "OutboxService.Stats{" +
+                    "queued=" + queueDepth +
+                    ", inFlight=" + inFlight +
+                    ", enqueued=" + enqueued +
+                    ", sent=" + sent +
+                    ", failedAttempts=" + failedAttempts +
+                    ", permanentlyFailed=" + permanentlyFailed +
+                    ", msgsPerSec=" + String.format("%.2f", messagesPerSecond) +
+                    '}';
+        }
+    }
+}
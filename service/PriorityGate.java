@@ -0,0 +1,113 @@
+package service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Counting semaphore that hands out permits by TaskPriority: a waiter is let
+ * through only when no higher class is waiting, classes are FIFO inside, and
+ * background classes may hold at most permits - reserved of them.
+ */
+public class PriorityGate {
+
+    private final int permits;
+    private final int backgroundPermits;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final List<Deque<Object>> waiting;
+    private int inUse;
+    private int backgroundInUse;
+
+    public PriorityGate(int permits, int reservedForForeground) {
+        this.permits = permits;
+        this.backgroundPermits = Math.max(1, permits - reservedForForeground);
+        this.waiting = new ArrayList<>(TaskPriority.values().length);
+        for (int i = 0; i < TaskPriority.values().length; i++) {
+            waiting.add(new ArrayDeque<>());
+        }
+    }
+
+    public void acquire(TaskPriority priority) throws InterruptedException {
+        tryAcquire(priority, Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean tryAcquire(TaskPriority priority, long timeout, TimeUnit unit) throws InterruptedException {
+        Object ticket = new Object();
+        long remaining = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            Deque<Object> queue = waiting.get(priority.ordinal());
+            queue.addLast(ticket);
+            try {
+                while (!canEnter(priority, ticket)) {
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    remaining = changed.awaitNanos(remaining);
+                }
+                inUse++;
+                if (priority.isBackground()) {
+                    backgroundInUse++;
+                }
+                return true;
+            } finally {
+                // Granted, timed out or interrupted: either way this ticket leaves the line
+                queue.remove(ticket);
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(TaskPriority priority) {
+        lock.lock();
+        try {
+            inUse--;
+            if (priority.isBackground()) {
+                backgroundInUse--;
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInUse() {
+        lock.lock();
+        try {
+            return inUse;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWaiting(TaskPriority priority) {
+        lock.lock();
+        try {
+            return waiting.get(priority.ordinal()).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean canEnter(TaskPriority priority, Object ticket) {
+        if (waiting.get(priority.ordinal()).peekFirst() != ticket || inUse >= permits) {
+            return false;
+        }
+        if (priority.isBackground() && backgroundInUse >= backgroundPermits) {
+            return false;
+        }
+        for (int higher = 0; higher < priority.ordinal(); higher++) {
+            if (!waiting.get(higher).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,613 @@
+package service;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import model.EmailMessage;
+
+/**
+ * Embedded full-text inverted index over cached mail (subject, from, to, bodies).
+ *
+ * Documents are messages, keyed by account + folder + Message-ID (every
+ * account has its own INBOX) and numbered densely.
+ * New postings collect in memory and are flushed as immutable segment files:
+ * a sorted term dictionary followed by delta + varint compressed postings,
+ * read back through memory maps. Small segments are merged once there are
+ * too many. Queries: "a b" (AND), "a OR b", "-a" (NOT), "pre*" (prefix).
+ */
+public class SearchIndex {
+
+    private static final String INDEX_DIR = "search_index";
+    private static final SearchIndex INSTANCE = new SearchIndex(DataDirectory.resolve(INDEX_DIR));
+
+    private static final int SEGMENT_MAGIC = 0x46545331;  // "FTS1"
+    private static final int MAX_SEGMENTS = 8;
+    private static final int FLUSH_POSTINGS = 200_000;
+    private static final long FLUSH_AFTER_MS = 30_000;
+    private static final int MAX_TOKEN_LENGTH = 40;
+
+    private static final byte INDEXED_ENVELOPE = 1;
+    private static final byte INDEXED_BODY = 2;
+    private static final byte DELETED = 4;
+
+    private final File directory;
+    private final File docsFile;
+
+    // Document table: key <-> dense id, plus what has been indexed for each doc
+    private final Map<String, Integer> docIds = new HashMap<>();
+    private final List<String> docKeys = new ArrayList<>();
+    private byte[] docFlags = new byte[1024];
+    private final BitSet deletedDocs = new BitSet();
+    private final BitSet dirtyDocs = new BitSet();
+
+    private final List<Segment> segments = new ArrayList<>();
+    private final TreeMap<String, IntList> pending = new TreeMap<>();
+    private int pendingPostings;
+    private long oldestPendingTime;
+    private int nextSegmentNumber;
+    private boolean loaded;
+
+    public SearchIndex(File directory) {
+        this.directory = directory;
+        this.docsFile = new File(directory, "docs.log");
+    }
+
+    public static SearchIndex getInstance() {
+        return INSTANCE;
+    }
+
+    public static String docKey(String accountId, String folderName, String messageId) {
+        return accountId + "\n" + folderName + "\n" + messageId;
+    }
+
+    // Index subject/from/to of envelopes not seen before; all of them belong to this account
+    public synchronized void addEnvelopes(String accountId, List<EmailMessage> emails) {
+        ensureLoaded();
+        for (EmailMessage email : emails) {
+            if (email.getMessageId() == null || email.getFolder() == null) {
+                continue;
+            }
+            int docId = docId(docKey(accountId, email.getFolder(), email.getMessageId()));
+            reviveIfDeleted(docId);
+            if ((docFlags[docId] & INDEXED_ENVELOPE) != 0) {
+                continue;
+            }
+            addText(docId, email.getSubject());
+            addText(docId, email.getFrom());
+            for (String recipient : email.getTo()) {
+                addText(docId, recipient);
+            }
+            markDoc(docId, INDEXED_ENVELOPE);
+        }
+        maybeFlush();
+    }
+
+    public synchronized void addBody(String accountId, String folderName, String messageId, String body) {
+        if (folderName == null || messageId == null || body == null) {
+            return;
+        }
+        ensureLoaded();
+        int docId = docId(docKey(accountId, folderName, messageId));
+        reviveIfDeleted(docId);
+        if ((docFlags[docId] & INDEXED_BODY) != 0) {
+            return;
+        }
+        addText(docId, body);
+        markDoc(docId, INDEXED_BODY);
+        maybeFlush();
+    }
+
+    // Drop messages from results (e.g. after delete); postings are left for the next merge
+    public synchronized void remove(String accountId, String folderName, String messageId) {
+        ensureLoaded();
+        Integer docId = docIds.get(docKey(accountId, folderName, messageId));
+        if (docId != null) {
+            markDoc(docId, DELETED);
+        }
+    }
+
+    public synchronized SearchHits search(String query) {
+        ensureLoaded();
+        BitSet result = null;
+        // OR has the lowest precedence; each OR clause is an AND of (possibly negated) terms
+        for (String clause : query.trim().split("\\s+OR\\s+")) {
+            BitSet clauseHits = evaluateClause(clause);
+            if (clauseHits == null) {
+                continue;
+            }
+            if (result == null) {
+                result = clauseHits;
+            } else {
+                result.or(clauseHits);
+            }
+        }
+        if (result == null) {
+            result = new BitSet();
+        }
+        result.andNot(deletedDocs);
+        Set<String> keys = new HashSet<>(result.cardinality() * 2);
+        for (int docId = result.nextSetBit(0); docId >= 0; docId = result.nextSetBit(docId + 1)) {
+            keys.add(docKeys.get(docId));
+        }
+        return new SearchHits(keys);
+    }
+
+    // Persist pending postings as a new segment, plus document table changes
+    public synchronized void flush() {
+        if (pending.isEmpty() && dirtyDocs.isEmpty()) {
+            return;
+        }
+        try {
+            directory.mkdirs();
+            // Docs first: a crash in between loses some terms, but never yields hits for the wrong doc
+            writeDirtyDocs();
+            if (!pending.isEmpty()) {
+                File file = new File(directory, String.format("seg-%06d.idx", nextSegmentNumber++));
+                writeSegment(file, pendingIterator());
+                segments.add(new Segment(file));
+                pending.clear();
+                pendingPostings = 0;
+            }
+            oldestPendingTime = 0;
+
+            if (segments.size() > MAX_SEGMENTS) {
+                mergeSegments();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to flush search index: " + e.getMessage());
+        }
+    }
+
+    private BitSet evaluateClause(String clause) {
+        BitSet include = null;
+        BitSet exclude = new BitSet();
+        for (String word : clause.trim().split("\\s+")) {
+            boolean negate = word.startsWith("-");
+            String term = negate ? word.substring(1) : word;
+            boolean prefix = term.endsWith("*");
+            if (prefix) {
+                term = term.substring(0, term.length() - 1);
+            }
+            term = term.toLowerCase();
+            if (term.isEmpty()) {
+                continue;
+            }
+
+            // Queries are tokenized like documents, so "john.doe" means john AND doe
+            List<String> tokens = tokenize(term);
+            for (int i = 0; i < tokens.size(); i++) {
+                String token = tokens.get(i);
+                BitSet hits = prefix && i == tokens.size() - 1 ? lookupPrefix(token) : lookup(token);
+                if (negate) {
+                    exclude.or(hits);
+                } else if (include == null) {
+                    include = hits;
+                } else {
+                    include.and(hits);
+                }
+            }
+        }
+        if (include == null) {
+            return null;
+        }
+        include.andNot(exclude);
+        return include;
+    }
+
+    private BitSet lookup(String term) {
+        BitSet hits = new BitSet();
+        for (Segment segment : segments) {
+            segment.addPostings(term, hits);
+        }
+        IntList inMemory = pending.get(term);
+        if (inMemory != null) {
+            inMemory.addTo(hits);
+        }
+        return hits;
+    }
+
+    private BitSet lookupPrefix(String prefix) {
+        BitSet hits = new BitSet();
+        for (Segment segment : segments) {
+            segment.addPrefixPostings(prefix, hits);
+        }
+        for (IntList inMemory : pending.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+            inMemory.addTo(hits);
+        }
+        return hits;
+    }
+
+    private void addText(int docId, String text) {
+        if (text == null) {
+            return;
+        }
+        for (String token : tokenize(text.toLowerCase())) {
+            IntList postings = pending.computeIfAbsent(token, t -> new IntList());
+            if (postings.addUnique(docId)) {
+                pendingPostings++;
+            }
+        }
+        if (oldestPendingTime == 0) {
+            oldestPendingTime = System.currentTimeMillis();
+        }
+    }
+
+    private void maybeFlush() {
+        if (pendingPostings >= FLUSH_POSTINGS
+                || (oldestPendingTime != 0 && System.currentTimeMillis() - oldestPendingTime > FLUSH_AFTER_MS)) {
+            flush();
+        }
+    }
+
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start <= MAX_TOKEN_LENGTH) {
+                    tokens.add(text.substring(start, i));
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    // ---- document table ----
+
+    private int docId(String key) {
+        Integer existing = docIds.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        int id = docKeys.size();
+        docKeys.add(key);
+        docIds.put(key, id);
+        if (id >= docFlags.length) {
+            docFlags = Arrays.copyOf(docFlags, docFlags.length * 2);
+        }
+        return id;
+    }
+
+    private void markDoc(int docId, byte flag) {
+        docFlags[docId] |= flag;
+        if (flag == DELETED) {
+            deletedDocs.set(docId);
+        }
+        dirtyDocs.set(docId);
+    }
+
+    // A deleted doc that comes back (moved back, restored after a failed delete) is indexed afresh
+    private void reviveIfDeleted(int docId) {
+        if ((docFlags[docId] & DELETED) != 0) {
+            docFlags[docId] = 0;
+            deletedDocs.clear(docId);
+            dirtyDocs.set(docId);
+        }
+    }
+
+    // Append changed doc entries (ascending id, so new ids always extend the table on replay)
+    private void writeDirtyDocs() throws IOException {
+        if (dirtyDocs.isEmpty()) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(docsFile, true)))) {
+            for (int docId = dirtyDocs.nextSetBit(0); docId >= 0; docId = dirtyDocs.nextSetBit(docId + 1)) {
+                out.writeInt(docId);
+                out.writeByte(docFlags[docId]);
+                out.writeUTF(docKeys.get(docId));
+            }
+        }
+        dirtyDocs.clear();
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!directory.exists()) {
+            return;
+        }
+
+        if (docsFile.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(docsFile)))) {
+                while (in.available() > 0) {
+                    int id = in.readInt();
+                    byte flags = in.readByte();
+                    String key = in.readUTF();
+                    if (id > docKeys.size()) {
+                        throw new IOException("gap in document log at id " + id);
+                    }
+                    docId(key);
+                    // Later entries win, so a revived doc is no longer deleted
+                    docFlags[id] = flags;
+                    deletedDocs.set(id, (flags & DELETED) != 0);
+                }
+            } catch (EOFException e) {
+                // Torn last entry from a crash; everything before it is valid
+            } catch (IOException e) {
+                System.err.println("Failed to load search index documents: " + e.getMessage());
+            }
+        }
+
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("seg-") && name.endsWith(".idx"));
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                try {
+                    segments.add(new Segment(file));
+                    String number = file.getName().substring(4, file.getName().length() - 4);
+                    nextSegmentNumber = Math.max(nextSegmentNumber, Integer.parseInt(number) + 1);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Skipping unreadable search segment " + file + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // ---- segments ----
+
+    private TermIterator pendingIterator() {
+        java.util.Iterator<Map.Entry<String, IntList>> it = pending.entrySet().iterator();
+        return () -> {
+            if (!it.hasNext()) {
+                return null;
+            }
+            Map.Entry<String, IntList> entry = it.next();
+            return new TermPostings(entry.getKey(), entry.getValue().toSortedArray());
+        };
+    }
+
+    private void mergeSegments() throws IOException {
+        // All dictionaries are sorted, so merge term by term
+        List<Segment> old = new ArrayList<>(segments);
+        int[] cursor = new int[old.size()];
+        TermIterator merged = () -> {
+            String next = null;
+            for (int s = 0; s < old.size(); s++) {
+                if (cursor[s] < old.get(s).terms.length) {
+                    String term = old.get(s).terms[cursor[s]];
+                    if (next == null || term.compareTo(next) < 0) {
+                        next = term;
+                    }
+                }
+            }
+            if (next == null) {
+                return null;
+            }
+            IntList union = new IntList();
+            for (int s = 0; s < old.size(); s++) {
+                Segment segment = old.get(s);
+                if (cursor[s] < segment.terms.length && segment.terms[cursor[s]].equals(next)) {
+                    segment.decodeInto(cursor[s], union);
+                    cursor[s]++;
+                }
+            }
+            // Postings of deleted docs are dropped here
+            return new TermPostings(next, Arrays.stream(union.toSortedArray())
+                    .filter(docId -> !deletedDocs.get(docId)).toArray());
+        };
+
+        File file = new File(directory, String.format("seg-%06d.idx", nextSegmentNumber++));
+        writeSegment(file, merged);
+        segments.clear();
+        segments.add(new Segment(file));
+        for (Segment segment : old) {
+            segment.file.delete();
+        }
+    }
+
+    private static void writeSegment(File file, TermIterator terms) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        int termCount = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(SEGMENT_MAGIC);
+            ByteArrayOutputStream postings = new ByteArrayOutputStream();
+            for (TermPostings next = terms.next(); next != null; next = terms.next()) {
+                if (next.docIds.length == 0) {
+                    continue;
+                }
+                postings.reset();
+                int previous = 0;
+                for (int docId : next.docIds) {
+                    writeVarInt(postings, docId - previous);
+                    previous = docId;
+                }
+                byte[] term = next.term.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(term.length);
+                out.write(term);
+                out.writeInt(postings.size());
+                postings.writeTo(out);
+                termCount++;
+            }
+            // Terminator with term count for a quick sanity check on load
+            out.writeShort(-1);
+            out.writeInt(termCount);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Could not move " + tmp + " to " + file);
+        }
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private interface TermIterator {
+        TermPostings next();
+    }
+
+    private static class TermPostings {
+        private final String term;
+        private final int[] docIds;
+
+        private TermPostings(String term, int[] docIds) {
+            this.term = term;
+            this.docIds = docIds;
+        }
+    }
+
+    // Immutable on-disk segment: term dictionary kept in memory, postings read from the map
+    private static class Segment {
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private final String[] terms;
+        private final int[] offsets;
+        private final int[] lengths;
+
+        private Segment(File file) throws IOException {
+            this.file = file;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (buffer.getInt() != SEGMENT_MAGIC) {
+                throw new IOException("not a search segment");
+            }
+
+            List<String> termList = new ArrayList<>();
+            IntList offsetList = new IntList();
+            IntList lengthList = new IntList();
+            while (true) {
+                short termLength = buffer.getShort();
+                if (termLength < 0) {
+                    break;
+                }
+                byte[] term = new byte[termLength];
+                buffer.get(term);
+                int length = buffer.getInt();
+                termList.add(new String(term, StandardCharsets.UTF_8));
+                offsetList.add(buffer.position());
+                lengthList.add(length);
+                buffer.position(buffer.position() + length);
+            }
+            if (buffer.getInt() != termList.size()) {
+                throw new IOException("truncated search segment");
+            }
+            terms = termList.toArray(new String[0]);
+            offsets = offsetList.toArray();
+            lengths = lengthList.toArray();
+        }
+
+        private void addPostings(String term, BitSet hits) {
+            int index = Arrays.binarySearch(terms, term);
+            if (index >= 0) {
+                decodeInto(index, hits);
+            }
+        }
+
+        private void addPrefixPostings(String prefix, BitSet hits) {
+            int index = Arrays.binarySearch(terms, prefix);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            while (index < terms.length && terms[index].startsWith(prefix)) {
+                decodeInto(index, hits);
+                index++;
+            }
+        }
+
+        private void decodeInto(int termIndex, BitSet hits) {
+            IntList docIds = new IntList();
+            decodeInto(termIndex, docIds);
+            docIds.addTo(hits);
+        }
+
+        private void decodeInto(int termIndex, IntList docIds) {
+            ByteBuffer postings = buffer.slice(offsets[termIndex], lengths[termIndex]);
+            int docId = 0;
+            while (postings.hasRemaining()) {
+                int value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = postings.get();
+                    value |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                docId += value;
+                docIds.add(docId);
+            }
+        }
+    }
+
+    // Growable int array (avoids boxing for large postings lists)
+    private static class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        // Docs are mostly indexed in order, so checking the last value catches repeats
+        private boolean addUnique(int value) {
+            if (size > 0 && values[size - 1] == value) {
+                return false;
+            }
+            add(value);
+            return true;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+
+        private int[] toSortedArray() {
+            int[] sorted = toArray();
+            Arrays.sort(sorted);
+            return Arrays.stream(sorted).distinct().toArray();
+        }
+
+        private void addTo(BitSet hits) {
+            for (int i = 0; i < size; i++) {
+                hits.set(values[i]);
+            }
+        }
+    }
+
+    /**
+     * Result of one query. Immutable, so it can be checked row by row on the
+     * FX thread without touching the index (or its lock) again.
+     */
+    public static class SearchHits {
+        private final Set<String> keys;
+
+        private SearchHits(Set<String> keys) {
+            this.keys = keys;
+        }
+
+        public boolean contains(String accountId, EmailMessage email) {
+            if (email.getFolder() == null || email.getMessageId() == null) {
+                return false;
+            }
+            return keys.contains(docKey(accountId, email.getFolder(), email.getMessageId()));
+        }
+
+        public int size() {
+            return keys.size();
+        }
+    }
+}
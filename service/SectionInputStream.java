@@ -0,0 +1,95 @@
+package service;
+
+import com.sun.mail.iap.ByteArray;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.protocol.BODY;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.mail.MessagingException;
+
+/**
+ * Reads one body section of a message (still transfer-encoded) with partial
+ * fetches on demand, so a caller that stops early never downloads the rest.
+ * The first block is small to get the first bytes on screen quickly; later
+ * blocks are larger. Only valid while the folder's connection is held.
+ */
+public class SectionInputStream extends InputStream {
+
+    private static final int FIRST_BLOCK = 16 * 1024;
+    private static final int BLOCK = 256 * 1024;
+
+    private final IMAPFolder folder;
+    private final int messageNumber;
+    private final String section;
+    private final ByteArray buffer = new ByteArray(BLOCK + 1024);
+
+    private byte[] block;
+    private int position;
+    private int limit;
+    private long offset;  // server offset of the next block
+    private boolean eof;
+
+    public SectionInputStream(IMAPFolder folder, int messageNumber, String section) {
+        this(folder, messageNumber, section, 0);
+    }
+
+    // Starts reading at this byte offset of the (encoded) section
+    public SectionInputStream(IMAPFolder folder, int messageNumber, String section, long startOffset) {
+        this.folder = folder;
+        this.messageNumber = messageNumber;
+        this.section = section;
+        this.offset = startOffset;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= limit && !fill()) {
+            return -1;
+        }
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= limit && !fill()) {
+            return -1;
+        }
+        int n = Math.min(len, limit - position);
+        System.arraycopy(block, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        int length = block == null ? FIRST_BLOCK : BLOCK;
+        BODY body;
+        MetricsRegistry.Timing timing = MetricsRegistry.getInstance().start("imap.fetch.body");
+        try {
+            body = (BODY) folder.doCommand(protocol ->
+                    protocol.peekBody(messageNumber, section, (int) offset, length, buffer));
+        } catch (MessagingException e) {
+            throw new IOException("Failed to fetch section " + section + ": " + e.getMessage(), e);
+        } finally {
+            timing.stop();
+        }
+        ByteArray data = body != null ? body.getByteArray() : null;
+        int received = data != null ? data.getCount() : 0;
+        if (received < length) {
+            eof = true;  // a short block is the end of the section
+        }
+        if (received == 0) {
+            return false;
+        }
+        block = data.getBytes();
+        position = data.getStart();
+        limit = position + received;
+        offset += received;
+        return true;
+    }
+}
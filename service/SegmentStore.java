@@ -0,0 +1,378 @@
+package service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+import model.EmailMessage;
+
+/**
+ * Append-only on-disk store for one folder's envelopes.
+ *
+ * records.seg  header + [int length][int crc32][payload] per record, append-only
+ * records.idx  header + fixed 24-byte entries: uid, segment offset, length, status
+ *
+ * Both files are read through memory maps. An update appends a new record and
+ * index entry (the latest entry for a UID wins); a removal appends a tombstone.
+ * Once superseded entries outnumber live ones the folder is compacted into
+ * fresh files. Records failing their CRC are skipped on load.
+ *
+ * Both headers carry the generation of the replaceAll() that wrote them. The
+ * two files are swapped one after the other, so a crash in between leaves a
+ * pair from different generations; such a pair is not consistent and reads
+ * as empty until the folder is resynced.
+ */
+public class SegmentStore {
+
+    private static final int SEGMENT_MAGIC = 0x454D5347;  // "EMSG"
+    private static final int INDEX_MAGIC = 0x45494458;    // "EIDX"
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 16;  // magic, version, generation
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int INDEX_ENTRY_SIZE = 24;
+
+    private static final byte STATUS_LIVE = 0;
+    private static final byte STATUS_REMOVED = 1;
+
+    // Compact once dead entries outnumber live ones, but not for tiny folders
+    private static final int MIN_ENTRIES_FOR_COMPACTION = 512;
+
+    private final File directory;
+    private final File segmentFile;
+    private final File indexFile;
+    private final EmailRecordCodec codec = new EmailRecordCodec();
+
+    public SegmentStore(File directory) {
+        this.directory = directory;
+        this.segmentFile = new File(directory, "records.seg");
+        this.indexFile = new File(directory, "records.idx");
+    }
+
+    // All live envelopes, ordered by UID
+    public synchronized List<EmailMessage> loadAll() throws IOException {
+        Map<Long, IndexEntry> live = readIndex();
+        List<EmailMessage> emails = new ArrayList<>(live.size());
+        if (live.isEmpty()) {
+            return emails;
+        }
+
+        try (FileChannel channel = FileChannel.open(segmentFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            for (IndexEntry entry : live.values()) {
+                EmailMessage email = readRecord(segment, entry);
+                if (email != null) {
+                    emails.add(email);
+                }
+            }
+        }
+        emails.sort((a, b) -> Long.compare(a.getUid(), b.getUid()));
+        return emails;
+    }
+
+    // Live envelopes from the highest UID down, each decoded only when it is reached. Only the index
+    // is read up front; the iterator keeps its own map of the segment, so later writes do not affect it.
+    public synchronized Iterator<EmailMessage> iterateNewestFirst() throws IOException {
+        Map<Long, IndexEntry> live = readIndex();
+        if (live.isEmpty()) {
+            return new RecordIterator(null, new IndexEntry[0]);
+        }
+        Long[] keys = live.keySet().toArray(new Long[0]);
+        Arrays.sort(keys, (a, b) -> Long.compare(b, a));
+        IndexEntry[] entries = new IndexEntry[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            entries[i] = live.get(keys[i]);
+        }
+        try (FileChannel channel = FileChannel.open(segmentFile.toPath(), StandardOpenOption.READ)) {
+            return new RecordIterator(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), entries);
+        }
+    }
+
+    // Append new/changed envelopes and tombstones; cost is proportional to the delta only
+    public synchronized void append(Collection<EmailMessage> changed, Collection<Long> removedUids) throws IOException {
+        ensureFiles();
+        try (FileChannel segment = FileChannel.open(segmentFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+             FileChannel index = FileChannel.open(indexFile.toPath(), StandardOpenOption.WRITE)) {
+            // Cut off a torn trailing entry left by a crash mid-write, or every entry after it would be misaligned
+            long entryCount = Math.max(0, (index.size() - HEADER_SIZE) / INDEX_ENTRY_SIZE);
+            index.truncate(HEADER_SIZE + entryCount * INDEX_ENTRY_SIZE);
+            index.position(index.size());
+            boolean needsSyntheticKeys = changed.stream().anyMatch(email -> email.getUid() <= 0);
+            writeRecords(segment, index, changed, needsSyntheticKeys ? lowestKey() : 0);
+            ByteBuffer entries = ByteBuffer.allocate(INDEX_ENTRY_SIZE * removedUids.size());
+            for (Long uid : removedUids) {
+                putIndexEntry(entries, uid, 0, 0, STATUS_REMOVED);
+            }
+            entries.flip();
+            writeFully(index, entries);
+
+            // Segment first, then index: an index entry never points at a half-written record
+            segment.force(false);
+            index.force(false);
+        }
+
+        compactIfNeeded();
+    }
+
+    // Replace the folder contents with exactly these envelopes
+    public synchronized void replaceAll(Collection<EmailMessage> emails) throws IOException {
+        directory.mkdirs();
+        File tmpSegment = new File(directory, "records.seg.tmp");
+        File tmpIndex = new File(directory, "records.idx.tmp");
+        long generation = Math.max(readGeneration(segmentFile, SEGMENT_MAGIC), readGeneration(indexFile, INDEX_MAGIC)) + 1;
+
+        try (FileChannel segment = FileChannel.open(tmpSegment.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             FileChannel index = FileChannel.open(tmpIndex.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeHeader(segment, SEGMENT_MAGIC, generation);
+            writeHeader(index, INDEX_MAGIC, generation);
+            writeRecords(segment, index, emails, 0);
+            segment.force(false);
+            index.force(false);
+        }
+
+        Files.move(tmpSegment.toPath(), segmentFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(tmpIndex.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // False when the files are from different replaceAll() runs (or an unknown format); what they hold
+    // must not be trusted, and the folder has to be fetched again
+    public synchronized boolean isConsistent() {
+        if (!segmentFile.exists() && !indexFile.exists()) {
+            return true;
+        }
+        long generation = readGeneration(segmentFile, SEGMENT_MAGIC);
+        return generation >= 0 && generation == readGeneration(indexFile, INDEX_MAGIC);
+    }
+
+    // Rewrite only live records when the files are mostly garbage
+    public synchronized void compactIfNeeded() throws IOException {
+        long totalEntries = indexEntryCount();
+        if (totalEntries < MIN_ENTRIES_FOR_COMPACTION) {
+            return;
+        }
+        int liveEntries = readIndex().size();
+        if (totalEntries - liveEntries > liveEntries) {
+            replaceAll(loadAll());
+        }
+    }
+
+    // Synthetic keys are handed out below lowestKey, which is 0 for a fresh index
+    private void writeRecords(FileChannel segment, FileChannel index, Collection<EmailMessage> emails,
+                              long lowestKey) throws IOException {
+        if (emails.isEmpty()) {
+            return;
+        }
+        long offset = segment.size();
+        ByteBuffer entries = ByteBuffer.allocate(INDEX_ENTRY_SIZE * emails.size());
+        CRC32 crc = new CRC32();
+        long syntheticKey = Math.min(0, lowestKey);
+
+        for (EmailMessage email : emails) {
+            byte[] payload = codec.encode(email);
+            crc.reset();
+            crc.update(payload);
+
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+            record.putInt(payload.length);
+            record.putInt((int) crc.getValue());
+            record.put(payload);
+            record.flip();
+            writeFully(segment, record);
+
+            // Messages without a UID (e.g. POP3) get unique negative keys
+            long key = email.getUid() > 0 ? email.getUid() : --syntheticKey;
+            putIndexEntry(entries, key, offset, payload.length, STATUS_LIVE);
+            offset += RECORD_HEADER_SIZE + payload.length;
+        }
+
+        entries.flip();
+        writeFully(index, entries);
+    }
+
+    private EmailMessage readRecord(ByteBuffer segment, IndexEntry entry) {
+        long end = entry.offset + RECORD_HEADER_SIZE + entry.length;
+        if (entry.offset < HEADER_SIZE || end > segment.limit()) {
+            System.err.println("Skipping cache record outside segment: " + segmentFile);
+            return null;
+        }
+
+        ByteBuffer record = segment.slice((int) entry.offset, RECORD_HEADER_SIZE + entry.length);
+        int length = record.getInt();
+        int storedCrc = record.getInt();
+        ByteBuffer payload = record.slice(RECORD_HEADER_SIZE, length);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        if (length != entry.length || (int) crc.getValue() != storedCrc) {
+            System.err.println("Skipping corrupt cache record (CRC mismatch) in " + segmentFile);
+            return null;
+        }
+
+        try {
+            return codec.decode(payload);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Skipping unreadable cache record in " + segmentFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Latest entry per key wins; tombstones drop the key
+    private Map<Long, IndexEntry> readIndex() throws IOException {
+        Map<Long, IndexEntry> live = new LinkedHashMap<>();
+        if (!indexFile.exists() || !segmentFile.exists()) {
+            return live;
+        }
+
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            long generation = readGeneration(index, INDEX_MAGIC);
+            if (generation < 0) {
+                System.err.println("Ignoring cache index with unknown format: " + indexFile);
+                return live;
+            }
+            if (generation != readGeneration(segmentFile, SEGMENT_MAGIC)) {
+                System.err.println("Ignoring cache index that does not belong to its segment: " + indexFile);
+                return live;
+            }
+            // A torn trailing entry (crash mid-write) is skipped here and cut off by the next append()
+            while (index.remaining() >= INDEX_ENTRY_SIZE) {
+                long key = index.getLong();
+                long offset = index.getLong();
+                int length = index.getInt();
+                byte status = index.get();
+                index.position(index.position() + 3);
+
+                if (status == STATUS_REMOVED) {
+                    live.remove(key);
+                } else {
+                    live.remove(key);  // re-insert so the map stays in append order
+                    live.put(key, new IndexEntry(offset, length));
+                }
+            }
+        }
+        return live;
+    }
+
+    // Lowest key in use (0 if none is negative), so later synthetic keys never replace earlier records
+    private long lowestKey() throws IOException {
+        long lowest = 0;
+        for (long key : readIndex().keySet()) {
+            lowest = Math.min(lowest, key);
+        }
+        return lowest;
+    }
+
+    private long indexEntryCount() {
+        if (!indexFile.exists()) {
+            return 0;
+        }
+        return Math.max(0, (indexFile.length() - HEADER_SIZE) / INDEX_ENTRY_SIZE);
+    }
+
+    private void ensureFiles() throws IOException {
+        if (segmentFile.exists() && indexFile.exists() && isConsistent()) {
+            return;
+        }
+        replaceAll(new ArrayList<>());
+    }
+
+    private static void putIndexEntry(ByteBuffer entries, long key, long offset, int length, byte status) {
+        entries.putLong(key);
+        entries.putLong(offset);
+        entries.putInt(length);
+        entries.put(status);
+        entries.put(new byte[3]);  // pad to fixed width
+    }
+
+    private static void writeHeader(FileChannel channel, int magic, long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(magic);
+        header.putInt(FORMAT_VERSION);
+        header.putLong(generation);
+        header.flip();
+        writeFully(channel, header);
+    }
+
+    // Generation from the header, or -1 for a missing file or an unknown format
+    private static long readGeneration(ByteBuffer buffer, int magic) {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != magic || buffer.getInt() != FORMAT_VERSION) {
+            return -1;
+        }
+        return buffer.getLong();
+    }
+
+    private static long readGeneration(File file, int magic) {
+        if (!file.exists()) {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            return readGeneration(header, magic);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private class RecordIterator implements Iterator<EmailMessage> {
+        private final ByteBuffer segment;
+        private final IndexEntry[] entries;
+        private int position;
+        private EmailMessage next;
+
+        RecordIterator(ByteBuffer segment, IndexEntry[] entries) {
+            this.segment = segment;
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean hasNext() {
+            // Records failing their CRC are skipped, as in loadAll()
+            while (next == null && position < entries.length) {
+                next = readRecord(segment, entries[position++]);
+            }
+            return next != null;
+        }
+
+        @Override
+        public EmailMessage next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            EmailMessage email = next;
+            next = null;
+            return email;
+        }
+    }
+
+    private static class IndexEntry {
+        private final long offset;
+        private final int length;
+
+        private IndexEntry(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
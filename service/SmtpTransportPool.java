@@ -0,0 +1,368 @@
+package service;
+
+import com.sun.mail.smtp.SMTPTransport;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.mail.*;
+import javax.mail.internet.MimeMessage;
+import model.HostConfiguration;
+
+/**
+ * Pool of authenticated SMTP connections, one pool per server/account.
+ * A connection sends many messages (RSET between them) instead of paying
+ * TLS + EHLO + AUTH for every message as the static Transport.send does.
+ */
+public class SmtpTransportPool {
+
+    private static final SmtpTransportPool INSTANCE = new SmtpTransportPool();
+
+    public static final int MAX_CONNECTIONS_PER_SERVER = 2;
+    // Servers commonly cap messages per connection; reconnect before hitting the limit
+    private static final int MAX_MESSAGES_PER_CONNECTION = 100;
+    // Servers drop idle SMTP sessions after a few minutes (RFC 5321 suggests 5)
+    private static final long IDLE_TIMEOUT_MS = 2 * 60_000;
+    private static final long BORROW_TIMEOUT_SECONDS = 60;
+
+    private final Map<String, ServerPool> pools = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong connectCount = new AtomicLong();
+    private final AtomicLong connectNanos = new AtomicLong();
+    private final MetricsRegistry metrics = MetricsRegistry.getInstance();
+
+    public static SmtpTransportPool getInstance() {
+        return INSTANCE;
+    }
+
+    // Borrow a connected Transport for this account; always close() the lease when done
+    public Lease borrow(HostConfiguration config) throws Exception {
+        ServerPool pool = pools.computeIfAbsent(poolKey(config), key -> new ServerPool(createSession(config)));
+        TaskPriority priority = MailTaskExecutor.currentPriority();
+        if (!pool.permits.tryAcquire(priority, BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new MessagingException("Timed out waiting for a free connection to " + config.getSendHost());
+        }
+
+        try {
+            Lease lease = pool.takeIdle();
+            if (lease == null) {
+                misses.incrementAndGet();
+                lease = new Lease(pool, connect(pool.session, config));
+            } else {
+                hits.incrementAndGet();
+            }
+            lease.priority = priority;
+            return lease;
+        } catch (Exception ex) {
+            pool.permits.release(priority);
+            throw ex;
+        }
+    }
+
+    // Session shared by every connection of a pool; messages are built against it
+    public Session getSession(HostConfiguration config) {
+        return pools.computeIfAbsent(poolKey(config), key -> new ServerPool(createSession(config))).session;
+    }
+
+    // Close every pooled connection (called on application exit)
+    public void shutdown() {
+        for (ServerPool pool : pools.values()) {
+            pool.closeAllIdle();
+        }
+        pools.clear();
+    }
+
+    public Stats getStats() {
+        int idle = 0;
+        int inUse = 0;
+        for (ServerPool pool : pools.values()) {
+            synchronized (pool) {
+                idle += pool.idle.size();
+            }
+            inUse += pool.permits.getInUse();
+        }
+        return new Stats(hits.get(), misses.get(), reconnects.get(), messagesSent.get(),
+                connectCount.get(), connectNanos.get(), idle, inUse);
+    }
+
+    private static Session createSession(HostConfiguration config) {
+        Properties props = new Properties();
+        props.put("mail.smtp.host", config.getSendHost());
+        props.put("mail.smtp.port", config.getSendPort());
+        props.put("mail.smtp.auth", "true");
+        props.put("mail.smtp.ssl.enable", "true");
+        // Pooled sockets must not hang forever on a dead peer
+        props.put("mail.smtp.connectiontimeout", "15000");
+        props.put("mail.smtp.timeout", "60000");
+        props.put("mail.smtp.writetimeout", "60000");
+        return Session.getInstance(props);
+    }
+
+    private Transport connect(Session session, HostConfiguration config) throws MessagingException {
+        long start = System.nanoTime();
+        Transport transport = session.getTransport("smtp");
+        try {
+            transport.connect(config.getSendHost(), config.getSendPort(), config.getUsername(), config.getPassword());
+        } catch (MessagingException ex) {
+            metrics.counter("smtp.connect.errors").increment();
+            throw ex;
+        }
+        long elapsed = System.nanoTime() - start;
+        connectNanos.addAndGet(elapsed);
+        connectCount.incrementAndGet();
+        metrics.histogram("smtp.connect").record(elapsed);
+        return transport;
+    }
+
+    private static String poolKey(HostConfiguration config) {
+        // Password is part of the key so changed credentials never reuse an old login
+        return config.getUsername() + "@" + config.getSendHost() + ":" + config.getSendPort()
+                + "#" + String.valueOf(config.getPassword()).hashCode();
+    }
+
+    private static void closeQuietly(Transport transport) {
+        try {
+            transport.close();
+        } catch (Exception ignored) {
+            // Connection is being discarded anyway
+        }
+    }
+
+    // Idle connections of one server, plus the permits capping its concurrency
+    private class ServerPool {
+        private final Session session;
+        private final PriorityGate permits = new PriorityGate(MAX_CONNECTIONS_PER_SERVER, 1);
+        private final Deque<Lease> idle = new ArrayDeque<>();
+
+        ServerPool(Session session) {
+            this.session = session;
+        }
+
+        private Lease takeIdle() {
+            long now = System.currentTimeMillis();
+            while (true) {
+                Lease lease;
+                synchronized (this) {
+                    evictExpired(now);
+                    lease = idle.pollFirst();
+                }
+                if (lease == null) {
+                    return null;
+                }
+                if (reset(lease)) {
+                    lease.returned = false;
+                    return lease;
+                }
+                // Server closed it (timeout, restart): drop it and try the next one (or reconnect)
+                reconnects.incrementAndGet();
+                lease.discard();
+            }
+        }
+
+        // RSET clears any half-finished transaction and doubles as the health check
+        private boolean reset(Lease lease) {
+            if (!lease.dirty) {
+                return true;
+            }
+            try {
+                ((SMTPTransport) lease.transport).issueCommand("RSET", 250);
+                lease.dirty = false;
+                return true;
+            } catch (Exception ex) {
+                return false;
+            }
+        }
+
+        private void release(Lease lease) {
+            boolean reusable = !lease.broken && !lease.isExhausted();
+            if (!reusable) {
+                lease.discard();
+            } else {
+                lease.lastUsed = System.currentTimeMillis();
+                synchronized (this) {
+                    idle.addFirst(lease);
+                }
+            }
+            permits.release(lease.priority);
+        }
+
+        private void evictExpired(long now) {
+            Iterator<Lease> it = idle.iterator();
+            while (it.hasNext()) {
+                Lease lease = it.next();
+                if (now - lease.lastUsed > IDLE_TIMEOUT_MS) {
+                    it.remove();
+                    lease.discard();
+                }
+            }
+        }
+
+        private synchronized void closeAllIdle() {
+            for (Lease lease : idle) {
+                lease.discard();
+            }
+            idle.clear();
+        }
+    }
+
+    /**
+     * A borrowed SMTP connection.
+     */
+    public class Lease implements AutoCloseable {
+        private final ServerPool owner;
+        private final Transport transport;
+        private long lastUsed;
+        private int sent;
+        private boolean dirty;  // a transaction ran since the last RSET
+        private boolean broken;
+        private boolean returned;
+        private TaskPriority priority = TaskPriority.FOLDER_OPEN;
+
+        private Lease(ServerPool owner, Transport transport) {
+            this.owner = owner;
+            this.transport = transport;
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        public Session getSession() {
+            return owner.session;
+        }
+
+        // Send one message on this connection; the envelope recipients are the message's recipients
+        public void send(MimeMessage message) throws MessagingException {
+            if (!owner.reset(this)) {
+                broken = true;
+                throw new MessagingException("SMTP connection lost before sending");
+            }
+            // writeTo() calls saveChanges() on new messages; a message read back from the outbox
+            // spool is already saved and keeps its Message-ID across retries
+            Address[] recipients = message.getAllRecipients();
+            if (recipients == null || recipients.length == 0) {
+                throw new SendFailedException("No recipient addresses");
+            }
+            sent++;
+            dirty = true;
+            MetricsRegistry.Timing timing = metrics.start("smtp.send");
+            try {
+                transport.sendMessage(message, recipients);
+                messagesSent.incrementAndGet();
+            } catch (SendFailedException ex) {
+                // Rejected addresses leave the connection usable
+                throw ex;
+            } catch (MessagingException ex) {
+                if (!transport.isConnected()) {
+                    broken = true;
+                }
+                throw ex;
+            } finally {
+                timing.stop();
+            }
+        }
+
+        public boolean isBroken() {
+            return broken;
+        }
+
+        // Sent as many messages as one connection should; close it and borrow a fresh one
+        public boolean isExhausted() {
+            return sent >= MAX_MESSAGES_PER_CONNECTION;
+        }
+
+        // Mark this connection as unusable so it is closed instead of pooled
+        public void invalidate() {
+            broken = true;
+        }
+
+        @Override
+        public void close() {
+            if (returned) {
+                return;
+            }
+            returned = true;
+            owner.release(this);
+        }
+
+        private void discard() {
+            closeQuietly(transport);
+        }
+    }
+
+    /**
+     * Snapshot of pool counters.
+     */
+    public static class Stats {
+        private final long hits;
+        private final long misses;
+        private final long reconnects;
+        private final long messagesSent;
+        private final long connectCount;
+        private final long connectNanos;
+        private final int idleConnections;
+        private final int activeConnections;
+
+        private Stats(long hits, long misses, long reconnects, long messagesSent,
+                      long connectCount, long connectNanos, int idleConnections, int activeConnections) {
+            this.hits = hits;
+            this.misses = misses;
+            this.reconnects = reconnects;
+            this.messagesSent = messagesSent;
+            this.connectCount = connectCount;
+            this.connectNanos = connectNanos;
+            this.idleConnections = idleConnections;
+            this.activeConnections = activeConnections;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getReconnects() {
+            return reconnects;
+        }
+
+        public long getMessagesSent() {
+            return messagesSent;
+        }
+
+        public long getConnectCount() {
+            return connectCount;
+        }
+
+        public double getAverageConnectMillis() {
+            return connectCount == 0 ? 0 : connectNanos / 1_000_000.0 / connectCount;
+        }
+
+        public int getIdleConnections() {
+            return idleConnections;
+        }
+
+        public int getActiveConnections() {
+            return activeConnections;
+        }
+
+        @Override
+        public String toString() {
+            return "SmtpTransportPool.Stats{" +
+                    "hits=" + hits +
+                    ", misses=" + misses +
+                    ", reconnects=" + reconnects +
+                    ", sent=" + messagesSent +
+                    ", avgConnectMs=" + String.format("%.1f", getAverageConnectMillis()) +
+                    ", idle=" + idleConnections +
+                    ", active=" + activeConnections +
+                    '}';
+        }
+    }
+}
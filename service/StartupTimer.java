@@ -0,0 +1,59 @@
+package service;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Milestones of one application launch, in milliseconds since the JVM was
+ * started. Each phase is recorded the first time it is reached, also as a
+ * "startup.&lt;phase&gt;" latency in the MetricsRegistry.
+ */
+public class StartupTimer {
+
+    public static final String FXML_LOADED = "fxmlLoaded";
+    public static final String CONFIG_LOADED = "configLoaded";
+    // Folder tree and cached messages of the last-open folder on screen
+    public static final String FIRST_PAINT = "firstPaint";
+    public static final String FIRST_NETWORK_RESULT = "firstNetworkResult";
+
+    private static final StartupTimer INSTANCE = new StartupTimer();
+
+    private final long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    public static StartupTimer getInstance() {
+        return INSTANCE;
+    }
+
+    // Record a phase; later calls for the same phase are ignored
+    public synchronized void mark(String phase) {
+        if (phases.containsKey(phase)) {
+            return;
+        }
+        long millis = System.currentTimeMillis() - jvmStartMillis;
+        phases.put(phase, millis);
+        MetricsRegistry.getInstance().histogram("startup." + phase).record(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    // Milliseconds from JVM start to the phase, or -1 if it has not been reached
+    public synchronized long getMillis(String phase) {
+        return phases.getOrDefault(phase, -1L);
+    }
+
+    public synchronized Map<String, Long> getPhases() {
+        return new LinkedHashMap<>(phases);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder text = new StringBuilder("StartupTimer{");
+        String separator = "";
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            text.append(separator).append(phase.getKey()).append("Ms=").append(phase.getValue());
+            separator = ", ";
+        }
+        return text.append('}').toString();
+    }
+}
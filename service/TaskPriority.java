@@ -0,0 +1,17 @@
+package service;
+
+/**
+ * Scheduling class of mail work, highest first. Within a class requests are
+ * served in arrival order.
+ */
+public enum TaskPriority {
+    INTERACTIVE,      // the user is waiting on it (opening a message, deleting, sending)
+    FOLDER_OPEN,      // switching folders, paging the message list
+    BACKGROUND_SYNC,  // push/poll updates, bulk sync
+    PREFETCH;         // speculative work
+
+    // Background classes never get the last connection, so a click always finds one
+    public boolean isBackground() {
+        return this == BACKGROUND_SYNC || this == PREFETCH;
+    }
+}
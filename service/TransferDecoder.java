@@ -0,0 +1,194 @@
+package service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import javax.mail.MessagingException;
+
+/**
+ * Content-Transfer-Encoding decoder that takes the encoded part in
+ * arbitrary chunks. Its whole state fits in a long so a checkpoint can
+ * resume mid-quantum (attachment downloads, paged message bodies).
+ */
+abstract class TransferDecoder {
+
+    static TransferDecoder forEncoding(String encoding, long state) throws MessagingException {
+        switch (encoding == null ? "7bit" : encoding) {
+            case "base64":
+                return new Base64Decoder(state);
+            case "quoted-printable":
+                return new QuotedPrintableDecoder(state);
+            case "7bit":
+            case "8bit":
+            case "binary":
+                return identity();
+            default:
+                throw new MessagingException("Unsupported transfer encoding " + encoding);
+        }
+    }
+
+    // Passes the bytes through unchanged (7bit, 8bit, binary)
+    static TransferDecoder identity() {
+        return new IdentityDecoder();
+    }
+
+    // Decoded bytes go to out; when it is full it is written to channel. channel may be null if out
+    // has room for length + 2 bytes (at most two bytes are carried over from the previous chunk).
+    abstract void decode(byte[] src, int offset, int length, ByteBuffer out, FileChannel channel)
+            throws IOException;
+
+    abstract long getState();
+
+    static void put(ByteBuffer out, FileChannel channel, byte value) throws IOException {
+        if (!out.hasRemaining()) {
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            out.clear();
+        }
+        out.put(value);
+    }
+
+    private static class IdentityDecoder extends TransferDecoder {
+        @Override
+        void decode(byte[] src, int offset, int length, ByteBuffer out, FileChannel channel) throws IOException {
+            while (length > 0) {
+                if (!out.hasRemaining()) {
+                    out.flip();
+                    while (out.hasRemaining()) {
+                        channel.write(out);
+                    }
+                    out.clear();
+                }
+                int n = Math.min(length, out.remaining());
+                out.put(src, offset, n);
+                offset += n;
+                length -= n;
+            }
+        }
+
+        @Override
+        long getState() {
+            return 0;
+        }
+    }
+
+    private static class Base64Decoder extends TransferDecoder {
+        private static final int[] VALUES = new int[256];
+
+        static {
+            Arrays.fill(VALUES, -1);
+            String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+            for (int i = 0; i < alphabet.length(); i++) {
+                VALUES[alphabet.charAt(i)] = i;
+            }
+        }
+
+        private int bits;   // up to three pending sextets
+        private int count;  // number of pending sextets
+
+        Base64Decoder(long state) {
+            this.bits = (int) (state >>> 8);
+            this.count = (int) (state & 0xFF);
+        }
+
+        @Override
+        void decode(byte[] src, int offset, int length, ByteBuffer out, FileChannel channel) throws IOException {
+            for (int i = offset; i < offset + length; i++) {
+                int c = src[i] & 0xFF;
+                if (c == '=') {
+                    // Padding: flush a partial quantum
+                    if (count == 2) {
+                        put(out, channel, (byte) (bits >> 4));
+                    } else if (count == 3) {
+                        put(out, channel, (byte) (bits >> 10));
+                        put(out, channel, (byte) (bits >> 2));
+                    }
+                    bits = 0;
+                    count = 0;
+                    continue;
+                }
+                int value = VALUES[c];
+                if (value < 0) {
+                    continue;  // line breaks and other noise
+                }
+                bits = (bits << 6) | value;
+                if (++count == 4) {
+                    put(out, channel, (byte) (bits >> 16));
+                    put(out, channel, (byte) (bits >> 8));
+                    put(out, channel, (byte) bits);
+                    bits = 0;
+                    count = 0;
+                }
+            }
+        }
+
+        @Override
+        long getState() {
+            return ((long) bits << 8) | count;
+        }
+    }
+
+    private static class QuotedPrintableDecoder extends TransferDecoder {
+        // 0: plain text, 1: after '=', 2: after '=' and one hex digit, 3: after "=\r" (soft line break)
+        private int mode;
+        private int firstDigit;
+
+        QuotedPrintableDecoder(long state) {
+            this.mode = (int) (state & 0xFF);
+            this.firstDigit = (int) (state >>> 8);
+        }
+
+        @Override
+        void decode(byte[] src, int offset, int length, ByteBuffer out, FileChannel channel) throws IOException {
+            for (int i = offset; i < offset + length; i++) {
+                byte b = src[i];
+                switch (mode) {
+                    case 0:
+                        if (b == '=') {
+                            mode = 1;
+                        } else {
+                            put(out, channel, b);
+                        }
+                        break;
+                    case 1:
+                        if (b == '\r') {
+                            mode = 3;
+                        } else if (b == '\n') {
+                            mode = 0;
+                        } else {
+                            firstDigit = b & 0xFF;
+                            mode = 2;
+                        }
+                        break;
+                    case 2:
+                        int high = Character.digit(firstDigit, 16);
+                        int low = Character.digit(b, 16);
+                        if (high >= 0 && low >= 0) {
+                            put(out, channel, (byte) ((high << 4) | low));
+                        } else {
+                            // Not an escape: keep the characters as they were
+                            put(out, channel, (byte) '=');
+                            put(out, channel, (byte) firstDigit);
+                            put(out, channel, b);
+                        }
+                        mode = 0;
+                        break;
+                    default:
+                        mode = 0;
+                        if (b != '\n') {
+                            put(out, channel, b);
+                        }
+                        break;
+                }
+            }
+        }
+
+        @Override
+        long getState() {
+            return ((long) firstDigit << 8) | mode;
+        }
+    }
+}